@@ -0,0 +1,264 @@
+package ink.eason.tools.storage.bson;
+
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * A filter condition of a single field evaluated on the encoded value, so that matching int32, int64, double, date
+ * time, boolean, ObjectId, null and string values decodes nothing.
+ * <p>
+ * The results are the ones of {@link RawBsonProjector.BsonDocumentFilter}, numbers of different types are compared
+ * exactly by both. Values the bytes can not decide, like decimals or documents compared to a value of their own type,
+ * are left to the decoded filter.
+ */
+final class RawBsonPredicate {
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    static final int UNDECIDED = 2;
+
+    // compare result of values the bytes can not order
+    private static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+    private enum Operator {
+        EQ, NE, GT, GTE, LT, LTE, IN, NIN, EXISTS, REGEX, UNKNOWN,
+        // the operand is one the decoded filter would fail on, it reports the error
+        INVALID,
+    }
+
+    private final Operator[] operators;
+    private final Operand[][] operands;
+
+    private RawBsonPredicate(Operator[] operators, Operand[][] operands) {
+        this.operators = operators;
+        this.operands = operands;
+    }
+
+    static RawBsonPredicate compile(BsonValue filterValue) {
+        if (!filterValue.isDocument()) {
+            // implicit $eq
+            return new RawBsonPredicate(new Operator[]{Operator.EQ}, new Operand[][]{{new Operand(filterValue)}});
+        }
+        BsonDocument conditions = filterValue.asDocument();
+        Operator[] operators = new Operator[conditions.size()];
+        Operand[][] operands = new Operand[conditions.size()][];
+        int i = 0;
+        for (Map.Entry<String, BsonValue> entry : conditions.entrySet()) {
+            BsonValue value = entry.getValue();
+            Operator operator = switch (entry.getKey()) {
+                case "$eq" -> Operator.EQ;
+                case "$ne" -> Operator.NE;
+                case "$gt" -> Operator.GT;
+                case "$gte" -> Operator.GTE;
+                case "$lt" -> Operator.LT;
+                case "$lte" -> Operator.LTE;
+                case "$in" -> value.isArray() ? Operator.IN : Operator.INVALID;
+                case "$nin" -> value.isArray() ? Operator.NIN : Operator.INVALID;
+                case "$exists" -> Operator.EXISTS;
+                case "$regex" -> value.isString() ? Operator.REGEX : Operator.INVALID;
+                default -> Operator.UNKNOWN;
+            };
+            operators[i] = operator;
+            if (operator == Operator.IN || operator == Operator.NIN) {
+                operands[i] = value.asArray().stream().map(Operand::new).toArray(Operand[]::new);
+            } else {
+                operands[i] = new Operand[]{new Operand(value)};
+            }
+            i++;
+        }
+        return new RawBsonPredicate(operators, operands);
+    }
+
+    /**
+     * Evaluates the condition on the value of {@code type} at {@code position} of {@code buffer}, which is little
+     * endian.
+     *
+     * @return {@link #TRUE}, {@link #FALSE}, or {@link #UNDECIDED} when the value has to be decoded
+     */
+    int evaluate(ByteBuffer buffer, int position, BsonType type) {
+        int result = TRUE;
+        for (int i = 0; i < operators.length; i++) {
+            int matched = apply(operators[i], operands[i], buffer, position, type);
+            if (matched == FALSE) {
+                return FALSE;
+            }
+            if (matched == UNDECIDED) {
+                result = UNDECIDED;
+            }
+        }
+        return result;
+    }
+
+    private static int apply(Operator operator, Operand[] operands, ByteBuffer buffer, int position, BsonType type) {
+        switch (operator) {
+            case EXISTS:
+                return TRUE;
+            case UNKNOWN:
+                return FALSE;
+            case INVALID:
+                return UNDECIDED;
+            case REGEX:
+                return type == BsonType.STRING ? UNDECIDED : FALSE;
+            case IN:
+            case NIN: {
+                boolean undecided = false;
+                for (Operand operand : operands) {
+                    int compare = compare(buffer, position, type, operand);
+                    if (compare == 0) {
+                        return operator == Operator.IN ? TRUE : FALSE;
+                    }
+                    undecided |= compare == INCOMPARABLE;
+                }
+                return undecided ? UNDECIDED : operator == Operator.IN ? FALSE : TRUE;
+            }
+            default:
+                break;
+        }
+        int compare = compare(buffer, position, type, operands[0]);
+        if (compare == INCOMPARABLE) {
+            return UNDECIDED;
+        }
+        boolean matched = switch (operator) {
+            case EQ -> compare == 0;
+            case NE -> compare != 0;
+            case GT -> compare > 0;
+            case GTE -> compare >= 0;
+            case LT -> compare < 0;
+            case LTE -> compare <= 0;
+            default -> throw new IllegalStateException("unexpected operator " + operator);
+        };
+        return matched ? TRUE : FALSE;
+    }
+
+    /**
+     * @return the sign of the value compared to {@code operand}, -1 for values of different types like the decoded
+     * filter, or {@link #INCOMPARABLE}
+     */
+    private static int compare(ByteBuffer buffer, int position, BsonType type, Operand operand) {
+        if (isNumber(type) && isNumber(operand.type)) {
+            if (type == BsonType.DECIMAL128 || operand.type == BsonType.DECIMAL128) {
+                return INCOMPARABLE;
+            }
+            return compareNumbers(buffer, position, type, operand);
+        }
+        if (type != operand.type) {
+            return -1;
+        }
+        return switch (type) {
+            case DATE_TIME -> Long.compare(buffer.getLong(position), operand.longValue);
+            case BOOLEAN -> Boolean.compare(buffer.get(position) != 0, operand.longValue != 0);
+            case NULL -> 0;
+            case OBJECT_ID -> compareBytes(buffer, position, 12, operand.bytes);
+            case STRING -> compareStrings(buffer, position + 4, buffer.getInt(position) - 1, operand.bytes);
+            default -> INCOMPARABLE;
+        };
+    }
+
+    private static int compareNumbers(ByteBuffer buffer, int position, BsonType type, Operand operand) {
+        if (type == BsonType.DOUBLE) {
+            double value = buffer.getDouble(position);
+            return operand.type == BsonType.DOUBLE
+                    ? Double.compare(value, operand.doubleValue)
+                    : -compare(operand.longValue, value);
+        }
+        long value = type == BsonType.INT32 ? buffer.getInt(position) : buffer.getLong(position);
+        return operand.type == BsonType.DOUBLE ? compare(value, operand.doubleValue) : Long.compare(value, operand.longValue);
+    }
+
+    /**
+     * Compares a long to a double without rounding either, NaN is greater than any long as in
+     * {@link Double#compare}.
+     */
+    static int compare(long value, double other) {
+        if (Double.isNaN(other) || other >= 0x1p63) {
+            return -1;
+        }
+        if (other < -0x1p63) {
+            return 1;
+        }
+        // other fits a long once truncated, and the fraction it drops is exact
+        long integral = (long) other;
+        if (value != integral) {
+            return Long.compare(value, integral);
+        }
+        double fraction = other - integral;
+        return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+    }
+
+    private static int compareBytes(ByteBuffer buffer, int position, int length, byte[] other) {
+        for (int i = 0; i < length; i++) {
+            int difference = Integer.compare(buffer.get(position + i) & 0xff, other[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Orders UTF-8 strings like {@link String#compareTo} orders their UTF-16 form.
+     */
+    static int compareStrings(ByteBuffer buffer, int position, int length, byte[] other) {
+        int common = Math.min(length, other.length);
+        for (int i = 0; i < common; i++) {
+            int b = buffer.get(position + i) & 0xff;
+            int o = other[i] & 0xff;
+            if (b == o) {
+                continue;
+            }
+            // the byte order is the code point order, which is the UTF-16 order except for supplementary code points,
+            // whose surrogates sort before U+E000..U+FFFF
+            int lead = i;
+            while (lead > 0 && (other[lead] & 0xc0) == 0x80) {
+                lead--;
+            }
+            int bLead = buffer.get(position + lead) & 0xff;
+            int oLead = other[lead] & 0xff;
+            if (bLead >= 0xf0 && (oLead == 0xee || oLead == 0xef)) {
+                return -1;
+            }
+            if (oLead >= 0xf0 && (bLead == 0xee || bLead == 0xef)) {
+                return 1;
+            }
+            return b < o ? -1 : 1;
+        }
+        return Integer.compare(length, other.length);
+    }
+
+    private static boolean isNumber(BsonType type) {
+        return type == BsonType.INT32 || type == BsonType.INT64 || type == BsonType.DOUBLE || type == BsonType.DECIMAL128;
+    }
+
+    /**
+     * A filter value in the form it is compared to encoded values.
+     */
+    private static final class Operand {
+
+        private final BsonType type;
+        private final long longValue;
+        private final double doubleValue;
+        private final byte[] bytes;
+
+        Operand(BsonValue value) {
+            this.type = value.getBsonType();
+            this.longValue = switch (type) {
+                case INT32 -> value.asInt32().getValue();
+                case INT64 -> value.asInt64().getValue();
+                case DATE_TIME -> value.asDateTime().getValue();
+                case BOOLEAN -> value.asBoolean().getValue() ? 1 : 0;
+                default -> 0;
+            };
+            this.doubleValue = type == BsonType.DOUBLE ? value.asDouble().getValue() : 0;
+            this.bytes = switch (type) {
+                case STRING -> value.asString().getValue().getBytes(StandardCharsets.UTF_8);
+                case OBJECT_ID -> value.asObjectId().getValue().toByteArray();
+                default -> null;
+            };
+        }
+    }
+}
@@ -3,7 +3,6 @@ package ink.eason.tools.storage.bson;
 import ink.eason.tools.storage.bson.RawBsonProjector.InternalBsonBinaryWriter.Mark;
 import org.bson.AbstractBsonWriter;
 import org.bson.BsonArray;
-import org.bson.BsonBinaryReader;
 import org.bson.BsonBinaryWriter;
 import org.bson.BsonBinaryWriterSettings;
 import org.bson.BsonBoolean;
@@ -20,7 +19,7 @@ import org.bson.BsonMaxKey;
 import org.bson.BsonMinKey;
 import org.bson.BsonNull;
 import org.bson.BsonObjectId;
-import org.bson.BsonReaderMark;
+import org.bson.BsonSerializationException;
 import org.bson.BsonString;
 import org.bson.BsonSymbol;
 import org.bson.BsonType;
@@ -33,21 +32,36 @@ import org.bson.FieldNameValidator;
 import org.bson.RawBsonDocument;
 import org.bson.io.BsonOutput;
 import org.bson.io.OutputBuffer;
+import org.bson.types.Decimal128;
 import org.bson.types.ObjectId;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import static java.lang.String.format;
 import static java.nio.ByteOrder.LITTLE_ENDIAN;
@@ -59,40 +73,137 @@ public class RawBsonProjector {
         EXCLUSIVE,
     }
 
-    private static final String ROOT_PATH = "";
+    private static final int NOT_ALIASED = Integer.MIN_VALUE;
+    // smallest chunk of a document stream projected as one task
+    private static final int MIN_CHUNK_BYTES = 64 * 1024;
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024;
+    private static final int MIN_WINDOW_SIZE = 64;
 
-    private final ProjectionMode mode;
+    // backs the methods that take no context, only the output buffer of a projection is allocated then
+    private static final ThreadLocal<ProjectionContext> CONTEXT = ThreadLocal.withInitial(ProjectionContext::new);
 
-    private final Set<String> fields;
+    private final ProjectionMode mode;
 
-    private final Set<String> filterKeys;
+    private final PathNode plan;
 
     private final boolean inPlaceModify;
 
-    private final BsonDocument filters;
+    private final FilterTree filter;
 
     public RawBsonProjector(Set<String> fields, ProjectionMode mode, boolean inPlaceModify, BsonDocument filters) {
         if ((fields == null || fields.isEmpty()) && (filters == null || filters.isEmpty()) ) {
             throw new IllegalArgumentException("fields and filters can't be empty at the same time");
         }
 
-        this.fields = fields != null ? normalizeProjection(fields) : Collections.emptySet();
+        this.plan = compile(fields);
+        this.filter = filters != null ? FilterTree.compile(filters.clone(), plan) : null;
+        plan.seal();
         this.mode = mode;
         this.inPlaceModify = inPlaceModify;
-        this.filterKeys = filters != null ? normalizeFilterKey(filters) : Collections.emptySet();
-        this.filters = filters != null ? filters.clone() : null;
     }
 
     // =============== public instance methods ===============
 
     public RawBsonDocument project(RawBsonDocument input){
-        ByteBuffer output = project(input.getByteBuffer().asNIO());
-        if (output == null) return null;
-        return new RawBsonDocument(output.array(), 0, output.remaining());
+        return toRawBsonDocument(project(input.getByteBuffer().asNIO()));
     }
 
     public ByteBuffer project(ByteBuffer bsonInputByteBuffer){
-        return project(bsonInputByteBuffer, inPlaceModify, fields, mode, filters, filterKeys, new HashMap<>());
+        return project(bsonInputByteBuffer, inPlaceModify, plan, mode, filter);
+    }
+
+    /**
+     * Projects into the output buffer of {@code context} instead of a new one. The returned buffer belongs to the
+     * context and is overwritten by its next use.
+     *
+     * @return the projected document, or {@code null} if it does not match the filters
+     */
+    public ByteBuffer project(ByteBuffer bsonInputByteBuffer, ProjectionContext context) {
+        ByteBuffer output = context.output(bsonInputByteBuffer.remaining(), bsonInputByteBuffer.isDirect());
+        if (!project(bsonInputByteBuffer, output, NOT_ALIASED, plan, mode, filter, context)) {
+            return null;
+        }
+        return output.flip();
+    }
+
+    /**
+     * Writes the projected document at the position of {@code bsonOutputByteBuffer} and moves its position past it.
+     * The output needs as many bytes remaining as the input, a projection never grows the document.
+     *
+     * @return {@code false} if the document does not match the filters, nothing is written then
+     */
+    public boolean project(ByteBuffer bsonInputByteBuffer, ByteBuffer bsonOutputByteBuffer, ProjectionContext context) {
+        if (bsonOutputByteBuffer.remaining() < bsonInputByteBuffer.remaining()) {
+            throw new IllegalArgumentException("output has " + bsonOutputByteBuffer.remaining() + " bytes remaining, "
+                    + bsonInputByteBuffer.remaining() + " needed");
+        }
+        ByteOrder order = bsonOutputByteBuffer.order();
+        try {
+            return project(bsonInputByteBuffer, bsonOutputByteBuffer.order(LITTLE_ENDIAN), NOT_ALIASED, plan, mode, filter, context);
+        } finally {
+            bsonOutputByteBuffer.order(order);
+        }
+    }
+
+    /**
+     * Projects every document of {@code stream}, a sequence of concatenated documents like a mongodump file, and hands
+     * each projected document that matches the filters to {@code sink}. The stream is cut into chunks of whole
+     * documents on their length prefixes, the chunks are projected in parallel in the common {@link ForkJoinPool}.
+     * {@code sink} is only called from the calling thread, in stream order if {@code ordered}, in the order chunks
+     * complete otherwise. In place, the chunks are compacted inside {@code stream}.
+     */
+    public void projectAll(ByteBuffer stream, Consumer<ByteBuffer> sink, boolean ordered) {
+        projectChunks(stream, ordered, output -> {
+            while (output.hasRemaining()) {
+                int length = output.getInt(output.position());
+                sink.accept(output.slice(output.position(), length));
+                output.position(output.position() + length);
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #projectAll(ByteBuffer, Consumer, boolean)} in stream order, writing the projected documents one
+     * after the other to {@code channel}.
+     */
+    public void projectAll(ByteBuffer stream, WritableByteChannel channel) throws IOException {
+        try {
+            projectChunks(stream, true, output -> {
+                try {
+                    while (output.hasRemaining()) {
+                        channel.write(output);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Projects a stream of concatenated documents read from {@code input} and writes the projected documents that match
+     * the filters to {@code output}, holding no more than two buffers of {@code windowSize} bytes whatever the size of
+     * the stream. Documents that fit in the window are projected whole. Larger ones are streamed field by field, which
+     * needs a {@link SeekableByteChannel} output to write their length once it is known, and the values of their
+     * filter keys have to fit in the window. Dropped values are seeked past when {@code input} is seekable.
+     *
+     * @return the number of documents written
+     */
+    public long projectAll(ReadableByteChannel input, WritableByteChannel output, int windowSize) throws IOException {
+        if (windowSize < MIN_WINDOW_SIZE) {
+            throw new IllegalArgumentException("window size must be at least " + MIN_WINDOW_SIZE + ": " + windowSize);
+        }
+        return new ChannelProjection(this, input, null, output, windowSize).run();
+    }
+
+    /**
+     * Same as {@link #projectAll(ReadableByteChannel, WritableByteChannel, int)} with a window of
+     * {@value #DEFAULT_WINDOW_SIZE} bytes, dropped values are skipped with {@link InputStream#skip(long)}.
+     */
+    public long projectAll(InputStream input, WritableByteChannel output) throws IOException {
+        return new ChannelProjection(this, Channels.newChannel(input), input, output, DEFAULT_WINDOW_SIZE).run();
     }
 
     // =============== public static methods ===============
@@ -122,9 +233,7 @@ public class RawBsonProjector {
     }
 
     public static RawBsonDocument project(RawBsonDocument input, boolean inPlaceModify, Set<String> fields, ProjectionMode mode, BsonDocument filters) {
-        ByteBuffer output = project(input.getByteBuffer().asNIO(), inPlaceModify, fields, mode, filters);
-        if (output == null) return null;
-        return new RawBsonDocument(output.array(), 0, output.remaining());
+        return toRawBsonDocument(project(input.getByteBuffer().asNIO(), inPlaceModify, fields, mode, filters));
     }
 
     public static ByteBuffer project(ByteBuffer bsonInputByteBuffer, boolean inPlaceModify, Set<String> fields, ProjectionMode mode, BsonDocument filters) {
@@ -133,361 +242,1040 @@ public class RawBsonProjector {
             throw new IllegalArgumentException("fields and filters can't be empty at the same time");
         }
 
-        fields = fields != null ? normalizeProjection(fields) : Collections.emptySet();
-        Set<String> filterKeys = filters != null ? normalizeFilterKey(filters) : Collections.emptySet();
-        Map<String, BsonValue> valuesForFilter = filters != null ? new HashMap<>(filterKeys.size()) : Collections.emptyMap();
-
-        return project(bsonInputByteBuffer, inPlaceModify, fields, mode, filters, filterKeys, valuesForFilter);
+        PathNode plan = compile(fields);
+        FilterTree filter = filters != null ? FilterTree.compile(filters, plan) : null;
+        plan.seal();
+        return project(bsonInputByteBuffer, inPlaceModify, plan, mode, filter);
 
     }
 
     // ================ core  ================
 
-    private static ByteBuffer project(ByteBuffer bsonInputByteBuffer, boolean inPlaceModify, Set<String> fields, ProjectionMode mode, BsonDocument filters, Set<String> filterKeys, Map<String,BsonValue> valuesForFilter) {
+    private static ByteBuffer project(ByteBuffer bsonInputByteBuffer, boolean inPlaceModify, PathNode plan, ProjectionMode mode, FilterTree filter) {
 
         ByteBuffer bsonOutputByteBuffer = inPlaceModify
                 ? bsonInputByteBuffer.slice().order(LITTLE_ENDIAN)
-                : ByteBuffer.allocate(bsonInputByteBuffer.remaining()).order(LITTLE_ENDIAN);
+                : allocate(bsonInputByteBuffer.remaining(), bsonInputByteBuffer.isDirect()).order(LITTLE_ENDIAN);
+        int aliasOffset = inPlaceModify ? bsonInputByteBuffer.position() : NOT_ALIASED;
+        if (!project(bsonInputByteBuffer, bsonOutputByteBuffer, aliasOffset, plan, mode, filter, CONTEXT.get())) {
+            return null;
+        }
+
+        bsonOutputByteBuffer.limit(bsonOutputByteBuffer.position());
+        bsonOutputByteBuffer.position(0);
+        return bsonOutputByteBuffer;
 
-        try (BsonBinaryReader reader = new BsonBinaryReader(bsonInputByteBuffer);
-             InternalBsonBinaryWriter writer = new InternalBsonBinaryWriter(new InternalOutputByteBuffer(bsonOutputByteBuffer))) {
-            pipeDocument(reader, writer, fields, filterKeys, valuesForFilter, ROOT_PATH, false, mode);
+    }
+
+    /**
+     * @return the context of the calling thread that backs the methods taking no context
+     */
+    static ProjectionContext threadLocalContext() {
+        return CONTEXT.get();
+    }
+
+    private static boolean project(ByteBuffer bsonInputByteBuffer, ByteBuffer bsonOutputByteBuffer, int aliasOffset,
+                                   PathNode plan, ProjectionMode mode, FilterTree filter, ProjectionContext context) {
+
+        int start = bsonOutputByteBuffer.position();
+        context.aliasOffset = aliasOffset;
+        context.startFilter(filter);
+
+        RawBsonScanner scanner = context.scanner;
+        scanner.reset(bsonInputByteBuffer);
+        try {
+            int end = scanner.readStartDocument();
+            scanner.setPosition(bsonInputByteBuffer.position());
+            pipeDocument(scanner, bsonOutputByteBuffer, plan, context, false, mode);
+            // consume the input like a reader would, also when the filters stopped the projection midway
+            bsonInputByteBuffer.position(end);
+
+            if (filter != null && !filter.finish(context)) {
+                bsonOutputByteBuffer.position(start);
+                return false;
+            }
+            return true;
+        } finally {
+            // the thread-local context outlives the call, it must not keep the input or the filters reachable
+            context.release();
         }
 
-        if (filters != null) {
-            boolean matches = BsonDocumentFilter.matches(valuesForFilter, filters);
-            if (!matches) {
-                return null;
+    }
+
+    /**
+     * Projects the chunks of {@code stream} in parallel and passes the output of each, the projected documents one
+     * after the other, to {@code chunkSink} from the calling thread.
+     */
+    private void projectChunks(ByteBuffer stream, boolean ordered, Consumer<ByteBuffer> chunkSink) {
+        ByteBuffer input = stream.duplicate().order(LITTLE_ENDIAN);
+        int end = input.limit();
+        int chunkBytes = Math.max(MIN_CHUNK_BYTES, input.remaining() / (ForkJoinPool.getCommonPoolParallelism() * 4));
+
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        CompletionService<ByteBuffer> completionService = new ExecutorCompletionService<>(pool);
+        List<Future<ByteBuffer>> chunks = new ArrayList<>();
+        try {
+            int chunkStart = input.position();
+            int position = chunkStart;
+            while (position < end) {
+                int length = input.getInt(position);
+                if (length < 5 || length > end - position) {
+                    throw new BsonSerializationException("invalid document length " + length + " at " + position);
+                }
+                position += length;
+                if (position - chunkStart >= chunkBytes || position == end) {
+                    ByteBuffer chunk = input.slice(chunkStart, position - chunkStart);
+                    chunks.add(completionService.submit(() -> projectChunk(chunk)));
+                    chunkStart = position;
+                }
             }
+
+            for (int i = 0; i < chunks.size(); i++) {
+                chunkSink.accept(await(ordered ? chunks.get(i) : completionService.take()));
+            }
+            stream.position(end);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while projecting", e);
+        } finally {
+            chunks.forEach(chunk -> chunk.cancel(false));
         }
+    }
 
-        bsonOutputByteBuffer.limit(bsonOutputByteBuffer.position());
-        bsonOutputByteBuffer.position(0);
-        return bsonOutputByteBuffer;
+    private ByteBuffer projectChunk(ByteBuffer chunk) {
+        ProjectionContext context = CONTEXT.get();
+        // in place a duplicate of the chunk shares its indexes
+        ByteBuffer output = (inPlaceModify ? chunk.duplicate() : allocate(chunk.remaining(), chunk.isDirect())).order(LITTLE_ENDIAN);
+        int aliasOffset = inPlaceModify ? 0 : NOT_ALIASED;
+        while (chunk.hasRemaining()) {
+            project(chunk, output, aliasOffset, plan, mode, filter, context);
+        }
+        return output.flip();
+    }
 
+    private static <T> T await(Future<T> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
-    private static Set<String> normalizeProjection(Set<String> projection) {
-        return projection.stream().map(key -> key.replaceAll("\\[(\\d+)]", ".$1")).collect(Collectors.toSet());
+    /**
+     * Compiles the projection keys into a trie of their path segments, so that matching a field while piping is a
+     * single lookup in the node of its parent. The filter keys are added by {@link FilterTree#compile}, the trie is
+     * sealed after that.
+     */
+    private static PathNode compile(Set<String> fields) {
+        PathNode root = new PathNode("", "");
+        if (fields != null) {
+            for (String field : fields) {
+                root.insert(normalizeKey(field)).projected = true;
+            }
+        }
+        return root;
+    }
+
+    private static String normalizeKey(String key) {
+        return key.replaceAll("\\[(\\d+)]", ".$1");
     }
 
-    private static Set<String> normalizeFilterKey(BsonDocument filter) {
-        Set<String> keys = new HashSet<>();
+    /**
+     * Pipes the document or array at the position of {@code scanner} into {@code output}. Elements that are kept as
+     * they are are copied as raw byte ranges, consecutive ones with a single move, only the length of the documents
+     * that are descended into is written anew.
+     *
+     * @return whether any element was written
+     */
+    private static boolean pipeDocument(RawBsonScanner scanner, ByteBuffer output, PathNode node,
+                                        ProjectionContext context, boolean array, ProjectionMode mode) {
+
+        // read the length first, in place the output overwrites it
+        scanner.readStartDocument();
+        int start = output.position();
+        output.putInt(0);
+
+        // the pending run of elements that are copied unchanged
+        int runStart = -1;
+        int runEnd = -1;
+        int index = 0;
+        int writtenIndex = 0;
+        while (!context.rejected() && scanner.next()) {
+
+            int elementStart = scanner.getNameStart() - 1;
+            // the name is matched by its bytes, array elements by their index
+            PathNode child = node == null ? null : array ? node.child(index) : node.child(scanner);
+            Selection selection = select(scanner, child, context, mode);
+            if (selection == Selection.KEEP && (!array || writtenIndex == index)) {
+                if (runStart < 0) {
+                    runStart = elementStart;
+                }
+                scanner.skipValue();
+                runEnd = scanner.getPosition();
+                writtenIndex++;
+                index++;
+                continue;
+            }
 
-        for (String key : filter.keySet()) {
-            BsonValue filterValue = filter.get(key);
-            switch (key) {
-                case "$and", "$or":
-                    for (BsonValue condition : filterValue.asArray()) {
-                        keys.addAll(normalizeFilterKey(condition.asDocument()));
+            if (runStart >= 0) {
+                copy(scanner.getBuffer(), runStart, output, runEnd - runStart, context.aliasOffset);
+                runStart = -1;
+            }
+            switch (selection) {
+                case KEEP -> {
+                    // an array element that moves to a lower index
+                    copyElement(scanner, output, writtenIndex, context.aliasOffset);
+                    writtenIndex++;
+                }
+                case DROP -> scanner.skipValue();
+                case DESCEND -> {
+                    // 它包含的子元素可能需要被丢弃， 或者它的子元素需要被采集做filter
+                    int mark = output.position();
+                    writeHeader(scanner, output, array ? writtenIndex : -1, context.aliasOffset);
+                    if (pipeDocument(scanner, output, child, context, scanner.getCurrentBsonType() == BsonType.ARRAY, mode)) {
+                        writtenIndex++;
+                    } else {
+                        output.position(mark);
                     }
-                    break;
-                default:
-                    keys.add(key);
+                }
+            }
+            index++;
+
+        }
+        if (context.rejected()) {
+            // the rest of the document does not matter any more
+            return false;
+        }
+        if (runStart >= 0) {
+            copy(scanner.getBuffer(), runStart, output, runEnd - runStart, context.aliasOffset);
+        }
+
+        output.put((byte) 0);
+        output.putInt(start, output.position() - start);
+        return writtenIndex > 0;
+    }
+
+    private enum Selection {
+        KEEP,
+        DROP,
+        DESCEND,
+    }
+
+    /**
+     * Decides what becomes of the current element of {@code scanner} and collects its filter values.
+     *
+     * @param node the trie node of the element, {@code null} when no key goes through it
+     */
+    private static Selection select(RawBsonScanner scanner, PathNode node, ProjectionContext context,
+                                    ProjectionMode mode) {
+
+        Selection unmatched = mode == ProjectionMode.EXCLUSIVE ? Selection.KEEP : Selection.DROP;
+        if (node == null) {
+            return unmatched;
+        }
+        if (node.filtered) {
+            context.filter.collect(context, node, scanner);
+        }
+        if (node.projected) {
+            if (node.hasFilteredDescendant && context.filterUndecided()) {
+                int elementStart = scanner.getNameStart() - 1;
+                collectFilterValues(scanner, node, context);
+                rewind(scanner, elementStart);
             }
+            return mode == ProjectionMode.INCLUSIVE ? Selection.KEEP : Selection.DROP;
+        }
+        BsonType bsonType = scanner.getCurrentBsonType();
+        if ((bsonType == BsonType.DOCUMENT || bsonType == BsonType.ARRAY)
+                && (node.hasProjectedDescendant || node.hasFilteredDescendant)) {
+            return Selection.DESCEND;
         }
+        return unmatched;
+    }
 
-        return keys.stream().map(key -> key.replaceAll("\\[(\\d+)]", ".$1")).collect(Collectors.toCollection(HashSet::new));
+    /**
+     * Collects the filter values below {@code node} out of the current value of {@code scanner} and moves past it.
+     */
+    private static void collectFilterValues(RawBsonScanner scanner, PathNode node, ProjectionContext context) {
+        BsonType bsonType = scanner.getCurrentBsonType();
+        if (bsonType != BsonType.DOCUMENT && bsonType != BsonType.ARRAY) {
+            scanner.skipValue();
+            return;
+        }
+        boolean array = bsonType == BsonType.ARRAY;
+        scanner.readStartDocument();
+        int index = 0;
+        while (scanner.next()) {
+            PathNode child = array ? node.child(index++) : node.child(scanner);
+            if (child != null && child.filtered) {
+                context.filter.collect(context, child, scanner);
+            }
+            if (child != null && child.hasFilteredDescendant && context.filterUndecided()) {
+                collectFilterValues(scanner, child, context);
+            } else {
+                scanner.skipValue();
+            }
+        }
     }
 
-    private static boolean pipeDocument(BsonBinaryReader reader, InternalBsonBinaryWriter writer,
-                                 Set<String> projKeys, Set<String> filterKeys, Map<String, BsonValue> valuesForFilter, String currentPath, boolean exactMatched, ProjectionMode mode) {
+    /**
+     * Reads the current value without moving past it.
+     */
+    private static BsonValue peekValue(RawBsonScanner scanner) {
+        int elementStart = scanner.getNameStart() - 1;
+        BsonValue value = readValue(scanner);
+        rewind(scanner, elementStart);
+        return value;
+    }
 
-        reader.readStartDocument();
-        writer.writeStartDocument();
+    /**
+     * Moves back to the element starting at {@code elementStart}, reading a container leaves the scanner on the
+     * elements inside it.
+     */
+    private static void rewind(RawBsonScanner scanner, int elementStart) {
+        scanner.setPosition(elementStart);
+        scanner.next();
+    }
 
-        boolean hasValueWritten = false;
+    /**
+     * Writes the type and name of the current element, renumbering it when it is an array element.
+     */
+    private static void writeHeader(RawBsonScanner scanner, ByteBuffer output, int arrayIndex, int aliasOffset) {
+        int typeStart = scanner.getNameStart() - 1;
+        if (arrayIndex < 0) {
+            copy(scanner.getBuffer(), typeStart, output, scanner.getNameLength() + 2, aliasOffset);
+            return;
+        }
+        output.put(scanner.getBuffer().get(typeStart));
+        putIndex(output, arrayIndex);
+        output.put((byte) 0);
+    }
 
-        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+    private static void copyElement(RawBsonScanner scanner, ByteBuffer output, int arrayIndex, int aliasOffset) {
+        writeHeader(scanner, output, arrayIndex, aliasOffset);
+        int valueStart = scanner.getPosition();
+        scanner.skipValue();
+        copy(scanner.getBuffer(), valueStart, output, scanner.getPosition() - valueStart, aliasOffset);
+    }
 
-            String fieldName = reader.readName();
-            String fullPath = currentPath.isEmpty() ? fieldName : currentPath + "." + fieldName;
+    /**
+     * @param aliasOffset the input index minus the output index of the same byte when the output aliases the input,
+     *                    {@link #NOT_ALIASED} otherwise
+     */
+    private static void copy(ByteBuffer input, int offset, ByteBuffer output, int length, int aliasOffset) {
+        // in place the output trails the input, the copy is a memmove then, and nothing at all until a byte is dropped
+        if (offset - output.position() != aliasOffset) {
+            output.put(output.position(), input, offset, length);
+        }
+        output.position(output.position() + length);
+    }
 
-            if (filterKeys.contains(fullPath)) {
-                BsonReaderMark mark = reader.getMark();
-                valuesForFilter.put(fullPath, readValue(reader));
-                mark.reset();
-            }
+    private static void putIndex(ByteBuffer output, int index) {
+        if (index >= 10) {
+            putIndex(output, index / 10);
+        }
+        output.put((byte) ('0' + index % 10));
+    }
 
-            BsonType bsonType = reader.getCurrentBsonType();
-            boolean isExactMatch = projKeys.contains(fullPath);
-            boolean mayHaveProjectKey = false;
-            boolean mayHaveFilterKey = false;
-            if (!isExactMatch && !exactMatched) {
-                // only under (!isExactMatch && !writePermitted) case will need to use these boolean fields
-                mayHaveProjectKey = projKeys.stream().anyMatch(key -> key.contains(fullPath + "."));
-                mayHaveFilterKey = filterKeys.stream().anyMatch(key -> key.contains(fullPath + "."));
+    private static BsonDocument readDocument(RawBsonScanner scanner) {
+        BsonDocument document = new BsonDocument();
+        scanner.readStartDocument();
+        while (scanner.next()) {
+            document.put(scanner.readName(), readValue(scanner));
+        }
+        return document;
+    }
+
+    private static BsonArray readArray(RawBsonScanner scanner) {
+        BsonArray array = new BsonArray();
+        scanner.readStartDocument();
+        while (scanner.next()) {
+            array.add(readValue(scanner));
+        }
+        return array;
+    }
+
+    private static BsonValue readValue(RawBsonScanner scanner) {
+        BsonType bsonType = scanner.getCurrentBsonType();
+        return switch (bsonType) {
+            case DOCUMENT -> readDocument(scanner);
+            case ARRAY -> readArray(scanner);
+            case DOUBLE -> new BsonDouble(scanner.readDouble());
+            case STRING -> new BsonString(scanner.readString());
+            case BINARY -> scanner.readBinaryData();
+            case UNDEFINED -> new BsonUndefined();
+            case OBJECT_ID -> new BsonObjectId(scanner.readObjectId());
+            case BOOLEAN -> new BsonBoolean(scanner.readBoolean());
+            case DATE_TIME -> new BsonDateTime(scanner.readDateTime());
+            case NULL -> new BsonNull();
+            case REGULAR_EXPRESSION -> scanner.readRegularExpression();
+            case JAVASCRIPT -> new BsonJavaScript(scanner.readString());
+            case SYMBOL -> new BsonSymbol(scanner.readString());
+            case JAVASCRIPT_WITH_SCOPE -> new BsonJavaScriptWithScope(scanner.readJavaScriptWithScope(), readDocument(scanner));
+            case INT32 -> new BsonInt32(scanner.readInt32());
+            case TIMESTAMP -> scanner.readTimestamp();
+            case INT64 -> new BsonInt64(scanner.readInt64());
+            case DECIMAL128 -> new BsonDecimal128(scanner.readDecimal128());
+            case MIN_KEY -> new BsonMinKey();
+            case DB_POINTER -> scanner.readDBPointer();
+            case MAX_KEY -> new BsonMaxKey();
+            default -> throw new BsonInvalidOperationException("Unsupported BSON type: " + bsonType);
+        };
+    }
+
+    // ================ internal helper class ================
+
+    /**
+     * Node of a compiled projection plan, one per path segment of the projection and filter keys. Children are found
+     * by the UTF-8 bytes of their name in an open addressing table, so field names are never decoded to be matched.
+     * Numeric segments address array elements and are also reachable by index, so piping an array does not format its
+     * indexes.
+     */
+    private static final class PathNode {
+
+        private static final PathNode[] NO_CHILDREN = new PathNode[0];
+        private static final int[] NO_CONDITIONS = new int[0];
+        private static final int MAX_INDEXED_CHILDREN = 1024;
+
+        private final String path;
+        private final byte[] name;
+        private final int nameHash;
+        private final Map<String, PathNode> children = new HashMap<>();
+        private PathNode[] childTable = NO_CHILDREN;
+        private PathNode[] indexedChildren = NO_CHILDREN;
+        private int maxIndex = -1;
+
+        /** a projection key ends here */
+        private boolean projected;
+        /** a filter key ends here, the value decides the conditions in {@link #filterConditions} */
+        private boolean filtered;
+        private int[] filterConditions = NO_CONDITIONS;
+        private boolean hasProjectedDescendant;
+        private boolean hasFilteredDescendant;
+
+        private PathNode(String path, String name) {
+            this.path = path;
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.nameHash = RawBsonScanner.hash(this.name);
+        }
+
+        private PathNode insert(String key) {
+            PathNode node = this;
+            for (String segment : key.split("\\.", -1)) {
+                PathNode parent = node;
+                node = parent.children.computeIfAbsent(segment, k -> new PathNode(parent.path.isEmpty() ? k : parent.path + "." + k, k));
             }
+            return node;
+        }
 
-            if (mode == ProjectionMode.INCLUSIVE) {
-                if (isExactMatch||exactMatched) {
-                    writer.writeName(fieldName);
-                    pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, true, mode);
-                    hasValueWritten = true;
+        private void seal() {
+            if (!children.isEmpty()) {
+                // at most half full, so that probes stay short
+                childTable = new PathNode[Integer.highestOneBit(children.size() * 4 - 1)];
+                for (PathNode child : children.values()) {
+                    int slot = child.nameHash & (childTable.length - 1);
+                    while (childTable[slot] != null) {
+                        slot = (slot + 1) & (childTable.length - 1);
+                    }
+                    childTable[slot] = child;
                 }
-                else if ((bsonType == BsonType.DOCUMENT || bsonType == BsonType.ARRAY) && (mayHaveProjectKey || mayHaveFilterKey)) {
-                    Mark mark = writer.getMark();
-                    writer.writeName(fieldName);
-                    if (pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, false, mode)) {
-                        hasValueWritten = true;
-                    } else {
-                        writer.resetMark(mark);
+            }
+            for (Map.Entry<String, PathNode> entry : children.entrySet()) {
+                PathNode child = entry.getValue();
+                child.seal();
+                hasProjectedDescendant |= child.projected || child.hasProjectedDescendant;
+                hasFilteredDescendant |= child.filtered || child.hasFilteredDescendant;
+                int index = arrayIndex(entry.getKey());
+                if (index >= 0) {
+                    maxIndex = Math.max(maxIndex, index);
+                    if (index < MAX_INDEXED_CHILDREN) {
+                        if (index >= indexedChildren.length) {
+                            indexedChildren = Arrays.copyOf(indexedChildren, index + 1);
+                        }
+                        indexedChildren[index] = child;
                     }
                 }
-                else {
-                    reader.skipValue();
+            }
+        }
+
+        /**
+         * @return the child named like the current element of {@code scanner}, if any
+         */
+        private PathNode child(RawBsonScanner scanner) {
+            if (childTable.length == 0) {
+                return null;
+            }
+            int hash = scanner.getNameHash();
+            int mask = childTable.length - 1;
+            for (int slot = hash & mask; childTable[slot] != null; slot = (slot + 1) & mask) {
+                PathNode child = childTable[slot];
+                if (child.nameHash == hash && scanner.nameEquals(child.name)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private PathNode child(int index) {
+            if (index < indexedChildren.length) {
+                return indexedChildren[index];
+            }
+            return index <= maxIndex ? children.get(Integer.toString(index)) : null;
+        }
+
+        /**
+         * @return the index addressed by {@code segment}, or -1 if it is not the canonical form of an index
+         */
+        private static int arrayIndex(String segment) {
+            if (segment.isEmpty() || segment.length() > 9 || (segment.length() > 1 && segment.charAt(0) == '0')) {
+                return -1;
+            }
+            for (int i = 0; i < segment.length(); i++) {
+                if (segment.charAt(i) < '0' || segment.charAt(i) > '9') {
+                    return -1;
                 }
             }
-            else if (mode == ProjectionMode.EXCLUSIVE) {
-                if (isExactMatch||exactMatched) {
-                    // 这个value可以完全不要，因为它的子元素都不需要被采集
-                    if (filterKeys.stream().noneMatch(key -> key.contains(fullPath + "."))) {
-                        reader.skipValue();
+            return Integer.parseInt(segment);
+        }
+    }
+
+    /**
+     * The filters compiled into a tree of AND and OR nodes over field conditions, which is evaluated while the document
+     * is piped. A condition is decided by the first value met for its key, the ones whose key is never met are decided
+     * with a missing value at the end of the document. Once the root is decided no more filter values are decoded, and
+     * a rejected document is not piped any further.
+     */
+    private static final class FilterTree {
+
+        private static final byte UNDECIDED = 0;
+        private static final byte TRUE = 1;
+        private static final byte FALSE = 2;
+
+        private static final byte AND = 0;
+        private static final byte OR = 1;
+        private static final byte CONDITION = 2;
+
+        private final int[] parents;
+        private final byte[] kinds;
+        // the filter value of each condition, as matched by BsonDocumentFilter
+        private final BsonValue[] conditions;
+        // the same conditions evaluated on the encoded values
+        private final RawBsonPredicate[] predicates;
+        // the state every document starts from, AND and OR without children are decided already
+        private final byte[] initialResults;
+        private final int[] initialPending;
+
+        private FilterTree(List<Integer> parents, List<Byte> kinds, List<BsonValue> conditions) {
+            int size = parents.size();
+            this.parents = new int[size];
+            this.kinds = new byte[size];
+            this.conditions = conditions.toArray(new BsonValue[0]);
+            this.predicates = new RawBsonPredicate[size];
+            this.initialResults = new byte[size];
+            this.initialPending = new int[size];
+            for (int i = 0; i < size; i++) {
+                this.parents[i] = parents.get(i);
+                this.kinds[i] = kinds.get(i);
+                if (this.kinds[i] == CONDITION) {
+                    predicates[i] = RawBsonPredicate.compile(this.conditions[i]);
+                }
+                if (i > 0) {
+                    initialPending[this.parents[i]]++;
+                }
+            }
+            for (int i = size - 1; i >= 0; i--) {
+                if (this.kinds[i] != CONDITION && initialPending[i] == 0) {
+                    resolve(initialResults, initialPending, i, this.kinds[i] == AND);
+                }
+            }
+        }
+
+        /**
+         * Compiles {@code filters} and adds their keys to the trie of {@code root}.
+         */
+        static FilterTree compile(BsonDocument filters, PathNode root) {
+            List<Integer> parents = new ArrayList<>();
+            List<Byte> kinds = new ArrayList<>();
+            List<BsonValue> conditions = new ArrayList<>();
+            addDocument(filters, -1, root, parents, kinds, conditions);
+            return new FilterTree(parents, kinds, conditions);
+        }
+
+        private static void addDocument(BsonDocument filter, int parent, PathNode root,
+                                        List<Integer> parents, List<Byte> kinds, List<BsonValue> conditions) {
+            int id = add(AND, parent, null, parents, kinds, conditions);
+            for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+                switch (entry.getKey()) {
+                    case "$and", "$or" -> {
+                        int group = add(entry.getKey().equals("$and") ? AND : OR, id, null, parents, kinds, conditions);
+                        for (BsonValue condition : entry.getValue().asArray()) {
+                            addDocument(condition.asDocument(), group, root, parents, kinds, conditions);
+                        }
                     }
-                    else {
-                        Mark mark = writer.getMark();
-                        writer.writeName(fieldName);
-                        pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, true, mode);
-                        writer.resetMark(mark);
+                    default -> {
+                        int condition = add(CONDITION, id, entry.getValue(), parents, kinds, conditions);
+                        PathNode node = root.insert(normalizeKey(entry.getKey()));
+                        node.filtered = true;
+                        node.filterConditions = Arrays.copyOf(node.filterConditions, node.filterConditions.length + 1);
+                        node.filterConditions[node.filterConditions.length - 1] = condition;
                     }
                 }
-                else if ((bsonType == BsonType.DOCUMENT || bsonType == BsonType.ARRAY) && (mayHaveProjectKey || mayHaveFilterKey)) {
-                    // 它包含的子元素可能需要被丢弃， 或者它的子元素需要被采集做filter
-                    Mark mark = writer.getMark();
-                    writer.writeName(fieldName);
-                    if (pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, false, mode)) {
-                        hasValueWritten = true;
-                    } else {
-                        writer.resetMark(mark);
-                    }
+            }
+        }
+
+        private static int add(byte kind, int parent, BsonValue condition,
+                               List<Integer> parents, List<Byte> kinds, List<BsonValue> conditions) {
+            parents.add(parent);
+            kinds.add(kind);
+            conditions.add(condition);
+            return parents.size() - 1;
+        }
+
+        private void reset(ProjectionContext context) {
+            int size = kinds.length;
+            if (context.filterResults.length < size) {
+                context.filterResults = new byte[size];
+                context.filterPending = new int[size];
+            }
+            System.arraycopy(initialResults, 0, context.filterResults, 0, size);
+            System.arraycopy(initialPending, 0, context.filterPending, 0, size);
+        }
+
+        /**
+         * Decides the conditions on the key of {@code node} with the current value of {@code scanner}, without moving
+         * past it. The value is only decoded for the conditions the encoded bytes can not decide.
+         */
+        private void collect(ProjectionContext context, PathNode node, RawBsonScanner scanner) {
+            byte[] results = context.filterResults;
+            BsonValue value = null;
+            for (int condition : node.filterConditions) {
+                if (results[0] != UNDECIDED) {
+                    return;
                 }
-                else {
-                    writer.writeName(fieldName);
-                    pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath,false, mode);
-                    hasValueWritten = true;
+                if (results[condition] == UNDECIDED) {
+                    int matched = predicates[condition].evaluate(scanner.getBuffer(), scanner.getPosition(), scanner.getCurrentBsonType());
+                    if (matched == RawBsonPredicate.UNDECIDED) {
+                        if (value == null) {
+                            value = peekValue(scanner);
+                        }
+                        matched = BsonDocumentFilter.fieldMatches(value, conditions[condition]) ? RawBsonPredicate.TRUE : RawBsonPredicate.FALSE;
+                    }
+                    resolve(results, context.filterPending, condition, matched == RawBsonPredicate.TRUE);
                 }
             }
-
         }
 
-        reader.readEndDocument();
-        writer.writeEndDocument();
+        /**
+         * Decides the conditions whose key was not met.
+         *
+         * @return whether the document matches
+         */
+        private boolean finish(ProjectionContext context) {
+            byte[] results = context.filterResults;
+            for (int i = 0; i < kinds.length && results[0] == UNDECIDED; i++) {
+                if (kinds[i] == CONDITION && results[i] == UNDECIDED) {
+                    resolve(results, context.filterPending, i, BsonDocumentFilter.fieldMatches(null, conditions[i]));
+                }
+            }
+            return results[0] == TRUE;
+        }
 
-        return hasValueWritten;
+        private void resolve(byte[] results, int[] pending, int node, boolean value) {
+            while (results[node] == UNDECIDED) {
+                results[node] = value ? TRUE : FALSE;
+                int parent = parents[node];
+                if (parent < 0) {
+                    return;
+                }
+                // false decides an AND, true decides an OR, otherwise the parent waits for its other children
+                boolean decisive = kinds[parent] == AND ? !value : value;
+                if (!decisive && --pending[parent] > 0) {
+                    return;
+                }
+                node = parent;
+            }
+        }
     }
 
-    private static boolean pipeArray(BsonBinaryReader reader, InternalBsonBinaryWriter writer,
-                              Set<String> projKeys, Set<String> filterKeys, Map<String,BsonValue> valuesForFilter, String currentPath, boolean exactMatched, ProjectionMode mode) {
+    /**
+     * Projection of a document stream read from a channel through a bounded window.
+     */
+    private static final class ChannelProjection {
+
+        private final RawBsonProjector projector;
+        private final ReadableByteChannel input;
+        // skips the input when it is not a seekable channel, may be null
+        private final InputStream inputStream;
+        private final WritableByteChannel output;
+        // the unread input, in read mode
+        private final ByteBuffer window;
+        // the output not written yet, in write mode
+        private final ByteBuffer outputWindow;
+        private final ProjectionContext context = new ProjectionContext();
+        private final RawBsonScanner scanner = new RawBsonScanner();
+        // the furthest position written to a seekable output, which is truncated after rollbacks
+        private long highWater;
+
+        private ChannelProjection(RawBsonProjector projector, ReadableByteChannel input, InputStream inputStream,
+                                  WritableByteChannel output, int windowSize) {
+            this.projector = projector;
+            this.input = input;
+            this.inputStream = inputStream;
+            this.output = output;
+            this.window = ByteBuffer.allocate(windowSize).order(LITTLE_ENDIAN).flip();
+            this.outputWindow = ByteBuffer.allocate(windowSize).order(LITTLE_ENDIAN);
+        }
 
-        reader.readStartArray();
-        writer.writeStartArray();
-        boolean hasValueWritten = false;
+        private long run() throws IOException {
+            long written = 0;
+            while (fill(4)) {
+                int length = window.getInt(window.position());
+                boolean matched;
+                if (length <= window.capacity()) {
+                    require(length);
+                    reserve(length);
+                    matched = project(window, outputWindow, NOT_ALIASED, projector.plan, projector.mode, projector.filter, context);
+                } else if (output instanceof SeekableByteChannel seekable) {
+                    matched = projectLarge(seekable);
+                } else {
+                    throw new BsonSerializationException("document of " + length + " bytes is larger than the window of "
+                            + window.capacity() + " bytes and the output is not seekable");
+                }
+                if (matched) {
+                    written++;
+                }
+            }
+            if (window.hasRemaining()) {
+                throw new BsonSerializationException("truncated document at the end of the stream");
+            }
+            if (output instanceof SeekableByteChannel seekable && highWater > position(seekable)) {
+                seekable.truncate(seekable.position());
+            }
+            flush();
+            return written;
+        }
 
-        int idx = 0;
-        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        private boolean projectLarge(SeekableByteChannel seekable) throws IOException {
+            long start = position(seekable);
+            context.aliasOffset = NOT_ALIASED;
+            context.startFilter(projector.filter);
+            pipeLarge(seekable, projector.plan, false);
+            if (projector.filter != null && !projector.filter.finish(context)) {
+                rollback(seekable, start);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Pipes the document at the start of the window, which may be larger than the window, element by element.
+         *
+         * @return whether any element was written
+         */
+        private boolean pipeLarge(SeekableByteChannel seekable, PathNode node, boolean array) throws IOException {
+            require(4);
+            int length = window.getInt(window.position());
+            if (length < 5) {
+                throw new BsonSerializationException("invalid document length " + length);
+            }
+            window.position(window.position() + 4);
+            long start = position(seekable);
+            reserve(4);
+            outputWindow.putInt(0);
+
+            int index = 0;
+            int writtenIndex = 0;
+            while (true) {
+                require(1);
+                if (window.get(window.position()) == 0) {
+                    window.position(window.position() + 1);
+                    break;
+                }
+                int headerLength = requireElementPrefix();
+                scanElement();
+                long elementLength = headerLength + (long) scanner.getValueLength();
+                PathNode child = node == null ? null : array ? node.child(index) : node.child(scanner);
+
+                if (elementLength <= window.capacity()) {
+                    // the whole element fits, project it in memory
+                    require((int) elementLength);
+                    scanElement();
+                    reserve((int) elementLength);
+                    int elementEnd = window.position() + (int) elementLength;
+                    switch (context.rejected() ? Selection.DROP : select(scanner, child, context, projector.mode)) {
+                        case KEEP -> {
+                            copyElement(scanner, outputWindow, array ? writtenIndex : -1, NOT_ALIASED);
+                            writtenIndex++;
+                        }
+                        case DROP -> scanner.skipValue();
+                        case DESCEND -> {
+                            int mark = outputWindow.position();
+                            writeHeader(scanner, outputWindow, array ? writtenIndex : -1, NOT_ALIASED);
+                            if (pipeDocument(scanner, outputWindow, child, context, scanner.getCurrentBsonType() == BsonType.ARRAY, projector.mode)) {
+                                writtenIndex++;
+                            } else {
+                                outputWindow.position(mark);
+                            }
+                        }
+                    }
+                    // the filters may have stopped the element midway
+                    window.position(elementEnd);
+                } else {
+                    if (child != null && context.filterUndecided() && (child.filtered || child.projected && child.hasFilteredDescendant)) {
+                        throw new BsonSerializationException("value of " + child.path + " for the filters is larger than the window");
+                    }
+                    long valueLength = elementLength - headerLength;
+                    switch (context.rejected() ? Selection.DROP : select(scanner, child, context, projector.mode)) {
+                        case KEEP -> {
+                            reserve(headerLength);
+                            writeHeader(scanner, outputWindow, array ? writtenIndex : -1, NOT_ALIASED);
+                            window.position(scanner.getPosition());
+                            transfer(valueLength);
+                            writtenIndex++;
+                        }
+                        case DROP -> {
+                            window.position(scanner.getPosition());
+                            skip(valueLength);
+                        }
+                        case DESCEND -> {
+                            long mark = position(seekable);
+                            reserve(headerLength);
+                            writeHeader(scanner, outputWindow, array ? writtenIndex : -1, NOT_ALIASED);
+                            boolean isArray = scanner.getCurrentBsonType() == BsonType.ARRAY;
+                            window.position(scanner.getPosition());
+                            if (pipeLarge(seekable, child, isArray)) {
+                                writtenIndex++;
+                            } else {
+                                rollback(seekable, mark);
+                            }
+                        }
+                    }
+                }
+                index++;
+            }
+            if (context.rejected()) {
+                return false;
+            }
 
-            BsonType bsonType = reader.getCurrentBsonType();
-            String fullPath = currentPath + "." + idx;
-            if (filterKeys.contains(fullPath)) {
-                BsonReaderMark mark = reader.getMark();
-                valuesForFilter.put(fullPath, readValue(reader));
-                mark.reset();
+            reserve(1);
+            outputWindow.put((byte) 0);
+            long end = position(seekable);
+            ByteBuffer lengthBytes = ByteBuffer.allocate(4).order(LITTLE_ENDIAN).putInt(0, (int) (end - start));
+            seekable.position(start);
+            while (lengthBytes.hasRemaining()) {
+                seekable.write(lengthBytes);
             }
+            seekable.position(end);
+            return writtenIndex > 0;
+        }
 
-            boolean isExactMatch = projKeys.contains(fullPath);
-            boolean mayHaveProjectKey = false;
-            boolean mayHaveFilterKey = false;
-            if (!isExactMatch && !exactMatched) {
-                // only under (!isExactMatch && !writePermitted) case will need to use these boolean fields
-                mayHaveProjectKey = projKeys.stream().anyMatch(key -> key.contains(fullPath + "."));
-                mayHaveFilterKey = filterKeys.stream().anyMatch(key -> key.contains(fullPath + "."));
+        /**
+         * Makes sure the type, the name and the bytes the length of the value is read from are in the window.
+         *
+         * @return the length of the type and the name
+         */
+        private int requireElementPrefix() throws IOException {
+            int headerLength = requireCString(1) + 1;
+            byte type = window.get(window.position());
+            if (type == BsonType.REGULAR_EXPRESSION.getValue()) {
+                requireCString(requireCString(headerLength) + headerLength);
+            } else if (type == BsonType.BOOLEAN.getValue()) {
+                require(headerLength + 1);
+            } else if (type != BsonType.NULL.getValue() && type != BsonType.UNDEFINED.getValue()
+                    && type != BsonType.MIN_KEY.getValue() && type != BsonType.MAX_KEY.getValue()) {
+                require(headerLength + 4);
             }
+            return headerLength;
+        }
 
-            if (mode == ProjectionMode.INCLUSIVE) {
-                if (isExactMatch||exactMatched) {
-                    pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, true, mode);
-                    hasValueWritten = true;
+        /**
+         * @return the length with its terminator of the C string at {@code offset} in the window
+         */
+        private int requireCString(int offset) throws IOException {
+            int searched = offset;
+            while (true) {
+                for (int i = window.position() + searched; i < window.limit(); i++) {
+                    if (window.get(i) == 0) {
+                        return i + 1 - window.position() - offset;
+                    }
                 }
-                else if ((bsonType == BsonType.DOCUMENT || bsonType == BsonType.ARRAY) && (mayHaveProjectKey || mayHaveFilterKey)) {
-                    Mark mark = writer.getMark();
-                    if (pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, false, mode)) {
-                        hasValueWritten = true;
-                    } else {
-                        writer.resetMark(mark);
+                searched = window.remaining();
+                require(searched + 1);
+            }
+        }
+
+        private void scanElement() {
+            scanner.reset(window);
+            scanner.next();
+        }
+
+        /**
+         * @return {@code false} if the input ends before any byte is missing
+         */
+        private boolean fill(int length) throws IOException {
+            if (window.remaining() >= length) {
+                return true;
+            }
+            if (length > window.capacity()) {
+                throw new BsonSerializationException(length + " bytes needed in a window of " + window.capacity() + " bytes");
+            }
+            window.compact();
+            try {
+                while (window.position() < length) {
+                    if (input.read(window) < 0) {
+                        return false;
                     }
                 }
-                else {
-                    reader.skipValue();
+            } finally {
+                window.flip();
+            }
+            return true;
+        }
+
+        private void require(int length) throws IOException {
+            if (!fill(length)) {
+                throw new BsonSerializationException("truncated document at the end of the stream");
+            }
+        }
+
+        private void transfer(long length) throws IOException {
+            flush();
+            while (length > 0) {
+                require(1);
+                int chunk = (int) Math.min(length, window.remaining());
+                ByteBuffer slice = window.slice(window.position(), chunk);
+                while (slice.hasRemaining()) {
+                    output.write(slice);
                 }
+                window.position(window.position() + chunk);
+                length -= chunk;
             }
-            else if (mode == ProjectionMode.EXCLUSIVE) {
-                if (isExactMatch||exactMatched) {
-                    if (filterKeys.stream().noneMatch(key -> key.contains(fullPath + "."))) {
-                        reader.skipValue();
-                    } else {
-                        Mark mark = writer.getMark();
-                        pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, true, mode);
-                        writer.resetMark(mark);
-                    }
+        }
+
+        private void skip(long length) throws IOException {
+            int buffered = (int) Math.min(length, window.remaining());
+            window.position(window.position() + buffered);
+            length -= buffered;
+            if (length == 0) {
+                return;
+            }
+            if (input instanceof SeekableByteChannel seekable) {
+                seekable.position(seekable.position() + length);
+                return;
+            }
+            while (length > 0 && inputStream != null) {
+                long skipped = inputStream.skip(length);
+                if (skipped <= 0) {
+                    break;
                 }
-                else if ((bsonType == BsonType.DOCUMENT || bsonType == BsonType.ARRAY) && (mayHaveProjectKey || mayHaveFilterKey)) {
-                    Mark mark = writer.getMark();
-                    if (pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, false, mode)) {
-                        hasValueWritten = true;
-                    } else {
-                        writer.resetMark(mark);
-                    }
+                length -= skipped;
+            }
+            // read and discard what could not be skipped
+            while (length > 0) {
+                window.clear().limit((int) Math.min(length, window.capacity()));
+                int read = input.read(window);
+                if (read < 0) {
+                    throw new BsonSerializationException("truncated document at the end of the stream");
                 }
-                else {
-                    pipeValue(reader, writer, projKeys, filterKeys, valuesForFilter, fullPath, false, mode);
-                    hasValueWritten = true;
-                }
-            }
-
-            idx++;
-        }
-        reader.readEndArray();
-        writer.writeEndArray();
-        return hasValueWritten;
-    }
-
-    private static boolean pipeValue(BsonBinaryReader reader, InternalBsonBinaryWriter writer,
-                              Set<String> projKeys, Set<String> filterKeys, Map<String, BsonValue> valuesForFilter, String currentPath, boolean exactMatched, ProjectionMode mode) {
-
-        BsonType bsonType = reader.getCurrentBsonType();
-        switch (bsonType) {
-            case DOCUMENT:
-                return pipeDocument(reader, writer, projKeys, filterKeys, valuesForFilter, currentPath, exactMatched, mode);
-            case ARRAY:
-                return pipeArray(reader, writer, projKeys, filterKeys, valuesForFilter, currentPath, exactMatched, mode);
-            case DOUBLE:
-                writer.writeDouble(reader.readDouble());
-                break;
-            case STRING:
-                writer.writeString(reader.readString());
-                break;
-            case BINARY:
-                writer.writeBinaryData(reader.readBinaryData());
-                break;
-            case UNDEFINED:
-                reader.readUndefined();
-                writer.writeUndefined();
-                break;
-            case OBJECT_ID:
-                writer.writeObjectId(reader.readObjectId());
-                break;
-            case BOOLEAN:
-                writer.writeBoolean(reader.readBoolean());
-                break;
-            case DATE_TIME:
-                writer.writeDateTime(reader.readDateTime());
-                break;
-            case NULL:
-                reader.readNull();
-                writer.writeNull();
-                break;
-            case REGULAR_EXPRESSION:
-                writer.writeRegularExpression(reader.readRegularExpression());
-                break;
-            case JAVASCRIPT:
-                writer.writeJavaScript(reader.readJavaScript());
-            case SYMBOL:
-                writer.writeSymbol(reader.readSymbol());
-                break;
-            case JAVASCRIPT_WITH_SCOPE:
-                writer.writeJavaScriptWithScope(reader.readJavaScriptWithScope());
-                pipeDocument(reader, writer, projKeys, filterKeys, valuesForFilter, currentPath, exactMatched, mode);
-                break;
-            case INT32:
-                writer.writeInt32(reader.readInt32());
-                break;
-            case TIMESTAMP:
-                writer.writeTimestamp(reader.readTimestamp());
-                break;
-            case INT64:
-                writer.writeInt64(reader.readInt64());
-                break;
-            case DECIMAL128:
-                writer.writeDecimal128(reader.readDecimal128());
-                break;
-            case MIN_KEY:
-                reader.readMinKey();
-                writer.writeMinKey();
-                break;
-            case DB_POINTER:
-                writer.writeDBPointer(reader.readDBPointer());
-                break;
-            case MAX_KEY:
-                reader.readMaxKey();
-                writer.writeMaxKey();
-                break;
-            default:
-                throw new BsonInvalidOperationException("Unsupported BSON type: " + bsonType);
-        }
-        return true;
-    }
-
-    private static BsonDocument readDocument(BsonBinaryReader reader) {
-        BsonDocument document = new BsonDocument();
-        reader.readStartDocument();
-        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
-            document.put(reader.readName(), readValue(reader));
+                length -= read;
+            }
+            window.clear().flip();
         }
-        reader.readEndDocument();
-        return document;
-    }
 
-    private static BsonArray readArray(BsonBinaryReader reader) {
-        BsonArray array = new BsonArray();
-        reader.readStartArray();
-        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
-            array.add(readValue(reader));
+        private void reserve(int length) throws IOException {
+            if (outputWindow.remaining() < length) {
+                flush();
+            }
         }
-        reader.readEndArray();
-        return array;
-    }
 
-    private static BsonValue readValue(BsonBinaryReader reader) {
-        BsonType bsonType = reader.getCurrentBsonType();
-        return switch (bsonType) {
-            case DOCUMENT -> readDocument(reader);
-            case ARRAY -> readArray(reader);
-            case DOUBLE -> new BsonDouble(reader.readDouble());
-            case STRING -> new BsonString(reader.readString());
-            case BINARY -> reader.readBinaryData();
-            case UNDEFINED -> {
-                reader.readUndefined();
-                yield new BsonUndefined();
-            }
-            case OBJECT_ID -> new BsonObjectId(reader.readObjectId());
-            case BOOLEAN -> new BsonBoolean(reader.readBoolean());
-            case DATE_TIME -> new BsonDateTime(reader.readDateTime());
-            case NULL -> {
-                reader.readNull();
-                yield new BsonNull();
-            }
-            case REGULAR_EXPRESSION -> reader.readRegularExpression();
-            case JAVASCRIPT -> new BsonJavaScript(reader.readJavaScript());
-            case SYMBOL -> new BsonSymbol(reader.readSymbol());
-            case JAVASCRIPT_WITH_SCOPE -> new BsonJavaScriptWithScope(reader.readJavaScriptWithScope(), readDocument(reader));
-            case INT32 -> new BsonInt32(reader.readInt32());
-            case TIMESTAMP -> reader.readTimestamp();
-            case INT64 -> new BsonInt64(reader.readInt64());
-            case DECIMAL128 -> new BsonDecimal128(reader.readDecimal128());
-            case MIN_KEY -> {
-                reader.readMinKey();
-                yield new BsonMinKey();
-            }
-            case DB_POINTER -> reader.readDBPointer();
-            case MAX_KEY -> {
-                reader.readMaxKey();
-                yield new BsonMaxKey();
+        private void flush() throws IOException {
+            outputWindow.flip();
+            while (outputWindow.hasRemaining()) {
+                output.write(outputWindow);
             }
-            default -> throw new BsonInvalidOperationException("Unsupported BSON type: " + bsonType);
-        };
+            outputWindow.clear();
+        }
+
+        private long position(SeekableByteChannel seekable) throws IOException {
+            flush();
+            long position = seekable.position();
+            highWater = Math.max(highWater, position);
+            return position;
+        }
+
+        private void rollback(SeekableByteChannel seekable, long position) throws IOException {
+            position(seekable);
+            seekable.position(position);
+        }
     }
 
-    // ================ internal helper class ================
+    /**
+     * Scratch state of a projection that is reused from one document to the next. A {@link RawBsonProjector} is
+     * immutable and can be shared between threads, a context can't: give each thread its own. Projecting with a
+     * context and a caller owned or pooled output buffer allocates nothing per document, except for the values that
+     * are decoded for the filters.
+     */
+    public static final class ProjectionContext {
+
+        private final RawBsonScanner scanner = new RawBsonScanner();
+        private int aliasOffset;
+        private FilterTree filter;
+        private byte[] filterResults = new byte[0];
+        private int[] filterPending = new int[0];
+        private ByteBuffer output = ByteBuffer.allocate(0);
+
+        private void startFilter(FilterTree filter) {
+            this.filter = filter;
+            if (filter != null) {
+                filter.reset(this);
+            }
+        }
+
+        private void release() {
+            scanner.clear();
+            filter = null;
+        }
+
+        /**
+         * @return the input the scanner points at, {@code null} between projections
+         */
+        ByteBuffer scannedInput() {
+            return scanner.getBuffer();
+        }
+
+        /**
+         * @return whether the context holds the filters of a projection, {@code false} between projections
+         */
+        boolean hasFilter() {
+            return filter != null;
+        }
+
+        /**
+         * @return whether the filters already rejected the document
+         */
+        private boolean rejected() {
+            return filter != null && filterResults[0] == FilterTree.FALSE;
+        }
+
+        private boolean filterUndecided() {
+            return filter != null && filterResults[0] == FilterTree.UNDECIDED;
+        }
+
+        /**
+         * @param direct whether the output is off heap, like the input it is projected from
+         */
+        private ByteBuffer output(int capacity, boolean direct) {
+            if (output.capacity() < capacity || output.isDirect() != direct) {
+                output = allocate(Math.max(capacity, output.isDirect() == direct ? output.capacity() * 2 : 0), direct);
+            }
+            return output.clear().order(LITTLE_ENDIAN);
+        }
+    }
 
     /**
      * A BSON output stream that stores the output in a single, un-pooled byte array.
@@ -526,7 +1314,9 @@ public class RawBsonProjector {
         @Override
         public byte[] toByteArray() {
             ensureOpen();
-            return Arrays.copyOf(buffer.array(), buffer.position());
+            byte[] bytes = new byte[buffer.position()];
+            buffer.get(0, bytes);
+            return bytes;
         }
 
         @Override
@@ -599,7 +1389,11 @@ public class RawBsonProjector {
         @Override
         public int pipe(final OutputStream out) throws IOException {
             ensureOpen();
-            out.write(buffer.array(), 0, buffer.position());
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            } else {
+                out.write(toByteArray());
+            }
             return buffer.position();
         }
 
@@ -617,7 +1411,7 @@ public class RawBsonProjector {
         public List<ByteBuf> getByteBuffers() {
             ensureOpen();
             // Create a flipped copy of the buffer for reading. Note that ByteBufNIO overwrites the endian-ness.
-            ByteBuffer flipped = ByteBuffer.wrap(buffer.array(), 0, buffer.position());
+            ByteBuffer flipped = buffer.slice(0, buffer.position());
             return Collections.singletonList(new ByteBufNIO(flipped));
         }
 
@@ -852,9 +1646,7 @@ public class RawBsonProjector {
             if (docValue.getBsonType() != filterValue.getBsonType()) {
                 // 对于数字类型，可以进行转换后比较
                 if (docValue.isNumber() && filterValue.isNumber()) {
-                    Number num1 = getNumberFromBsonValue(docValue);
-                    Number num2 = getNumberFromBsonValue(filterValue);
-                    return Double.compare(num1.doubleValue(), num2.doubleValue());
+                    return compareNumbers(docValue, filterValue);
                 }
                 // 类型不同且无法比较，则认为不相等
                 return -1;
@@ -882,21 +1674,79 @@ public class RawBsonProjector {
             }
         }
 
-        private static Number getNumberFromBsonValue(BsonValue bsonValue) {
-            if (bsonValue.isInt32()) {
-                return bsonValue.asInt32().getValue();
-            } else if (bsonValue.isInt64()) {
-                return bsonValue.asInt64().getValue();
-            } else if (bsonValue.isDouble()) {
-                return bsonValue.asDouble().getValue();
-            } else if (bsonValue.isDecimal128()) {
-                return bsonValue.asDecimal128().getValue().bigDecimalValue();
+        /**
+         * Compares two int32, int64, double or decimal values exactly, without rounding either to a {@code double}.
+         * NaN is greater than any other number and equal to itself, as in {@link Double#compare}.
+         */
+        public static int compareNumbers(BsonValue a, BsonValue b) {
+            if (a.isDecimal128() || b.isDecimal128()) {
+                BigDecimal x = toBigDecimal(a);
+                BigDecimal y = toBigDecimal(b);
+                if (x != null && y != null) {
+                    return x.compareTo(y);
+                }
+                // NaN or infinity on either side, which doubles order the same way
+                return Double.compare(toDouble(a), toDouble(b));
+            }
+            if (a.isDouble()) {
+                return b.isDouble()
+                        ? Double.compare(a.asDouble().getValue(), b.asDouble().getValue())
+                        : -RawBsonPredicate.compare(b.asNumber().longValue(), a.asDouble().getValue());
+            }
+            return b.isDouble()
+                    ? RawBsonPredicate.compare(a.asNumber().longValue(), b.asDouble().getValue())
+                    : Long.compare(a.asNumber().longValue(), b.asNumber().longValue());
+        }
+
+        /**
+         * @return the exact value of a number, or null for NaN and infinities
+         */
+        private static BigDecimal toBigDecimal(BsonValue value) {
+            if (value.isDecimal128()) {
+                Decimal128 decimal = value.asDecimal128().getValue();
+                if (decimal.isNaN() || decimal.isInfinite()) {
+                    return null;
+                }
+                try {
+                    return decimal.bigDecimalValue();
+                } catch (ArithmeticException e) {
+                    // negative zero has no BigDecimal form
+                    return BigDecimal.ZERO;
+                }
             }
-            throw new IllegalArgumentException("Unsupported number type: " + bsonValue.getBsonType());
+            if (value.isDouble()) {
+                double d = value.asDouble().getValue();
+                return Double.isNaN(d) || Double.isInfinite(d) ? null : new BigDecimal(d);
+            }
+            return BigDecimal.valueOf(value.asNumber().longValue());
+        }
+
+        private static double toDouble(BsonValue value) {
+            return value.isDecimal128() ? value.asDecimal128().getValue().doubleValue() : value.asNumber().doubleValue();
         }
 
     }
 
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Wraps a projected document without copying it when it is on the heap. Off heap documents are copied, a
+     * {@link RawBsonDocument} is always backed by a byte array.
+     */
+    private static RawBsonDocument toRawBsonDocument(ByteBuffer output) {
+        if (output == null) {
+            return null;
+        }
+        if (output.hasArray()) {
+            return new RawBsonDocument(output.array(), output.arrayOffset() + output.position(), output.remaining());
+        }
+        byte[] bytes = new byte[output.remaining()];
+        output.get(output.position(), bytes);
+        return new RawBsonDocument(bytes);
+    }
+
     private static ByteBuffer cloneByteBuffer(ByteBuffer bsonInputByteBuffer) {
         ByteBuffer clone = ByteBuffer.allocate(bsonInputByteBuffer.capacity());
 
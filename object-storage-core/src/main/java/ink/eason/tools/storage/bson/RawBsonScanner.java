@@ -0,0 +1,304 @@
+package ink.eason.tools.storage.bson;
+
+import org.bson.BsonBinary;
+import org.bson.BsonDbPointer;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonSerializationException;
+import org.bson.BsonTimestamp;
+import org.bson.BsonType;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * Forward-only cursor over the elements of a BSON document held in a {@link ByteBuffer}.
+ * <p>
+ * Unlike {@link org.bson.BsonBinaryReader}, which decodes every field name into a {@link String} while reading the
+ * element type, the scanner only records where the name is and hashes its bytes on the way, so callers can match names
+ * against precomputed UTF-8 keys and decode the few they keep. All reads are absolute, the position of the buffer is
+ * left alone.
+ */
+final class RawBsonScanner {
+
+    private ByteBuffer buffer;
+    private int position;
+    private BsonType currentType;
+    private int nameStart;
+    private int nameLength;
+    private int nameHash;
+
+    RawBsonScanner() {
+    }
+
+    RawBsonScanner(ByteBuffer buffer) {
+        reset(buffer);
+    }
+
+    /**
+     * Points the scanner at the document starting at the position of {@code buffer}, whose byte order is set to little
+     * endian.
+     */
+    void reset(ByteBuffer buffer) {
+        this.buffer = buffer.order(LITTLE_ENDIAN);
+        this.position = buffer.position();
+        this.currentType = null;
+    }
+
+    /**
+     * Drops the reference to the buffer, the scanner can't be used until the next {@link #reset(ByteBuffer)}.
+     */
+    void clear() {
+        this.buffer = null;
+        this.currentType = null;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    void setPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * Reads the length prefix of a document or array and moves to its first element.
+     *
+     * @return the position right after the document
+     */
+    int readStartDocument() {
+        int length = readInt32At(position);
+        if (length < 5 || position + length > buffer.limit()) {
+            throw new BsonSerializationException("invalid document length " + length + " at " + position);
+        }
+        int end = position + length;
+        position += 4;
+        return end;
+    }
+
+    /**
+     * Moves to the next element of the current document.
+     *
+     * @return {@code false} at the end of the document, after consuming its terminator
+     */
+    boolean next() {
+        byte type = buffer.get(position++);
+        if (type == 0) {
+            currentType = BsonType.END_OF_DOCUMENT;
+            return false;
+        }
+        currentType = BsonType.findByValue(type);
+        if (currentType == null) {
+            throw new BsonSerializationException("unknown BSON type " + type + " at " + (position - 1));
+        }
+        nameStart = position;
+        int hash = 0;
+        byte b;
+        while ((b = buffer.get(position++)) != 0) {
+            hash = 31 * hash + b;
+        }
+        nameLength = position - 1 - nameStart;
+        nameHash = hash;
+        return true;
+    }
+
+    BsonType getCurrentBsonType() {
+        return currentType;
+    }
+
+    ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    int getNameStart() {
+        return nameStart;
+    }
+
+    int getNameLength() {
+        return nameLength;
+    }
+
+    int getNameHash() {
+        return nameHash;
+    }
+
+    String readName() {
+        return decode(nameStart, nameLength);
+    }
+
+    /**
+     * Same hash as {@link #getNameHash()} for a UTF-8 encoded name.
+     */
+    static int hash(byte[] name) {
+        int hash = 0;
+        for (byte b : name) {
+            hash = 31 * hash + b;
+        }
+        return hash;
+    }
+
+    boolean nameEquals(byte[] name) {
+        if (name.length != nameLength) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (buffer.get(nameStart + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of bytes of the current value
+     */
+    int getValueLength() {
+        return switch (currentType) {
+            case DOUBLE, INT64, DATE_TIME, TIMESTAMP -> 8;
+            case INT32 -> 4;
+            case BOOLEAN -> 1;
+            case OBJECT_ID -> 12;
+            case DECIMAL128 -> 16;
+            case NULL, UNDEFINED, MIN_KEY, MAX_KEY -> 0;
+            case STRING, JAVASCRIPT, SYMBOL -> 4 + readInt32At(position);
+            case DOCUMENT, ARRAY, JAVASCRIPT_WITH_SCOPE -> readInt32At(position);
+            case BINARY -> 5 + readInt32At(position);
+            case REGULAR_EXPRESSION -> {
+                int end = cStringEnd(cStringEnd(position));
+                yield end - position;
+            }
+            case DB_POINTER -> 4 + readInt32At(position) + 12;
+            default -> throw new BsonSerializationException("unexpected BSON type " + currentType);
+        };
+    }
+
+    void skipValue() {
+        int length = getValueLength();
+        if (length < 0 || position + length > buffer.limit()) {
+            throw new BsonSerializationException("invalid value length " + length + " at " + position);
+        }
+        position += length;
+    }
+
+    double readDouble() {
+        double value = buffer.getDouble(position);
+        position += 8;
+        return value;
+    }
+
+    int readInt32() {
+        int value = readInt32At(position);
+        position += 4;
+        return value;
+    }
+
+    long readInt64() {
+        long value = buffer.getLong(position);
+        position += 8;
+        return value;
+    }
+
+    long readDateTime() {
+        return readInt64();
+    }
+
+    boolean readBoolean() {
+        return buffer.get(position++) != 0;
+    }
+
+    String readString() {
+        int length = readInt32At(position);
+        if (length < 1 || position + 4 + length > buffer.limit()) {
+            throw new BsonSerializationException("invalid string length " + length + " at " + position);
+        }
+        String value = decode(position + 4, length - 1);
+        position += 4 + length;
+        return value;
+    }
+
+    ObjectId readObjectId() {
+        byte[] bytes = new byte[12];
+        buffer.get(position, bytes);
+        position += 12;
+        return new ObjectId(bytes);
+    }
+
+    Decimal128 readDecimal128() {
+        long low = buffer.getLong(position);
+        long high = buffer.getLong(position + 8);
+        position += 16;
+        return Decimal128.fromIEEE754BIDEncoding(high, low);
+    }
+
+    BsonBinary readBinaryData() {
+        int length = readInt32At(position);
+        byte subType = buffer.get(position + 4);
+        int dataStart = position + 5;
+        position = dataStart + length;
+        if (subType == 2) {
+            // the old binary subtype repeats the length inside the data
+            dataStart += 4;
+            length -= 4;
+        }
+        byte[] data = new byte[length];
+        buffer.get(dataStart, data);
+        return new BsonBinary(subType, data);
+    }
+
+    BsonRegularExpression readRegularExpression() {
+        String pattern = readCString();
+        String options = readCString();
+        return new BsonRegularExpression(pattern, options);
+    }
+
+    BsonDbPointer readDBPointer() {
+        String namespace = readString();
+        return new BsonDbPointer(namespace, readObjectId());
+    }
+
+    BsonTimestamp readTimestamp() {
+        return new BsonTimestamp(readInt64());
+    }
+
+    /**
+     * Reads the code of a JavaScript with scope value and moves to its scope document.
+     */
+    String readJavaScriptWithScope() {
+        position += 4;
+        return readString();
+    }
+
+    private String readCString() {
+        int end = cStringEnd(position);
+        String value = decode(position, end - 1 - position);
+        position = end;
+        return value;
+    }
+
+    /**
+     * @return the position after the terminator of the C string at {@code start}
+     */
+    private int cStringEnd(int start) {
+        int end = start;
+        while (buffer.get(end) != 0) {
+            end++;
+        }
+        return end + 1;
+    }
+
+    private int readInt32At(int index) {
+        return buffer.getInt(index);
+    }
+
+    private String decode(int start, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
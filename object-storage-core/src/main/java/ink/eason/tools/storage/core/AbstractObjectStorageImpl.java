@@ -1,7 +1,11 @@
 package ink.eason.tools.storage.core;
 
 import ink.eason.tools.storage.utils.FileUtils;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
@@ -10,14 +14,22 @@ import java.nio.file.Path;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class AbstractObjectStorageImpl implements ObjectStorage {
 
     protected final Path metaDir;
     protected final Path dataDir;
     protected final ObjectInfoRepository objectInfoRepository;
+    protected final ObjectVersionPins versionPins;
+    protected final ObjectLifecycle lifecycle;
+    protected final ObjectSnapshots snapshots;
+    // keys with a conditional write in progress; unconditional writes never touch it
+    private final Map<ObjectKey, Thread> conditionalWrites = new ConcurrentHashMap<>();
 
     protected final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
 
@@ -37,11 +49,20 @@ public abstract class AbstractObjectStorageImpl implements ObjectStorage {
             this.metaDir = metaDir;
             this.dataDir = dataDir;
             this.objectInfoRepository = objectInfoRepository;
+            this.versionPins = new ObjectVersionPins(this::reclaim);
+            if (objectInfoRepository instanceof WriteBehindObjectInfoRepository writeBehind) {
+                // unconditional saves and deletes learn what they replaced only when they are flushed
+                writeBehind.onReplacedAtFlush(versionPins::supersede);
+            }
+            this.lifecycle = new ObjectLifecycle(this);
+            this.snapshots = new ObjectSnapshots(this, metaDir.resolve("snapshots"));
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    private static record ObjectKey(String bucket, String key) {}
+
     private static record AllocatedPath(String bucket, String key, Path physicalPath, String logicPath, long createTime) {}
 
     private AllocatedPath allocatePath(String bucket, String key) {
@@ -64,19 +85,62 @@ public abstract class AbstractObjectStorageImpl implements ObjectStorage {
 
     @Override
     public InputStream getObject(String bucket, String key) {
-        ObjectInfo objectInfo = objectInfoRepository.getObjectInfo(bucket, key);
-        if (objectInfo == null) {
-            return null;
+        StoredObject storedObject = openObject(bucket, key);
+        return storedObject == null ? null : storedObject.inputStream();
+    }
+
+    @Override
+    public StoredObject openObject(String bucket, String key) {
+        while (true) {
+            ObjectInfo objectInfo = objectInfoRepository.getObjectInfo(bucket, key);
+            if (objectInfo == null) {
+                return null;
+            }
+            ObjectVersionPins.Pin pin = versionPins.pin(objectInfo);
+            if (!ObjectVersionPins.isSameVersion(objectInfo, objectInfoRepository.getObjectInfo(bucket, key))) {
+                // overwritten between the lookup and the pin, the file may already be gone
+                pin.close();
+                continue;
+            }
+            try {
+                InputStream inputStream = new FilterInputStream(Files.newInputStream(dataDir.resolve(objectInfo.getPath()))) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            pin.close();
+                        }
+                    }
+                };
+                return new StoredObject(objectInfo, inputStream);
+            } catch (IOException e) {
+                pin.close();
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void saveObject(String bucket, String key, String metadata, BsonDocument bsonMetadata, InputStream inputStream, WriteCondition condition) {
+        if (condition.isUnconditional()) {
+            doSaveObject(bucket, key, metadata, bsonMetadata, inputStream, condition);
+            return;
+        }
+        // fail before copying any content when the condition already fails or another conditional write is running
+        checkCondition(bucket, key, condition);
+        ObjectKey objectKey = new ObjectKey(bucket, key);
+        if (conditionalWrites.putIfAbsent(objectKey, Thread.currentThread()) != null) {
+            throw new ConcurrentWriteException(bucket, key, "another conditional write is in progress");
         }
         try {
-            return Files.newInputStream(dataDir.resolve(objectInfo.getPath()));
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+            doSaveObject(bucket, key, metadata, bsonMetadata, inputStream, condition);
+        } finally {
+            conditionalWrites.remove(objectKey);
         }
     }
 
-    @Override
-    public void saveObject(String bucket, String key, String metadata, InputStream inputStream) {
+    private void doSaveObject(String bucket, String key, String metadata, BsonDocument bsonMetadata, InputStream inputStream, WriteCondition condition) {
         AllocatedPath allocatedPath = allocatePath(bucket, key);
         ObjectInfo objectInfo = new ObjectInfo();
         try {
@@ -88,21 +152,82 @@ public abstract class AbstractObjectStorageImpl implements ObjectStorage {
             objectInfo.setSize(result.getKey());
             objectInfo.setMd5(result.getValue());
             objectInfo.setMetadata(metadata);
+            objectInfo.setBsonMetadata(toRawBsonDocument(bsonMetadata));
         } catch (IOException e) {
+            FileUtils.delete(allocatedPath.physicalPath());
             throw new UncheckedIOException(e);
         }
 
+        ObjectInfo replaced;
         try {
-            objectInfoRepository.saveObjectInfo(objectInfo);
+            // the repository checks the condition atomically with the save
+            replaced = objectInfoRepository.saveObjectInfo(objectInfo, condition);
+        } catch (PreconditionFailedException e) {
+            FileUtils.delete(allocatedPath.physicalPath());
+            throw e;
         } catch (Exception e) {
             FileUtils.delete(allocatedPath.physicalPath());
             throw new RuntimeException(e);
         }
+        if (replaced != null) {
+            versionPins.supersede(replaced);
+        }
+        lifecycle.onSave(objectInfo);
+    }
+
+    @Override
+    public void deleteObject(String bucket, String key, WriteCondition condition) {
+        ObjectInfo objectInfo = new ObjectInfo();
+        objectInfo.setBucket(bucket);
+        objectInfo.setKey(key);
+        ObjectInfo deleted = objectInfoRepository.deleteObjectInfo(objectInfo, condition);
+        if (deleted != null) {
+            versionPins.supersede(deleted);
+        }
+    }
+
+    private void checkCondition(String bucket, String key, WriteCondition condition) {
+        if (!condition.test(objectInfoRepository.getObjectInfo(bucket, key))) {
+            throw new PreconditionFailedException(bucket, key, "precondition " + condition + " failed");
+        }
     }
 
     @Override
-    public void deleteObject(String bucket, String key) {
+    public void setLifecycleRule(LifecycleRule rule) {
+        lifecycle.setRule(rule);
+    }
 
+    @Override
+    public LifecycleRule getLifecycleRule(String bucket) {
+        return lifecycle.getRule(bucket);
+    }
+
+    @Override
+    public void removeLifecycleRule(String bucket) {
+        lifecycle.removeRule(bucket);
+    }
+
+    @Override
+    public Path createSnapshot(String name) {
+        return snapshots.create(name);
+    }
+
+    @Override
+    public void close() {
+        lifecycle.close();
+    }
+
+    protected void reclaim(ObjectInfo objectInfo) {
+        if (!snapshots.deferReclaim(objectInfo)) {
+            FileUtils.delete(dataDir.resolve(objectInfo.getPath()));
+        }
+    }
+
+    private static RawBsonDocument toRawBsonDocument(BsonDocument document) {
+        if (document == null || document instanceof RawBsonDocument) {
+            return (RawBsonDocument) document;
+        }
+        return new RawBsonDocument(document, new BsonDocumentCodec());
     }
 
     // === ObjectInfoOperations
@@ -113,17 +238,47 @@ public abstract class AbstractObjectStorageImpl implements ObjectStorage {
     }
 
     @Override
-    public void saveObjectInfo(ObjectInfo objectInfo) {
-        objectInfoRepository.saveObjectInfo(objectInfo);
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo) {
+        return objectInfoRepository.saveObjectInfo(objectInfo);
+    }
+
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo) {
+        return objectInfoRepository.deleteObjectInfo(objectInfo);
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        return objectInfoRepository.saveObjectInfo(objectInfo, condition);
     }
 
     @Override
-    public void deleteObjectInfo(ObjectInfo objectInfo) {
-        objectInfoRepository.deleteObjectInfo(objectInfo);
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        return objectInfoRepository.deleteObjectInfo(objectInfo, condition);
     }
 
     @Override
     public ObjectInfo lastSavedObjectInfo() {
         return objectInfoRepository.lastSavedObjectInfo();
     }
+
+    @Override
+    public Optional<QueryableObjectInfoRepository> queryable() {
+        return objectInfoRepository instanceof QueryableObjectInfoRepository queryable ? Optional.of(queryable) : Optional.empty();
+    }
+
+    @Override
+    public Optional<MeasurableObjectInfoRepository> measurable() {
+        return objectInfoRepository instanceof MeasurableObjectInfoRepository measurable ? Optional.of(measurable) : Optional.empty();
+    }
+
+    @Override
+    public Optional<SnapshottableObjectInfoRepository> snapshottable() {
+        return objectInfoRepository instanceof SnapshottableObjectInfoRepository snapshottable ? Optional.of(snapshottable) : Optional.empty();
+    }
+
+    @Override
+    public Optional<ObservableObjectInfoRepository> observable() {
+        return objectInfoRepository instanceof ObservableObjectInfoRepository observable ? Optional.of(observable) : Optional.empty();
+    }
 }
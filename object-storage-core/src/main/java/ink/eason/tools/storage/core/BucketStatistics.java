@@ -0,0 +1,99 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.core.BucketStats.PartitionStats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Incrementally maintained object count and size per bucket and per day partition. Counters are striped
+ * {@link LongAdder}s, so concurrent saves do not contend and reading the totals does not depend on the bucket size.
+ */
+public class BucketStatistics {
+
+    private static final DateTimeFormatter PARTITION_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final Map<String, BucketCounters> buckets = new ConcurrentHashMap<>();
+
+    public void add(ObjectInfo objectInfo) {
+        update(objectInfo.getBucket(), ObjectInfoTimeIndex.epochDay(objectInfo.getCreateTime()), 1, objectInfo.getSize());
+    }
+
+    public void remove(ObjectInfo objectInfo) {
+        update(objectInfo.getBucket(), ObjectInfoTimeIndex.epochDay(objectInfo.getCreateTime()), -1, -objectInfo.getSize());
+    }
+
+    public void update(String bucket, long epochDay, long objectCount, long totalSize) {
+        BucketCounters counters = buckets.computeIfAbsent(bucket, k -> new BucketCounters());
+        counters.total.add(objectCount, totalSize);
+        counters.partitions.computeIfAbsent(epochDay, k -> new Counters()).add(objectCount, totalSize);
+    }
+
+    public BucketStats get(String bucket) {
+        BucketCounters counters = buckets.get(bucket);
+        if (counters == null) {
+            return new BucketStats(bucket, 0, 0, new TreeMap<>());
+        }
+        SortedMap<String, PartitionStats> partitions = new TreeMap<>();
+        counters.partitions.forEach((epochDay, partition) -> {
+            long objectCount = partition.objectCount.sum();
+            if (objectCount != 0) {
+                partitions.put(LocalDate.ofEpochDay(epochDay).format(PARTITION_FORMATTER), new PartitionStats(objectCount, partition.totalSize.sum()));
+            }
+        });
+        return new BucketStats(bucket, counters.total.objectCount.sum(), counters.total.totalSize.sum(), partitions);
+    }
+
+    public void clear() {
+        buckets.clear();
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        Map<String, BucketCounters> snapshot = Map.copyOf(buckets);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, BucketCounters> bucket : snapshot.entrySet()) {
+            Map<Long, Counters> partitions = Map.copyOf(bucket.getValue().partitions);
+            out.writeUTF(bucket.getKey());
+            out.writeInt(partitions.size());
+            for (Map.Entry<Long, Counters> partition : partitions.entrySet()) {
+                out.writeLong(partition.getKey());
+                out.writeLong(partition.getValue().objectCount.sum());
+                out.writeLong(partition.getValue().totalSize.sum());
+            }
+        }
+    }
+
+    public void readFrom(DataInput in) throws IOException {
+        int bucketCount = in.readInt();
+        for (int i = 0; i < bucketCount; i++) {
+            String bucket = in.readUTF();
+            int partitionCount = in.readInt();
+            for (int j = 0; j < partitionCount; j++) {
+                update(bucket, in.readLong(), in.readLong(), in.readLong());
+            }
+        }
+    }
+
+    private static final class BucketCounters {
+        private final Counters total = new Counters();
+        private final Map<Long, Counters> partitions = new ConcurrentHashMap<>();
+    }
+
+    private static final class Counters {
+        private final LongAdder objectCount = new LongAdder();
+        private final LongAdder totalSize = new LongAdder();
+
+        private void add(long objectCount, long totalSize) {
+            this.objectCount.add(objectCount);
+            this.totalSize.add(totalSize);
+        }
+    }
+}
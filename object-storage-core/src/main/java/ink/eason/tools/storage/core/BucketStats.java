@@ -0,0 +1,14 @@
+package ink.eason.tools.storage.core;
+
+import java.util.SortedMap;
+
+/**
+ * Point-in-time usage of a bucket.
+ *
+ * @param partitions usage per {@code yyyyMMdd} data partition (UTC day of the create time)
+ */
+public record BucketStats(String bucket, long objectCount, long totalSize, SortedMap<String, PartitionStats> partitions) {
+
+    public static record PartitionStats(long objectCount, long totalSize) {}
+
+}
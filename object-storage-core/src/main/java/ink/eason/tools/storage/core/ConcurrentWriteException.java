@@ -0,0 +1,26 @@
+package ink.eason.tools.storage.core;
+
+/**
+ * Thrown when a conditional write can't start because another conditional write of the same key is in progress. The
+ * condition has not been evaluated against the outcome of that write, so the write can be retried. Nothing has been
+ * changed when it is thrown.
+ */
+public class ConcurrentWriteException extends RuntimeException {
+
+    private final String bucket;
+    private final String key;
+
+    public ConcurrentWriteException(String bucket, String key, String message) {
+        super(bucket + "/" + key + ": " + message);
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,135 @@
+package ink.eason.tools.storage.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Hierarchical timing wheel: scheduling is O(1) and advancing the clock only touches the slots that come due, no
+ * matter how many timers are pending.
+ * <p>
+ * Level {@code n} has {@value #SLOTS} slots that each span {@code SLOTS^n} ticks. A timer is put on the lowest level
+ * whose range covers its deadline and is cascaded down one or more levels when the clock reaches its slot. Deadlines
+ * beyond the top level are parked in its farthest slot and re-evaluated on every cascade.
+ */
+public class HierarchicalTimerWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickMillis;
+    private final ArrayDeque<Timer<T>>[][] wheels;
+    // every timer with a deadline tick <= currentTick has been expired
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public HierarchicalTimerWheel(long tickMillis, int levels, long startMillis) {
+        if (tickMillis <= 0 || levels <= 0 || levels * SLOT_BITS >= Long.SIZE - 1) {
+            throw new IllegalArgumentException("invalid tick " + tickMillis + " or levels " + levels);
+        }
+        this.tickMillis = tickMillis;
+        this.wheels = new ArrayDeque[levels][SLOTS];
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+    }
+
+    /**
+     * Schedules {@code item} to expire once the clock reaches {@code deadlineMillis}; deadlines in the past expire
+     * on the next tick.
+     */
+    public synchronized void schedule(T item, long deadlineMillis) {
+        long deadlineTick = Math.max(Math.ceilDiv(deadlineMillis, tickMillis), currentTick + 1);
+        insert(new Timer<>(item, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Moves the clock to {@code nowMillis} and passes every item whose deadline has been reached to {@code expired},
+     * in deadline order per tick, after the wheel has been released.
+     */
+    public void advance(long nowMillis, Consumer<T> expired) {
+        List<T> items = new ArrayList<>();
+        synchronized (this) {
+            long nowTick = Math.floorDiv(nowMillis, tickMillis);
+            if (size == 0) {
+                currentTick = Math.max(currentTick, nowTick);
+                return;
+            }
+            while (currentTick < nowTick && size > 0) {
+                currentTick++;
+                // higher levels first, so that timers cascading into the current tick expire right away
+                for (int level = wheels.length - 1; level >= 0; level--) {
+                    if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        cascade(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK), items);
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+        }
+        items.forEach(expired);
+    }
+
+    /**
+     * Cancels every pending timer whose item matches {@code filter}; this visits every slot.
+     *
+     * @return the number of cancelled timers
+     */
+    public synchronized int cancelIf(Predicate<? super T> filter) {
+        int cancelled = 0;
+        for (ArrayDeque<Timer<T>>[] wheel : wheels) {
+            for (ArrayDeque<Timer<T>> timers : wheel) {
+                if (timers != null) {
+                    int before = timers.size();
+                    timers.removeIf(timer -> filter.test(timer.item));
+                    cancelled += before - timers.size();
+                }
+            }
+        }
+        size -= cancelled;
+        return cancelled;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private void insert(Timer<T> timer) {
+        long delta = timer.deadlineTick - currentTick;
+        long targetTick = timer.deadlineTick;
+        int level = 0;
+        while (level < wheels.length - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        if (delta >= 1L << (SLOT_BITS * (level + 1))) {
+            // beyond the top level, park it in the farthest slot
+            targetTick = currentTick + (1L << (SLOT_BITS * (level + 1))) - 1;
+        }
+        int slot = (int) ((targetTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        ArrayDeque<Timer<T>> timers = wheels[level][slot];
+        if (timers == null) {
+            timers = wheels[level][slot] = new ArrayDeque<>();
+        }
+        timers.add(timer);
+    }
+
+    private void cascade(int level, int slot, List<T> expired) {
+        ArrayDeque<Timer<T>> timers = wheels[level][slot];
+        if (timers == null || timers.isEmpty()) {
+            return;
+        }
+        wheels[level][slot] = null;
+        for (Timer<T> timer : timers) {
+            if (timer.deadlineTick <= currentTick) {
+                expired.add(timer.item);
+                size--;
+            } else {
+                insert(timer);
+            }
+        }
+    }
+
+    private record Timer<T>(T item, long deadlineTick) {}
+}
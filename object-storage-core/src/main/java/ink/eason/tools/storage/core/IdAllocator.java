@@ -0,0 +1,152 @@
+package ink.eason.tools.storage.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out unique, positive {@link ObjectInfo} ids without a shared hot spot.
+ * <p>
+ * Ids are leased in blocks of {@code blockSize} to a set of stripes, and a thread only touches its own stripe until
+ * the block is used up. Ids are therefore increasing per stripe but not globally; the total order of changes is the
+ * per-bucket sequence of {@link ObjectInfoChangeFeed}. When a lease file is configured, a ceiling well ahead of the
+ * handed out blocks is persisted before any id below it is used, so a restarted allocator never reuses an id.
+ */
+public class IdAllocator implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    // number of blocks reserved by each write of the lease file
+    private static final long RESERVATION_BLOCKS = 1024;
+
+    private final int blockSize;
+    private final Stripe[] stripes;
+    private final AtomicLong nextBlockStart;
+    private final FileChannel leaseFile;
+    // not the allocator's monitor, which nextId takes while holding a stripe
+    private final Object advanceLock = new Object();
+    private volatile long reservedCeiling;
+    // highest id passed to advancePast, every id handed out since is above it
+    private volatile long advancedPast;
+
+    public IdAllocator() {
+        this(null, DEFAULT_BLOCK_SIZE);
+    }
+
+    public IdAllocator(Path leaseFile) {
+        this(leaseFile, DEFAULT_BLOCK_SIZE);
+    }
+
+    public IdAllocator(Path leaseFile, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.blockSize = blockSize;
+        this.stripes = new Stripe[Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        long start = 1;
+        if (leaseFile != null) {
+            try {
+                this.leaseFile = FileChannel.open(leaseFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (this.leaseFile.size() >= Long.BYTES) {
+                    ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+                    while (buffer.hasRemaining()) {
+                        this.leaseFile.read(buffer, buffer.position());
+                    }
+                    start = Math.max(start, buffer.getLong(0));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            this.leaseFile = null;
+        }
+        this.nextBlockStart = new AtomicLong(start);
+        this.reservedCeiling = leaseFile == null ? Long.MAX_VALUE : start;
+    }
+
+    public long nextId() {
+        Stripe stripe = stripes[(int) (Thread.currentThread().threadId() & (stripes.length - 1))];
+        synchronized (stripe) {
+            if (stripe.next == stripe.end) {
+                long start = leaseBlock();
+                stripe.next = start;
+                stripe.end = start + blockSize;
+            }
+            return stripe.next++;
+        }
+    }
+
+    /**
+     * Makes every id handed out from now on greater than {@code id}, also after a restart, for ids that were handed
+     * out elsewhere, e.g. by the allocator of a snapshot's source.
+     */
+    public void advancePast(long id) {
+        if (id <= advancedPast) {
+            return;
+        }
+        synchronized (advanceLock) {
+            if (id <= advancedPast) {
+                return;
+            }
+            nextBlockStart.accumulateAndGet(id + 1, Math::max);
+            reserve(id + 1);
+            // a stripe leases its block under its lock, so one leased before the bump is seen here
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.next = Math.min(Math.max(stripe.next, id + 1), stripe.end);
+                }
+            }
+            advancedPast = id;
+        }
+    }
+
+    private long leaseBlock() {
+        long start = nextBlockStart.getAndAdd(blockSize);
+        if (start + blockSize > reservedCeiling) {
+            reserve(start + blockSize);
+        }
+        return start;
+    }
+
+    private synchronized void reserve(long required) {
+        if (required <= reservedCeiling) {
+            return;
+        }
+        long ceiling = required + RESERVATION_BLOCKS * blockSize;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, ceiling);
+            while (buffer.hasRemaining()) {
+                leaseFile.write(buffer, buffer.position());
+            }
+            leaseFile.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        reservedCeiling = ceiling;
+    }
+
+    @Override
+    public void close() {
+        if (leaseFile == null) {
+            return;
+        }
+        try {
+            leaseFile.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Stripe {
+        private long next;
+        private long end;
+    }
+}
@@ -1,50 +1,252 @@
 package ink.eason.tools.storage.core;
 
+import ink.eason.tools.storage.core.ObjectInfoChange.Type;
+import ink.eason.tools.storage.core.ObjectInfoChangeFeed.Subscription;
+import ink.eason.tools.storage.core.ObjectInfoDictionary.Compact;
+import org.bson.BsonDocument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Keeps every object info on the heap in the compact form of {@link ObjectInfoDictionary}; the object infos it
+ * returns are rebuilt on each call and are not shared with the repository.
+ */
+public class InMemoryObjectInfoRepositoryImpl implements QueryableObjectInfoRepository, ObservableObjectInfoRepository, Closeable {
+
+    private final Map<String, Map<String, Compact>> storage = new ConcurrentHashMap<>();
+    private final ObjectInfoDictionary dictionary = new ObjectInfoDictionary();
+    private final IdAllocator idAllocator;
+    private final ObjectInfoChangeFeed changeFeed;
+    private final ObjectInfoTimeIndex<Compact> timeIndex = new ObjectInfoTimeIndex<>();
+    private final ObjectInfoMetadataIndex metadataIndex = new ObjectInfoMetadataIndex();
+    private final BucketStatistics statistics = new BucketStatistics();
+
+    public InMemoryObjectInfoRepositoryImpl() {
+        this(null);
+    }
 
-public class InMemoryObjectInfoRepositoryImpl implements ObjectInfoRepository {
+    /**
+     * @param metaDir directory holding the id lease file and the change log, or {@code null} to keep both in memory
+     */
+    public InMemoryObjectInfoRepositoryImpl(Path metaDir) {
+        this(metaDir, metaDir == null ? new IdAllocator() : new IdAllocator(createDirectories(metaDir).resolve("id.lease")));
+    }
 
-    private final Map<String, AtomicLong> idGenerators = new ConcurrentHashMap<>();
-    private final Map<String, Map<String, ObjectInfo>> storage = new ConcurrentHashMap<>();
-    private final AtomicReference<ObjectInfo> lastUploaded = new AtomicReference<>();
+    public InMemoryObjectInfoRepositoryImpl(Path metaDir, IdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
+        this.changeFeed = new ObjectInfoChangeFeed(metaDir == null ? null : metaDir.resolve("changelog"));
+    }
 
     @Override
     public ObjectInfo getObjectInfo(String bucket, String key) {
-        Map<String, ObjectInfo> bucketObjects = storage.get(bucket);
+        Map<String, Compact> bucketObjects = storage.get(bucket);
         if (bucketObjects == null) {
             return null;
         }
-        return bucketObjects.get(key);
+        Compact compact = bucketObjects.get(key);
+        return compact == null ? null : dictionary.expand(compact);
     }
 
     @Override
-    public void saveObjectInfo(ObjectInfo objectInfo) {
-        AtomicLong idGenerator = idGenerators.computeIfAbsent(objectInfo.getBucket(), k -> new AtomicLong(0));
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo) {
+        return saveObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        objectInfo.setId(idAllocator.nextId());
+        return put(objectInfo, condition);
+    }
+
+    @Override
+    public ObjectInfo restoreObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        idAllocator.advancePast(objectInfo.getId());
+        return put(objectInfo, condition);
+    }
+
+    private ObjectInfo put(ObjectInfo objectInfo, WriteCondition condition) {
+        ObjectInfo[] replaced = new ObjectInfo[1];
+        // publishing inside compute keeps the feed order consistent with the final state of the key
+        storage.computeIfAbsent(objectInfo.getBucket(), k -> new ConcurrentHashMap<>()).compute(objectInfo.getKey(), (key, oldValue) -> {
+            ObjectInfo current = oldValue == null ? null : dictionary.expand(oldValue);
+            if (!condition.test(current)) {
+                throw new PreconditionFailedException(objectInfo.getBucket(), key, "precondition " + condition + " failed");
+            }
+            replaced[0] = current;
+            if (oldValue != null) {
+                unindex(oldValue, current);
+            }
+            Compact compact = dictionary.compact(objectInfo);
+            timeIndex.add(objectInfo.getBucket(), compact.createTime(), compact.id(), compact);
+            metadataIndex.add(objectInfo);
+            statistics.add(objectInfo);
+            changeFeed.append(Type.SAVE, objectInfo);
+            return compact;
+        });
+        // forcing the change log outside compute keeps other keys of the bin writable meanwhile
+        changeFeed.sync(objectInfo.getBucket());
+        return replaced[0];
+    }
 
-        objectInfo.setId(idGenerator.incrementAndGet());
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo) {
+        return deleteObjectInfo(objectInfo, WriteCondition.NONE);
+    }
 
-        storage.computeIfAbsent(objectInfo.getBucket(), k -> new ConcurrentHashMap<>()).put(objectInfo.getKey(), objectInfo);
-        lastUploaded.getAndUpdate((oldValue) -> {
-            if (oldValue == null) {return  objectInfo;};
-            return oldValue.getId() < objectInfo.getId() ? objectInfo : oldValue;
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        Map<String, Compact> bucketObjects = storage.get(objectInfo.getBucket());
+        if (bucketObjects == null) {
+            if (!condition.test(null)) {
+                throw new PreconditionFailedException(objectInfo.getBucket(), objectInfo.getKey(), "precondition " + condition + " failed");
+            }
+            return null;
+        }
+        ObjectInfo[] removed = new ObjectInfo[1];
+        bucketObjects.computeIfPresent(objectInfo.getKey(), (key, oldValue) -> {
+            ObjectInfo current = dictionary.expand(oldValue);
+            if (!condition.test(current)) {
+                throw new PreconditionFailedException(objectInfo.getBucket(), key, "precondition " + condition + " failed");
+            }
+            removed[0] = current;
+            unindex(oldValue, current);
+            changeFeed.append(Type.DELETE, current);
+            return null;
         });
+        changeFeed.sync(objectInfo.getBucket());
+        if (removed[0] == null && !condition.test(null)) {
+            throw new PreconditionFailedException(objectInfo.getBucket(), objectInfo.getKey(), "precondition " + condition + " failed");
+        }
+        return removed[0];
     }
 
+    /**
+     * Drains the range from the time index and removes each drained version that is still the current one of its key,
+     * then settles the statistics once per day partition.
+     */
     @Override
-    public void deleteObjectInfo(ObjectInfo objectInfo) {
-        Map<String, ObjectInfo> bucketObjects = storage.get(objectInfo.getBucket());
+    public List<ObjectInfo> deleteObjectInfos(String bucket, long fromCreateTime, long toCreateTime) {
+        Map<String, Compact> bucketObjects = storage.get(bucket);
         if (bucketObjects == null) {
-            return;
+            return List.of();
         }
-        bucketObjects.remove(objectInfo.getKey());
+        List<ObjectInfo> deleted = new ArrayList<>();
+        Map<Long, long[]> partitions = new TreeMap<>();
+        for (Compact compact : timeIndex.removeRange(bucket, fromCreateTime, toCreateTime)) {
+            bucketObjects.computeIfPresent(compact.key(), (key, oldValue) -> {
+                if (oldValue != compact) {
+                    // overwritten since, the save moved it in the indexes
+                    return oldValue;
+                }
+                ObjectInfo current = dictionary.expand(oldValue);
+                metadataIndex.remove(current);
+                dictionary.release(oldValue);
+                changeFeed.append(Type.DELETE, current);
+                deleted.add(current);
+                long[] partition = partitions.computeIfAbsent(ObjectInfoTimeIndex.epochDay(current.getCreateTime()), k -> new long[2]);
+                partition[0]++;
+                partition[1] += current.getSize();
+                return null;
+            });
+        }
+        partitions.forEach((epochDay, partition) -> statistics.update(bucket, epochDay, -partition[0], -partition[1]));
+        changeFeed.sync(bucket);
+        return deleted;
+    }
+
+    private void unindex(Compact compact, ObjectInfo objectInfo) {
+        timeIndex.remove(objectInfo.getBucket(), compact.createTime(), compact.id());
+        metadataIndex.remove(objectInfo);
+        statistics.remove(objectInfo);
+        dictionary.release(compact);
+    }
+
+    @Override
+    public Set<String> listBuckets() {
+        Set<String> buckets = new TreeSet<>();
+        storage.forEach((bucket, objects) -> {
+            if (!objects.isEmpty()) {
+                buckets.add(bucket);
+            }
+        });
+        return buckets;
     }
 
     @Override
     public ObjectInfo lastSavedObjectInfo() {
-        return null;
+        return changeFeed.lastSavedObjectInfo();
+    }
+
+    @Override
+    public Stream<ObjectInfo> findObjectInfos(String bucket, long fromCreateTime, long toCreateTime) {
+        return timeIndex.find(bucket, fromCreateTime, toCreateTime).map(dictionary::expand);
+    }
+
+    @Override
+    public Stream<ObjectInfo> findObjectInfos(String bucket, BsonDocument filter, Set<String> projection) {
+        Map<String, Compact> bucketObjects = storage.get(bucket);
+        if (bucketObjects == null) {
+            return Stream.empty();
+        }
+        ObjectInfoMetadataQuery query = new ObjectInfoMetadataQuery(filter, projection);
+        Set<String> candidates = filter == null ? null : metadataIndex.candidates(bucket, filter);
+        Stream<Compact> objects = candidates == null
+                ? bucketObjects.values().stream()
+                : candidates.stream().map(bucketObjects::get).filter(Objects::nonNull);
+        return objects.map(dictionary::expand).map(query::apply).filter(Objects::nonNull);
+    }
+
+    @Override
+    public void createMetadataIndex(String bucket, String field) {
+        metadataIndex.createIndex(bucket, field,
+                storage.computeIfAbsent(bucket, k -> new ConcurrentHashMap<>()).values().stream().map(dictionary::expand));
+    }
+
+    @Override
+    public void dropMetadataIndex(String bucket, String field) {
+        metadataIndex.dropIndex(bucket, field);
+    }
+
+    @Override
+    public BucketStats getBucketStats(String bucket) {
+        return statistics.get(bucket);
+    }
+
+    @Override
+    public Subscription subscribe(String bucket, long fromSequence, Consumer<ObjectInfoChange> listener) {
+        return changeFeed.subscribe(bucket, fromSequence, listener);
+    }
+
+    int sharedStringCount() {
+        return dictionary.sharedStringCount();
+    }
+
+    @Override
+    public void close() {
+        changeFeed.close();
+        idAllocator.close();
+    }
+
+    private static Path createDirectories(Path dir) {
+        try {
+            return Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 }
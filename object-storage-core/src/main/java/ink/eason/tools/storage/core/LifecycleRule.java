@@ -0,0 +1,15 @@
+package ink.eason.tools.storage.core;
+
+import java.time.Duration;
+
+/**
+ * Expires the objects of {@code bucket} {@code ttl} after their creation.
+ */
+public record LifecycleRule(String bucket, Duration ttl) {
+
+    public LifecycleRule {
+        if (bucket == null || ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("invalid lifecycle rule for bucket " + bucket + ": " + ttl);
+        }
+    }
+}
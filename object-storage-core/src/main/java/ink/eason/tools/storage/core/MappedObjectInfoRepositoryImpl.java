@@ -0,0 +1,603 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.RawBsonDocument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * {@link ObjectInfoRepository} backed by a memory-mapped, open-addressing hash file of fixed-size records.
+ * <p>
+ * Opening the repository maps the file and reads its header, nothing is replayed and the page cache doubles as the
+ * metadata cache. Only after an unclean shutdown the records are scanned, to rebuild the statistics and drop the
+ * records a crash left half written. Lookups probe the mapping directly. Writers are serialized and update records in place, bumping a
+ * per-record sequence around every write so that lookups never take a lock: a reader retries a record whose sequence
+ * was odd or changed while it was being read. The file is locked exclusively while it is open, so a second repository,
+ * in this process or another one, can't map it at the same time.
+ * <p>
+ * The capacity is fixed when the file is created, which suits buckets with a bounded key space. Every field of an
+ * {@link ObjectInfo} has to fit into a single record. Snapshots are exported by walking the slots, so their object
+ * infos come in no particular order.
+ */
+public class MappedObjectInfoRepositoryImpl implements MeasurableObjectInfoRepository, SnapshottableObjectInfoRepository, Closeable {
+
+    public static final int DEFAULT_RECORD_SIZE = 1024;
+
+    private static final String FILE_NAME = "objectinfo.map";
+
+    private static final int MAGIC = 0x4F534D49;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int MAX_LOAD_PERCENT = 75;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_RECORD_SIZE = 12;
+    private static final int HEADER_USED_SLOTS = 16;
+    private static final int HEADER_LIVE_RECORDS = 20;
+    private static final int HEADER_LAST_SAVED_SLOT = 24;
+    private static final int HEADER_LAST_SAVED_ID = 32;
+    private static final int HEADER_CLEAN_SHUTDOWN = 40;
+    // guards the last saved slot and id like the sequence of a record
+    private static final int HEADER_LAST_SAVED_SEQUENCE = 48;
+
+    private static final int RECORD_SEQUENCE = 0;
+    private static final int RECORD_STATE = 8;
+    private static final int RECORD_HASH = 12;
+    private static final int RECORD_ID = 16;
+    private static final int RECORD_CREATE_TIME = 24;
+    private static final int RECORD_SIZE = 32;
+    private static final int RECORD_BUCKET_LENGTH = 40;
+    private static final int RECORD_KEY_LENGTH = 44;
+    private static final int RECORD_PATH_LENGTH = 48;
+    private static final int RECORD_MD5_LENGTH = 52;
+    private static final int RECORD_METADATA_LENGTH = 56;
+    private static final int RECORD_BSON_METADATA_LENGTH = 60;
+    private static final int RECORD_DATA = 64;
+
+    private static final int STATE_EMPTY = 0;
+    private static final int STATE_LIVE = 1;
+    private static final int STATE_TOMBSTONE = 2;
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, LITTLE_ENDIAN);
+
+    // sentinels returned by a slot probe
+    private static final ObjectInfo EMPTY_SLOT = new ObjectInfo();
+    private static final ObjectInfo OTHER_SLOT = new ObjectInfo();
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int recordSize;
+    private final IdAllocator idAllocator;
+    private final BucketStatistics statistics = new BucketStatistics();
+    private final Path statisticsFile;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    public MappedObjectInfoRepositoryImpl(Path metaDir, int capacity) {
+        this(metaDir, capacity, DEFAULT_RECORD_SIZE);
+    }
+
+    /**
+     * @param capacity   number of slots, rounded up to a power of two; ignored when the file already exists
+     * @param recordSize bytes per record, a multiple of 8; ignored when the file already exists
+     */
+    public MappedObjectInfoRepositoryImpl(Path metaDir, int capacity, int recordSize) {
+        if (capacity <= 0 || recordSize <= RECORD_DATA || recordSize % 8 != 0) {
+            throw new IllegalArgumentException("invalid capacity " + capacity + " or record size " + recordSize);
+        }
+        try {
+            Files.createDirectories(metaDir);
+            Path file = metaDir.resolve(FILE_NAME);
+            boolean exists = Files.exists(file) && Files.size(file) >= HEADER_SIZE;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                // released when the channel is closed
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                channel.close();
+                throw new IllegalStateException(file + " is already open");
+            }
+            if (exists) {
+                MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+                header.order(LITTLE_ENDIAN);
+                if (header.getInt(HEADER_MAGIC) != MAGIC || header.getInt(HEADER_VERSION) != FORMAT_VERSION) {
+                    throw new IllegalStateException(file + " is not an object info map file");
+                }
+                capacity = header.getInt(HEADER_CAPACITY);
+                recordSize = header.getInt(HEADER_RECORD_SIZE);
+            } else {
+                capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+            }
+            long fileSize = HEADER_SIZE + (long) capacity * recordSize;
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("capacity " + capacity + " x record size " + recordSize + " exceeds a single mapping");
+            }
+            this.capacity = capacity;
+            this.recordSize = recordSize;
+            this.buffer = channel.map(MapMode.READ_WRITE, 0, fileSize);
+            this.buffer.order(LITTLE_ENDIAN);
+            if (!exists) {
+                buffer.putInt(HEADER_CAPACITY, capacity);
+                buffer.putInt(HEADER_RECORD_SIZE, recordSize);
+                buffer.putInt(HEADER_LAST_SAVED_SLOT, -1);
+                buffer.putInt(HEADER_VERSION, FORMAT_VERSION);
+                buffer.putInt(HEADER_MAGIC, MAGIC);
+            }
+            this.idAllocator = new IdAllocator(metaDir.resolve(FILE_NAME + ".id.lease"));
+            this.statisticsFile = metaDir.resolve(FILE_NAME + ".stats");
+            loadStatistics(exists);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucket, String key) {
+        byte[] bucketBytes = bucket.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bucketBytes, keyBytes);
+        int mask = capacity - 1;
+        for (int i = 0, slot = hash & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+            ObjectInfo result = readSlot(slot, hash, bucketBytes, keyBytes);
+            if (result == EMPTY_SLOT) {
+                return null;
+            }
+            if (result != OTHER_SLOT) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo) {
+        return saveObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        return save(objectInfo, condition, false);
+    }
+
+    /**
+     * @param restore whether {@code objectInfo} keeps its id instead of getting a new one
+     */
+    private ObjectInfo save(ObjectInfo objectInfo, WriteCondition condition, boolean restore) {
+        byte[] bucket = utf8(objectInfo.getBucket());
+        byte[] key = utf8(objectInfo.getKey());
+        byte[] path = utf8(objectInfo.getPath());
+        byte[] md5 = utf8(objectInfo.getMd5());
+        byte[] metadata = utf8(objectInfo.getMetadata());
+        byte[] bsonMetadata = null;
+        if (objectInfo.getBsonMetadata() != null) {
+            bsonMetadata = new byte[objectInfo.getBsonMetadata().getByteBuffer().remaining()];
+            objectInfo.getBsonMetadata().getByteBuffer().get(bsonMetadata);
+        }
+        int dataLength = length(bucket) + length(key) + length(path) + length(md5) + length(metadata) + length(bsonMetadata);
+        if (RECORD_DATA + dataLength > recordSize) {
+            throw new IllegalArgumentException("object info of " + objectInfo.getBucket() + "/" + objectInfo.getKey()
+                    + " needs " + (RECORD_DATA + dataLength) + " bytes but records are " + recordSize + " bytes");
+        }
+        int hash = hash(bucket, key);
+
+        writeLock.lock();
+        try {
+            int slot = findSlotForWrite(hash, bucket, key);
+            int base = recordOffset(slot);
+            int state = buffer.getInt(base + RECORD_STATE);
+            // no other writer can touch the record while the lock is held
+            ObjectInfo replaced = state == STATE_LIVE ? decode(base) : null;
+            if (!condition.test(replaced)) {
+                throw new PreconditionFailedException(objectInfo.getBucket(), objectInfo.getKey(), "precondition " + condition + " failed");
+            }
+            if (state == STATE_EMPTY) {
+                int used = buffer.getInt(HEADER_USED_SLOTS);
+                if ((long) (used + 1) * 100 > (long) capacity * MAX_LOAD_PERCENT) {
+                    throw new IllegalStateException("object info map is full: " + used + " of " + capacity + " slots used");
+                }
+                buffer.putInt(HEADER_USED_SLOTS, used + 1);
+            }
+            if (state != STATE_LIVE) {
+                buffer.putInt(HEADER_LIVE_RECORDS, buffer.getInt(HEADER_LIVE_RECORDS) + 1);
+            } else {
+                statistics.update(objectInfo.getBucket(), ObjectInfoTimeIndex.epochDay(buffer.getLong(base + RECORD_CREATE_TIME)),
+                        -1, -buffer.getLong(base + RECORD_SIZE));
+            }
+
+            if (restore) {
+                idAllocator.advancePast(objectInfo.getId());
+            } else {
+                objectInfo.setId(idAllocator.nextId());
+            }
+            long sequence = beginWrite(base + RECORD_SEQUENCE);
+            buffer.putInt(base + RECORD_STATE, STATE_LIVE);
+            buffer.putInt(base + RECORD_HASH, hash);
+            buffer.putLong(base + RECORD_ID, objectInfo.getId());
+            buffer.putLong(base + RECORD_CREATE_TIME, objectInfo.getCreateTime());
+            buffer.putLong(base + RECORD_SIZE, objectInfo.getSize());
+            int position = base + RECORD_DATA;
+            position = putBytes(base + RECORD_BUCKET_LENGTH, position, bucket);
+            position = putBytes(base + RECORD_KEY_LENGTH, position, key);
+            position = putBytes(base + RECORD_PATH_LENGTH, position, path);
+            position = putBytes(base + RECORD_MD5_LENGTH, position, md5);
+            position = putBytes(base + RECORD_METADATA_LENGTH, position, metadata);
+            putBytes(base + RECORD_BSON_METADATA_LENGTH, position, bsonMetadata);
+            endWrite(base + RECORD_SEQUENCE, sequence);
+
+            long headerSequence = beginWrite(HEADER_LAST_SAVED_SEQUENCE);
+            buffer.putInt(HEADER_LAST_SAVED_SLOT, slot);
+            buffer.putLong(HEADER_LAST_SAVED_ID, objectInfo.getId());
+            endWrite(HEADER_LAST_SAVED_SEQUENCE, headerSequence);
+            statistics.add(objectInfo);
+            return replaced;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo) {
+        return deleteObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        byte[] bucket = utf8(objectInfo.getBucket());
+        byte[] key = utf8(objectInfo.getKey());
+        int hash = hash(bucket, key);
+
+        writeLock.lock();
+        try {
+            int slot = findSlotForWrite(hash, bucket, key);
+            int base = recordOffset(slot);
+            ObjectInfo removed = buffer.getInt(base + RECORD_STATE) == STATE_LIVE ? decode(base) : null;
+            if (!condition.test(removed)) {
+                throw new PreconditionFailedException(objectInfo.getBucket(), objectInfo.getKey(), "precondition " + condition + " failed");
+            }
+            if (removed == null) {
+                return null;
+            }
+            long sequence = beginWrite(base + RECORD_SEQUENCE);
+            buffer.putInt(base + RECORD_STATE, STATE_TOMBSTONE);
+            endWrite(base + RECORD_SEQUENCE, sequence);
+            buffer.putInt(HEADER_LIVE_RECORDS, buffer.getInt(HEADER_LIVE_RECORDS) - 1);
+            statistics.update(objectInfo.getBucket(), ObjectInfoTimeIndex.epochDay(buffer.getLong(base + RECORD_CREATE_TIME)),
+                    -1, -buffer.getLong(base + RECORD_SIZE));
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public ObjectInfo lastSavedObjectInfo() {
+        int slot;
+        long id;
+        while (true) {
+            long sequence = (long) LONG_VIEW.getAcquire(buffer, HEADER_LAST_SAVED_SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            slot = buffer.getInt(HEADER_LAST_SAVED_SLOT);
+            id = buffer.getLong(HEADER_LAST_SAVED_ID);
+            VarHandle.acquireFence();
+            if ((long) LONG_VIEW.getVolatile(buffer, HEADER_LAST_SAVED_SEQUENCE) == sequence) {
+                break;
+            }
+        }
+        if (slot < 0) {
+            return null;
+        }
+        ObjectInfo objectInfo = readSlot(slot, 0, null, null);
+        // the record may have been deleted or reused since
+        return objectInfo != EMPTY_SLOT && objectInfo != OTHER_SLOT && objectInfo.getId() == id ? objectInfo : null;
+    }
+
+    /**
+     * @return the object count and total size of {@code bucket}, overall and per day partition
+     */
+    @Override
+    public BucketStats getBucketStats(String bucket) {
+        return statistics.get(bucket);
+    }
+
+    @Override
+    public long exportSnapshot(OutputStream out) {
+        return ObjectInfoSnapshot.export(IntStream.range(0, capacity)
+                .mapToObj(slot -> readSlot(slot, 0, null, null))
+                .filter(objectInfo -> objectInfo != EMPTY_SLOT && objectInfo != OTHER_SLOT), out);
+    }
+
+    @Override
+    public long importSnapshot(InputStream in) {
+        return ObjectInfoSnapshot.importInto(objectInfo -> save(objectInfo, WriteCondition.NONE, true), in);
+    }
+
+    /**
+     * @return the number of live records
+     */
+    public int size() {
+        return buffer.getInt(HEADER_LIVE_RECORDS);
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            saveStatistics();
+            buffer.force();
+            channel.close();
+            idAllocator.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Statistics are written next to the map on close. After an unclean shutdown they are rebuilt from the records,
+     * which is the only case where opening the repository reads more than the header.
+     */
+    private void loadStatistics(boolean exists) throws IOException {
+        if (exists && buffer.getInt(HEADER_CLEAN_SHUTDOWN) == 1 && Files.exists(statisticsFile)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(statisticsFile)))) {
+                statistics.readFrom(in);
+            }
+        } else if (exists) {
+            recover();
+        }
+        buffer.putInt(HEADER_CLEAN_SHUTDOWN, 0);
+        buffer.force(0, HEADER_SIZE);
+    }
+
+    /**
+     * Rebuilds the statistics and the header counters from the records. A record whose sequence is odd was being
+     * written when the process died: it is half old and half new, and lookups would wait for it forever, so it is
+     * dropped as if it had been deleted. A torn last saved slot is pointed at the live record with the highest id.
+     */
+    private void recover() {
+        int used = 0;
+        int live = 0;
+        boolean torn = false;
+        int lastSavedSlot = -1;
+        long lastSavedId = Long.MIN_VALUE;
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = recordOffset(slot);
+            long sequence = (long) LONG_VIEW.get(buffer, base + RECORD_SEQUENCE);
+            if ((sequence & 1) != 0) {
+                // a tombstone rather than an empty slot keeps the probe chains running through the slot intact
+                buffer.putInt(base + RECORD_STATE, STATE_TOMBSTONE);
+                LONG_VIEW.set(buffer, base + RECORD_SEQUENCE, sequence + 1);
+                torn = true;
+            }
+            int state = buffer.getInt(base + RECORD_STATE);
+            if (state != STATE_EMPTY) {
+                used++;
+            }
+            if (state == STATE_LIVE) {
+                live++;
+                if (buffer.getLong(base + RECORD_ID) > lastSavedId) {
+                    lastSavedSlot = slot;
+                    lastSavedId = buffer.getLong(base + RECORD_ID);
+                }
+                statistics.update(getString(base + RECORD_BUCKET_LENGTH, base + RECORD_DATA),
+                        ObjectInfoTimeIndex.epochDay(buffer.getLong(base + RECORD_CREATE_TIME)), 1, buffer.getLong(base + RECORD_SIZE));
+            }
+        }
+        // the counters are updated around the record writes, so they can be off by the writes that were cut short
+        buffer.putInt(HEADER_USED_SLOTS, used);
+        buffer.putInt(HEADER_LIVE_RECORDS, live);
+        long headerSequence = (long) LONG_VIEW.get(buffer, HEADER_LAST_SAVED_SEQUENCE);
+        if ((headerSequence & 1) != 0) {
+            buffer.putInt(HEADER_LAST_SAVED_SLOT, lastSavedSlot);
+            buffer.putLong(HEADER_LAST_SAVED_ID, lastSavedId);
+            LONG_VIEW.set(buffer, HEADER_LAST_SAVED_SEQUENCE, headerSequence + 1);
+            torn = true;
+        }
+        if (torn) {
+            buffer.force();
+        }
+    }
+
+    private void saveStatistics() throws IOException {
+        Path temp = statisticsFile.resolveSibling(statisticsFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            statistics.writeTo(out);
+        }
+        Files.move(temp, statisticsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        buffer.force();
+        buffer.putInt(HEADER_CLEAN_SHUTDOWN, 1);
+    }
+
+    /**
+     * Must hold the write lock. Returns the live slot of the key, or else the first reusable slot of its probe chain.
+     */
+    private int findSlotForWrite(int hash, byte[] bucket, byte[] key) {
+        int mask = capacity - 1;
+        int firstTombstone = -1;
+        for (int i = 0, slot = hash & mask; i < capacity; i++, slot = (slot + 1) & mask) {
+            int base = recordOffset(slot);
+            int state = buffer.getInt(base + RECORD_STATE);
+            if (state == STATE_EMPTY) {
+                return firstTombstone >= 0 ? firstTombstone : slot;
+            }
+            if (state == STATE_TOMBSTONE) {
+                if (firstTombstone < 0) {
+                    firstTombstone = slot;
+                }
+            } else if (buffer.getInt(base + RECORD_HASH) == hash && keyEquals(base, bucket, key)) {
+                return slot;
+            }
+        }
+        if (firstTombstone >= 0) {
+            return firstTombstone;
+        }
+        throw new IllegalStateException("object info map is full");
+    }
+
+    /**
+     * Lock-free read of a slot. With a {@code null} bucket the live record is returned whatever its key.
+     */
+    private ObjectInfo readSlot(int slot, int hash, byte[] bucket, byte[] key) {
+        int base = recordOffset(slot);
+        while (true) {
+            long sequence = (long) LONG_VIEW.getAcquire(buffer, base + RECORD_SEQUENCE);
+            if ((sequence & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            ObjectInfo result;
+            try {
+                int state = buffer.getInt(base + RECORD_STATE);
+                if (state == STATE_EMPTY) {
+                    result = EMPTY_SLOT;
+                } else if (state != STATE_LIVE) {
+                    result = OTHER_SLOT;
+                } else if (bucket != null && (buffer.getInt(base + RECORD_HASH) != hash || !keyEquals(base, bucket, key))) {
+                    result = OTHER_SLOT;
+                } else {
+                    result = decode(base);
+                }
+            } catch (RuntimeException e) {
+                // lengths read from a record that is being rewritten can be garbage
+                VarHandle.acquireFence();
+                if ((long) LONG_VIEW.getVolatile(buffer, base + RECORD_SEQUENCE) == sequence) {
+                    throw e;
+                }
+                continue;
+            }
+            VarHandle.acquireFence();
+            if ((long) LONG_VIEW.getVolatile(buffer, base + RECORD_SEQUENCE) == sequence) {
+                return result;
+            }
+        }
+    }
+
+    private long beginWrite(int sequenceOffset) {
+        long sequence = (long) LONG_VIEW.get(buffer, sequenceOffset);
+        LONG_VIEW.setOpaque(buffer, sequenceOffset, sequence + 1);
+        VarHandle.storeStoreFence();
+        return sequence;
+    }
+
+    private void endWrite(int sequenceOffset, long sequence) {
+        LONG_VIEW.setRelease(buffer, sequenceOffset, sequence + 2);
+    }
+
+    private ObjectInfo decode(int base) {
+        ObjectInfo objectInfo = new ObjectInfo();
+        objectInfo.setId(buffer.getLong(base + RECORD_ID));
+        objectInfo.setCreateTime(buffer.getLong(base + RECORD_CREATE_TIME));
+        objectInfo.setSize(buffer.getLong(base + RECORD_SIZE));
+        int position = base + RECORD_DATA;
+        objectInfo.setBucket(getString(base + RECORD_BUCKET_LENGTH, position));
+        position += length(base + RECORD_BUCKET_LENGTH);
+        objectInfo.setKey(getString(base + RECORD_KEY_LENGTH, position));
+        position += length(base + RECORD_KEY_LENGTH);
+        objectInfo.setPath(getString(base + RECORD_PATH_LENGTH, position));
+        position += length(base + RECORD_PATH_LENGTH);
+        objectInfo.setMd5(getString(base + RECORD_MD5_LENGTH, position));
+        position += length(base + RECORD_MD5_LENGTH);
+        objectInfo.setMetadata(getString(base + RECORD_METADATA_LENGTH, position));
+        position += length(base + RECORD_METADATA_LENGTH);
+        byte[] bsonMetadata = getBytes(base + RECORD_BSON_METADATA_LENGTH, position);
+        objectInfo.setBsonMetadata(bsonMetadata == null ? null : new RawBsonDocument(bsonMetadata));
+        return objectInfo;
+    }
+
+    private boolean keyEquals(int base, byte[] bucket, byte[] key) {
+        if (buffer.getInt(base + RECORD_BUCKET_LENGTH) != bucket.length || buffer.getInt(base + RECORD_KEY_LENGTH) != key.length) {
+            return false;
+        }
+        int position = base + RECORD_DATA;
+        for (byte b : bucket) {
+            if (buffer.get(position++) != b) return false;
+        }
+        for (byte b : key) {
+            if (buffer.get(position++) != b) return false;
+        }
+        return true;
+    }
+
+    private int putBytes(int lengthOffset, int position, byte[] bytes) {
+        buffer.putInt(lengthOffset, bytes == null ? -1 : bytes.length);
+        if (bytes == null) {
+            return position;
+        }
+        buffer.put(position, bytes);
+        return position + bytes.length;
+    }
+
+    private byte[] getBytes(int lengthOffset, int position) {
+        int length = buffer.getInt(lengthOffset);
+        if (length < 0) {
+            return null;
+        }
+        if (position + length > buffer.capacity()) {
+            throw new IndexOutOfBoundsException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return bytes;
+    }
+
+    private String getString(int lengthOffset, int position) {
+        byte[] bytes = getBytes(lengthOffset, position);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int length(int lengthOffset) {
+        return Math.max(buffer.getInt(lengthOffset), 0);
+    }
+
+    private int recordOffset(int slot) {
+        return HEADER_SIZE + slot * recordSize;
+    }
+
+    private static int hash(byte[] bucket, byte[] key) {
+        int h = 1;
+        for (byte b : bucket) h = 31 * h + b;
+        h = 31 * h;
+        for (byte b : key) h = 31 * h + b;
+        return h ^ (h >>> 16);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+}
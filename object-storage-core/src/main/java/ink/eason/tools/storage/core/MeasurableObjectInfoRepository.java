@@ -0,0 +1,13 @@
+package ink.eason.tools.storage.core;
+
+/**
+ * An {@link ObjectInfoRepository} that keeps per-bucket usage statistics.
+ */
+public interface MeasurableObjectInfoRepository extends ObjectInfoRepository {
+
+    /**
+     * @return the object count and total size of {@code bucket}, overall and per day partition
+     */
+    public BucketStats getBucketStats(String bucket);
+
+}
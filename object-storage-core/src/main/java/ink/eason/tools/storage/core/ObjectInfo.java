@@ -1,5 +1,7 @@
 package ink.eason.tools.storage.core;
 
+import org.bson.RawBsonDocument;
+
 import java.util.Objects;
 
 public class ObjectInfo {
@@ -11,6 +13,22 @@ public class ObjectInfo {
     private long size;
     private String md5;
     private String metadata;
+    private RawBsonDocument bsonMetadata;
+
+    public ObjectInfo() {
+    }
+
+    public ObjectInfo(ObjectInfo other) {
+        this.id = other.id;
+        this.bucket = other.bucket;
+        this.key = other.key;
+        this.path = other.path;
+        this.createTime = other.createTime;
+        this.size = other.size;
+        this.md5 = other.md5;
+        this.metadata = other.metadata;
+        this.bsonMetadata = other.bsonMetadata;
+    }
 
     @Override
     public String toString() {
@@ -23,6 +41,7 @@ public class ObjectInfo {
                 ", size=" + size +
                 ", md5='" + md5 + '\'' +
                 ", metadata='" + metadata + '\'' +
+                ", bsonMetadata=" + (bsonMetadata == null ? null : bsonMetadata.toJson()) +
                 '}';
     }
 
@@ -30,12 +49,28 @@ public class ObjectInfo {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         ObjectInfo that = (ObjectInfo) o;
-        return createTime == that.createTime && size == that.size && Objects.equals(id, that.id) && Objects.equals(path, that.path) && Objects.equals(bucket, that.bucket) && Objects.equals(key, that.key) && Objects.equals(md5, that.md5) && Objects.equals(metadata, that.metadata);
+        return createTime == that.createTime && size == that.size && Objects.equals(id, that.id) && Objects.equals(path, that.path) && Objects.equals(bucket, that.bucket) && Objects.equals(key, that.key) && Objects.equals(md5, that.md5) && Objects.equals(metadata, that.metadata) && bsonEquals(bsonMetadata, that.bsonMetadata);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, path, createTime, bucket, key, size, md5, metadata);
+        // bsonMetadata is left out: hashing a RawBsonDocument decodes it, and equal objects still hash equally
+        int result = Objects.hashCode(id);
+        result = 31 * result + Objects.hashCode(path);
+        result = 31 * result + Long.hashCode(createTime);
+        result = 31 * result + Objects.hashCode(bucket);
+        result = 31 * result + Objects.hashCode(key);
+        result = 31 * result + Long.hashCode(size);
+        result = 31 * result + Objects.hashCode(md5);
+        result = 31 * result + Objects.hashCode(metadata);
+        return result;
+    }
+
+    private static boolean bsonEquals(RawBsonDocument a, RawBsonDocument b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        // compare the encoded bytes, RawBsonDocument.equals decodes both documents
+        return a.getByteBuffer().asNIO().equals(b.getByteBuffer().asNIO());
     }
 
     public Long getId() {
@@ -94,6 +129,14 @@ public class ObjectInfo {
         this.metadata = metadata;
     }
 
+    public RawBsonDocument getBsonMetadata() {
+        return bsonMetadata;
+    }
+
+    public void setBsonMetadata(RawBsonDocument bsonMetadata) {
+        this.bsonMetadata = bsonMetadata;
+    }
+
     public String getPath() {
         return path;
     }
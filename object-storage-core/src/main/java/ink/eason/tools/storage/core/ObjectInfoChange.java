@@ -0,0 +1,27 @@
+package ink.eason.tools.storage.core;
+
+import java.nio.ByteBuffer;
+
+public record ObjectInfoChange(String bucket, long sequence, Type type, ObjectInfo objectInfo) {
+
+    public static enum Type {
+        SAVE,
+        DELETE,
+    }
+
+    int encodedLength() {
+        return Long.BYTES + 1 + ObjectInfoCodec.encodedLength(objectInfo);
+    }
+
+    void writeTo(ByteBuffer out) {
+        out.putLong(sequence);
+        out.put((byte) type.ordinal());
+        ObjectInfoCodec.encode(objectInfo, out);
+    }
+
+    static ObjectInfoChange readFrom(String bucket, ByteBuffer in) {
+        long sequence = in.getLong();
+        Type type = Type.values()[in.get()];
+        return new ObjectInfoChange(bucket, sequence, type, ObjectInfoCodec.decode(in, null));
+    }
+}
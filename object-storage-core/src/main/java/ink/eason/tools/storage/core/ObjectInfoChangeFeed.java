@@ -0,0 +1,490 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.core.ObjectInfoChange.Type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Per-bucket, sequence ordered feed of {@link ObjectInfo} saves and deletes.
+ * <p>
+ * Recent changes are kept in a ring buffer so that live subscribers are served from memory. When a log directory
+ * is configured every change is also appended to {@code <logDir>/<bucket>.log}, which lets subscribers start from
+ * (or fall back to) sequences that have already been overwritten in the ring. The logs of every bucket are read back
+ * when the feed is created.
+ * <p>
+ * With a log, {@link #publish} returns once the change has been forced to the device, and subscribers only see
+ * forced changes, so a change that has been acknowledged or delivered survives a crash. Concurrent publishers share
+ * their forces: whoever forces the log covers every change appended before it started.
+ * <p>
+ * The feed keeps copies of the published object infos and hands out copies, so callers may modify theirs.
+ */
+public class ObjectInfoChangeFeed implements Closeable {
+
+    public static final int DEFAULT_RING_CAPACITY = 8192;
+
+    private static final int LOG_INDEX_INTERVAL = 1024;
+
+    private static final int MAX_DELIVERY_BATCH = 256;
+
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path logDir;
+    private final int ringCapacity;
+    private final Map<String, BucketFeed> feeds = new ConcurrentHashMap<>();
+
+    public ObjectInfoChangeFeed(Path logDir) {
+        this(logDir, DEFAULT_RING_CAPACITY);
+    }
+
+    public ObjectInfoChangeFeed(Path logDir, int ringCapacity) {
+        if (Integer.bitCount(ringCapacity) != 1) {
+            throw new IllegalArgumentException("ringCapacity must be a power of two: " + ringCapacity);
+        }
+        try {
+            if (logDir != null && Files.notExists(logDir)) {
+                Files.createDirectories(logDir);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.logDir = logDir;
+        this.ringCapacity = ringCapacity;
+        if (logDir != null) {
+            // lastSavedObjectInfo spans every bucket, so none can wait until it is touched
+            try (Stream<Path> logs = Files.list(logDir)) {
+                logs.map(log -> log.getFileName().toString())
+                        .filter(name -> name.endsWith(LOG_SUFFIX))
+                        .forEach(name -> feed(name.substring(0, name.length() - LOG_SUFFIX.length())));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public ObjectInfoChange publish(Type type, ObjectInfo objectInfo) {
+        ObjectInfoChange change = append(type, objectInfo);
+        sync(objectInfo.getBucket());
+        return change;
+    }
+
+    /**
+     * Publishes a change without waiting for it to be forced to the log, e.g. while holding a lock that other writers
+     * need. Must be followed by {@link #sync(String)} before the change is acknowledged.
+     */
+    ObjectInfoChange append(Type type, ObjectInfo objectInfo) {
+        return copy(feed(objectInfo.getBucket()).append(type, objectInfo));
+    }
+
+    /**
+     * Returns once every change of {@code bucket} appended so far has been forced to the log.
+     */
+    void sync(String bucket) {
+        BucketFeed feed = feeds.get(bucket);
+        if (feed != null) {
+            feed.sync(feed.lastSequence());
+        }
+    }
+
+    public ObjectInfoChange lastChange(String bucket) {
+        return copy(feed(bucket).lastChange());
+    }
+
+    public long lastSequence(String bucket) {
+        return feed(bucket).lastSequence();
+    }
+
+    /**
+     * @return the most recently created {@link ObjectInfo} among the last saves of every bucket
+     */
+    public ObjectInfo lastSavedObjectInfo() {
+        ObjectInfo last = null;
+        for (BucketFeed feed : feeds.values()) {
+            ObjectInfo candidate = feed.lastSave;
+            if (candidate == null) {
+                continue;
+            }
+            if (last == null || candidate.getCreateTime() > last.getCreateTime()
+                    || (candidate.getCreateTime() == last.getCreateTime() && candidate.getId() > last.getId())) {
+                last = candidate;
+            }
+        }
+        return last == null ? null : new ObjectInfo(last);
+    }
+
+    /**
+     * Delivers every change of {@code bucket} whose sequence is {@code >= fromSequence} to {@code listener}, in
+     * sequence order, on a dedicated thread. Past changes are replayed first, after which new changes are pushed as
+     * soon as they are published.
+     */
+    public Subscription subscribe(String bucket, long fromSequence, Consumer<ObjectInfoChange> listener) {
+        Subscription subscription = new Subscription(feed(bucket), Math.max(fromSequence, 1), listener);
+        Thread.ofVirtual().name("change-feed-" + bucket).start(subscription::run);
+        return subscription;
+    }
+
+    @Override
+    public void close() {
+        for (BucketFeed feed : feeds.values()) {
+            feed.close();
+        }
+        feeds.clear();
+    }
+
+    private BucketFeed feed(String bucket) {
+        return feeds.computeIfAbsent(bucket, BucketFeed::new);
+    }
+
+    private static ObjectInfoChange copy(ObjectInfoChange change) {
+        return change == null ? null
+                : new ObjectInfoChange(change.bucket(), change.sequence(), change.type(), new ObjectInfo(change.objectInfo()));
+    }
+
+    private class BucketFeed {
+
+        private final String bucket;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition appended = lock.newCondition();
+        // held by the appender that forces the log for everyone waiting
+        private final ReentrantLock forceLock = new ReentrantLock();
+        private final ObjectInfoChange[] ring = new ObjectInfoChange[ringCapacity];
+        private final FileChannel log;
+        // sequence -> file offset of every LOG_INDEX_INTERVAL-th record, to avoid scanning the whole log on catch-up
+        private final NavigableMap<Long, Long> logIndex = new ConcurrentSkipListMap<>();
+        private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+        private volatile long lastSequence;
+        // last sequence forced to the log, the last one subscribers may see
+        private volatile long durableSequence;
+        private volatile ObjectInfo lastSave;
+        private long logSize;
+        private boolean closed;
+
+        private BucketFeed(String bucket) {
+            this.bucket = bucket;
+            if (logDir == null) {
+                this.log = null;
+                return;
+            }
+            try {
+                this.log = FileChannel.open(logDir.resolve(bucket + LOG_SUFFIX),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                recover();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void recover() throws IOException {
+            long size = log.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(4);
+            while (offset + 4 <= size) {
+                header.clear();
+                log.read(header, offset);
+                int length = header.getInt(0);
+                if (length <= 0 || offset + 4 + length > size) {
+                    // torn tail of an interrupted append
+                    break;
+                }
+                ObjectInfoChange change = readRecord(offset, length);
+                if (change.sequence() % LOG_INDEX_INTERVAL == 1) {
+                    logIndex.put(change.sequence(), offset);
+                }
+                ring[index(change.sequence())] = change;
+                lastSequence = change.sequence();
+                if (change.type() == Type.SAVE) {
+                    lastSave = change.objectInfo();
+                }
+                offset += 4 + length;
+            }
+            log.truncate(offset);
+            logSize = offset;
+            durableSequence = lastSequence;
+        }
+
+        private ObjectInfoChange append(Type type, ObjectInfo objectInfo) {
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("change feed is closed");
+                }
+                ObjectInfoChange change = new ObjectInfoChange(bucket, lastSequence + 1, type, new ObjectInfo(objectInfo));
+                if (log != null) {
+                    appendToLog(change);
+                }
+                ring[index(change.sequence())] = change;
+                lastSequence = change.sequence();
+                if (type == Type.SAVE) {
+                    lastSave = change.objectInfo();
+                }
+                if (log == null) {
+                    durableSequence = change.sequence();
+                    appended.signalAll();
+                }
+                return change;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void appendToLog(ObjectInfoChange change) {
+            try {
+                int length = change.encodedLength();
+                if (recordBuffer.capacity() < 4 + length) {
+                    recordBuffer = ByteBuffer.allocate(Math.max(4 + length, recordBuffer.capacity() * 2));
+                }
+                ByteBuffer record = recordBuffer.clear();
+                record.putInt(length);
+                change.writeTo(record);
+                record.flip();
+                long offset = logSize;
+                while (record.hasRemaining()) {
+                    log.write(record, offset + record.position());
+                }
+                if (change.sequence() % LOG_INDEX_INTERVAL == 1) {
+                    logIndex.put(change.sequence(), offset);
+                }
+                logSize = offset + record.limit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Forces the log unless a force that started after {@code sequence} was appended has already covered it.
+         */
+        private void sync(long sequence) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            forceLock.lock();
+            try {
+                if (durableSequence >= sequence) {
+                    return;
+                }
+                // every change up to it has been written, the sequence advances after the write
+                long forced = lastSequence;
+                log.force(false);
+                lock.lock();
+                try {
+                    durableSequence = forced;
+                    appended.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (ClosedChannelException e) {
+                // closed meanwhile, closing forced the log
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                forceLock.unlock();
+            }
+        }
+
+        private ObjectInfoChange lastChange() {
+            long sequence = lastSequence;
+            if (sequence == 0) {
+                return null;
+            }
+            ObjectInfoChange change = ring[index(sequence)];
+            return change != null && change.sequence() == sequence ? change : null;
+        }
+
+        private long lastSequence() {
+            return lastSequence;
+        }
+
+        /**
+         * Blocks until {@code fromSequence} has been published, then returns up to {@link #MAX_DELIVERY_BATCH}
+         * consecutive changes starting at it. Falls back to the durable log when the ring no longer holds them.
+         */
+        private List<ObjectInfoChange> await(long fromSequence, Subscription subscription) throws InterruptedException {
+            long logLimit;
+            long upTo;
+            lock.lock();
+            try {
+                while (durableSequence < fromSequence) {
+                    if (closed || subscription.closed) {
+                        return List.of();
+                    }
+                    appended.await();
+                }
+                upTo = Math.min(durableSequence, fromSequence + MAX_DELIVERY_BATCH - 1);
+                if (lastSequence - fromSequence < ringCapacity) {
+                    List<ObjectInfoChange> changes = new ArrayList<>((int) (upTo - fromSequence + 1));
+                    for (long sequence = fromSequence; sequence <= upTo; sequence++) {
+                        changes.add(ring[index(sequence)]);
+                    }
+                    return changes;
+                }
+                if (log == null) {
+                    throw new IllegalStateException("sequence " + fromSequence + " of bucket " + bucket
+                            + " is no longer retained and no change log is configured");
+                }
+                logLimit = logSize;
+            } finally {
+                lock.unlock();
+            }
+            return readLog(fromSequence, upTo, logLimit);
+        }
+
+        private List<ObjectInfoChange> readLog(long fromSequence, long upTo, long logLimit) {
+            List<ObjectInfoChange> changes = new ArrayList<>();
+            try {
+                Entry<Long, Long> indexed = logIndex.floorEntry(fromSequence);
+                long offset = indexed == null ? 0 : indexed.getValue();
+                ByteBuffer header = ByteBuffer.allocate(4);
+                while (offset < logLimit && changes.size() < MAX_DELIVERY_BATCH) {
+                    header.clear();
+                    log.read(header, offset);
+                    int length = header.getInt(0);
+                    ObjectInfoChange change = readRecord(offset, length);
+                    if (change.sequence() > upTo) {
+                        break;
+                    }
+                    if (change.sequence() >= fromSequence) {
+                        changes.add(change);
+                    }
+                    offset += 4 + length;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return changes;
+        }
+
+        private ObjectInfoChange readRecord(long offset, int length) throws IOException {
+            ByteBuffer body = ByteBuffer.allocate(length);
+            while (body.hasRemaining()) {
+                if (log.read(body, offset + 4 + body.position()) < 0) {
+                    throw new IOException("unexpected end of change log " + bucket);
+                }
+            }
+            return ObjectInfoChange.readFrom(bucket, body.flip());
+        }
+
+        private void wakeUp() {
+            lock.lock();
+            try {
+                appended.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void close() {
+            lock.lock();
+            try {
+                closed = true;
+                appended.signalAll();
+                if (log != null) {
+                    log.force(true);
+                    log.close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int index(long sequence) {
+            return (int) (sequence & (ringCapacity - 1));
+        }
+    }
+
+    public static class Subscription implements Closeable {
+
+        private final BucketFeed feed;
+        private final Consumer<ObjectInfoChange> listener;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile long nextSequence;
+        private volatile boolean closed;
+        private volatile Throwable failure;
+
+        private Subscription(BucketFeed feed, long fromSequence, Consumer<ObjectInfoChange> listener) {
+            this.feed = feed;
+            this.nextSequence = fromSequence;
+            this.listener = listener;
+        }
+
+        private void run() {
+            try {
+                while (!closed) {
+                    List<ObjectInfoChange> changes = feed.await(nextSequence, this);
+                    if (changes.isEmpty()) {
+                        break;
+                    }
+                    for (ObjectInfoChange change : changes) {
+                        if (closed) {
+                            return;
+                        }
+                        listener.accept(copy(change));
+                        nextSequence = change.sequence() + 1;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                closed = true;
+                terminated.countDown();
+            }
+        }
+
+        /**
+         * @return the sequence of the next change this subscription will deliver
+         */
+        public long getNextSequence() {
+            return nextSequence;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Waits until the subscription has delivered its last change, because it was closed or failed.
+         *
+         * @return whether it terminated within {@code timeout}
+         */
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return terminated.await(timeout, unit);
+        }
+
+        /**
+         * @return the error that terminated this subscription, e.g. a listener exception or an overrun of the ring
+         * buffer when no change log is configured
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            feed.wakeUp();
+        }
+    }
+}
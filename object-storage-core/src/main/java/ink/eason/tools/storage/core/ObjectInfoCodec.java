@@ -0,0 +1,275 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.RawBsonDocument;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canonical binary form of an {@link ObjectInfo}:
+ * <pre>
+ * flags          byte, one bit per nullable field
+ * id             unsigned varint
+ * createTime     zig-zag varint
+ * size           unsigned varint
+ * bucket, key, path, md5, metadata
+ *                unsigned varint byte length + UTF-8 bytes
+ * bsonMetadata   the raw BSON document, which is length-prefixed itself
+ * </pre>
+ * Encoding writes straight into a caller-supplied buffer; the only allocation is the read-only view of the BSON
+ * metadata that {@link RawBsonDocument#getByteBuffer()} hands out. Decoding fills a reusable instance
+ * and keeps the strings and BSON document it already holds when the encoded bytes are equal, so decoding a stream of
+ * similar object infos into one instance creates garbage only for the fields that change.
+ */
+public final class ObjectInfoCodec {
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_BUCKET = 1 << 1;
+    private static final int HAS_KEY = 1 << 2;
+    private static final int HAS_PATH = 1 << 3;
+    private static final int HAS_MD5 = 1 << 4;
+    private static final int HAS_METADATA = 1 << 5;
+    private static final int HAS_BSON_METADATA = 1 << 6;
+
+    private ObjectInfoCodec() {
+    }
+
+    public static int encodedLength(ObjectInfo objectInfo) {
+        return encodedLength(objectInfo, objectInfo.getBsonMetadata() == null ? null : objectInfo.getBsonMetadata().getByteBuffer().asNIO());
+    }
+
+    private static int encodedLength(ObjectInfo objectInfo, ByteBuffer bson) {
+        int length = 1;
+        if (objectInfo.getId() != null) {
+            length += varintLength(objectInfo.getId());
+        }
+        length += varintLength(zigZag(objectInfo.getCreateTime()));
+        length += varintLength(objectInfo.getSize());
+        length += stringLength(objectInfo.getBucket());
+        length += stringLength(objectInfo.getKey());
+        length += stringLength(objectInfo.getPath());
+        length += stringLength(objectInfo.getMd5());
+        length += stringLength(objectInfo.getMetadata());
+        if (bson != null) {
+            length += bson.remaining();
+        }
+        return length;
+    }
+
+    /**
+     * Writes {@code objectInfo} at the position of {@code out} and advances it.
+     *
+     * @throws BufferOverflowException if fewer than {@link #encodedLength(ObjectInfo)} bytes remain
+     */
+    public static void encode(ObjectInfo objectInfo, ByteBuffer out) {
+        ByteBuffer bson = objectInfo.getBsonMetadata() == null ? null : objectInfo.getBsonMetadata().getByteBuffer().asNIO();
+        if (out.remaining() < encodedLength(objectInfo, bson)) {
+            throw new BufferOverflowException();
+        }
+        int flags = (objectInfo.getId() != null ? HAS_ID : 0)
+                | (objectInfo.getBucket() != null ? HAS_BUCKET : 0)
+                | (objectInfo.getKey() != null ? HAS_KEY : 0)
+                | (objectInfo.getPath() != null ? HAS_PATH : 0)
+                | (objectInfo.getMd5() != null ? HAS_MD5 : 0)
+                | (objectInfo.getMetadata() != null ? HAS_METADATA : 0)
+                | (objectInfo.getBsonMetadata() != null ? HAS_BSON_METADATA : 0);
+        out.put((byte) flags);
+        if (objectInfo.getId() != null) {
+            putVarint(out, objectInfo.getId());
+        }
+        putVarint(out, zigZag(objectInfo.getCreateTime()));
+        putVarint(out, objectInfo.getSize());
+        putString(out, objectInfo.getBucket());
+        putString(out, objectInfo.getKey());
+        putString(out, objectInfo.getPath());
+        putString(out, objectInfo.getMd5());
+        putString(out, objectInfo.getMetadata());
+        if (bson != null) {
+            out.put(bson);
+        }
+    }
+
+    /**
+     * Reads an object info at the position of {@code in} and advances it.
+     *
+     * @param reuse instance to fill, or {@code null} to create one
+     */
+    public static ObjectInfo decode(ByteBuffer in, ObjectInfo reuse) {
+        ObjectInfo objectInfo = reuse == null ? new ObjectInfo() : reuse;
+        int flags = in.get();
+        objectInfo.setId((flags & HAS_ID) != 0 ? reuseId(objectInfo.getId(), getVarint(in)) : null);
+        objectInfo.setCreateTime(unZigZag(getVarint(in)));
+        objectInfo.setSize(getVarint(in));
+        objectInfo.setBucket((flags & HAS_BUCKET) != 0 ? getString(in, objectInfo.getBucket()) : null);
+        objectInfo.setKey((flags & HAS_KEY) != 0 ? getString(in, objectInfo.getKey()) : null);
+        objectInfo.setPath((flags & HAS_PATH) != 0 ? getString(in, objectInfo.getPath()) : null);
+        objectInfo.setMd5((flags & HAS_MD5) != 0 ? getString(in, objectInfo.getMd5()) : null);
+        objectInfo.setMetadata((flags & HAS_METADATA) != 0 ? getString(in, objectInfo.getMetadata()) : null);
+        objectInfo.setBsonMetadata((flags & HAS_BSON_METADATA) != 0 ? getBson(in, objectInfo.getBsonMetadata()) : null);
+        return objectInfo;
+    }
+
+    private static Long reuseId(Long current, long id) {
+        return current != null && current == id ? current : Long.valueOf(id);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int varintLength(long value) {
+        // 7 bits per byte, at least one byte
+        return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7);
+    }
+
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    private static int stringLength(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = utf8Length(value);
+        return varintLength(length) + length;
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                // unpaired surrogates are written as '?' like String.getBytes does
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        if (value == null) {
+            return;
+        }
+        putVarint(out, utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | (codePoint >> 18)));
+                out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer in, String current) {
+        int length = (int) getVarint(in);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        int position = in.position();
+        in.position(position + length);
+        if (current != null && utf8Equals(current, in, position, length)) {
+            return current;
+        }
+        if (in.hasArray()) {
+            return new String(in.array(), in.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        in.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares the UTF-8 form of {@code value} with {@code length} bytes of {@code in} without encoding it.
+     */
+    private static boolean utf8Equals(String value, ByteBuffer in, int position, int length) {
+        if (value.length() > length) {
+            return false;
+        }
+        int end = position + length;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // rare enough to not bother, fall back to an exact comparison of the rest
+                return utf8Length(value) == length && value.substring(i).equals(
+                        StandardCharsets.UTF_8.decode(in.slice(position, end - position)).toString());
+            }
+            if (position >= end || in.get(position++) != c) {
+                return false;
+            }
+        }
+        return position == end;
+    }
+
+    private static boolean bytesEqual(ByteBuffer in, int position, int length, ByteBuffer other) {
+        if (other.remaining() != length) {
+            return false;
+        }
+        int offset = other.position();
+        for (int i = 0; i < length; i++) {
+            if (in.get(position + i) != other.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static RawBsonDocument getBson(ByteBuffer in, RawBsonDocument current) {
+        int position = in.position();
+        // BSON lengths are little endian whatever the order of the buffer
+        int length = (in.get(position) & 0xFF) | (in.get(position + 1) & 0xFF) << 8
+                | (in.get(position + 2) & 0xFF) << 16 | (in.get(position + 3) & 0xFF) << 24;
+        if (length < 5 || length > in.remaining()) {
+            throw new IllegalArgumentException("malformed bson metadata of length " + length);
+        }
+        in.position(position + length);
+        if (current != null && bytesEqual(in, position, length, current.getByteBuffer().asNIO())) {
+            return current;
+        }
+        byte[] bytes = new byte[length];
+        in.get(position, bytes);
+        return new RawBsonDocument(bytes);
+    }
+}
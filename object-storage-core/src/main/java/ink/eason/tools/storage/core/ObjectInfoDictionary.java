@@ -0,0 +1,217 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.RawBsonDocument;
+
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact heap form of {@link ObjectInfo} for repositories holding every object info in memory.
+ * <p>
+ * The bucket and the {@code bucket/yyyyMMdd} prefix of the path are shared by many objects, so they are stored once in
+ * a dictionary and referenced by an int id. The UUID file name and the hex md5 are kept as longs, and equal metadata
+ * strings are shared between objects with a reference count. Paths and md5s that do not have the expected shape are
+ * kept as they are. {@link #expand(Compact)} rebuilds the full strings, so it allocates on every access.
+ */
+final class ObjectInfoDictionary {
+
+    private static final HexFormat HEX = HexFormat.of();
+    private static final int UUID_LENGTH = 36;
+    private static final int MD5_LENGTH = 32;
+
+    private final Map<Prefix, Integer> prefixIds = new ConcurrentHashMap<>();
+    // prefixes are few (buckets times days) and never released, so ids stay valid for the lifetime of the dictionary
+    private volatile Prefix[] prefixes = new Prefix[16];
+    private int prefixCount;
+    private final Map<String, SharedString> strings = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the compact form of {@code objectInfo}, which holds a reference on its metadata string until it is
+     * passed to {@link #release(Compact)}.
+     */
+    Compact compact(ObjectInfo objectInfo) {
+        String path = objectInfo.getPath();
+        String pathPrefix = null;
+        UUID fileName = null;
+        int separator = path == null ? -1 : path.lastIndexOf('/');
+        if (separator >= 0 && path.length() - separator - 1 == UUID_LENGTH) {
+            fileName = parseUuid(path.substring(separator + 1));
+            if (fileName != null) {
+                pathPrefix = path.substring(0, separator);
+                path = null;
+            }
+        }
+        String md5 = objectInfo.getMd5();
+        boolean packedMd5 = isLowerHex(md5, MD5_LENGTH);
+        return new Compact(
+                objectInfo.getId(),
+                prefixId(objectInfo.getBucket(), pathPrefix),
+                fileName == null ? 0 : fileName.getMostSignificantBits(),
+                fileName == null ? 0 : fileName.getLeastSignificantBits(),
+                path,
+                objectInfo.getKey(),
+                objectInfo.getCreateTime(),
+                objectInfo.getSize(),
+                packedMd5 ? HEX.fromHexDigitsToLong(md5, 0, MD5_LENGTH / 2) : 0,
+                packedMd5 ? HEX.fromHexDigitsToLong(md5, MD5_LENGTH / 2, MD5_LENGTH) : 0,
+                packedMd5 ? null : md5,
+                packedMd5,
+                share(objectInfo.getMetadata()),
+                objectInfo.getBsonMetadata());
+    }
+
+    ObjectInfo expand(Compact compact) {
+        Prefix prefix = prefixes[compact.prefixId];
+        ObjectInfo objectInfo = new ObjectInfo();
+        objectInfo.setId(compact.id);
+        objectInfo.setBucket(prefix.bucket());
+        objectInfo.setKey(compact.key);
+        objectInfo.setPath(prefix.pathPrefix() != null
+                ? prefix.pathPrefix() + '/' + new UUID(compact.fileNameHigh, compact.fileNameLow)
+                : compact.path);
+        objectInfo.setCreateTime(compact.createTime);
+        objectInfo.setSize(compact.size);
+        objectInfo.setMd5(compact.packedMd5
+                ? HEX.toHexDigits(compact.md5High) + HEX.toHexDigits(compact.md5Low)
+                : compact.md5);
+        objectInfo.setMetadata(compact.metadata);
+        objectInfo.setBsonMetadata(compact.bsonMetadata);
+        return objectInfo;
+    }
+
+    void release(Compact compact) {
+        String metadata = compact.metadata;
+        if (metadata != null) {
+            strings.computeIfPresent(metadata, (k, shared) -> --shared.references == 0 ? null : shared);
+        }
+    }
+
+    int sharedStringCount() {
+        return strings.size();
+    }
+
+    private String share(String value) {
+        if (value == null) {
+            return null;
+        }
+        return strings.compute(value, (k, shared) -> {
+            if (shared == null) {
+                shared = new SharedString(k);
+            }
+            shared.references++;
+            return shared;
+        }).value;
+    }
+
+    private int prefixId(String bucket, String pathPrefix) {
+        Prefix prefix = new Prefix(bucket, pathPrefix);
+        Integer id = prefixIds.get(prefix);
+        return id != null ? id : prefixIds.computeIfAbsent(prefix, this::register);
+    }
+
+    private synchronized int register(Prefix prefix) {
+        Prefix[] current = prefixes;
+        if (prefixCount == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[prefixCount] = prefix;
+        // publish the slot before the id can be handed out
+        prefixes = current;
+        return prefixCount++;
+    }
+
+    private static UUID parseUuid(String value) {
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = value.charAt(i);
+            boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dash ? c != '-' : !isLowerHexDigit(c)) {
+                return null;
+            }
+        }
+        return UUID.fromString(value);
+    }
+
+    private static boolean isLowerHex(String value, int length) {
+        if (value == null || value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!isLowerHexDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLowerHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+    }
+
+    private static record Prefix(String bucket, String pathPrefix) {}
+
+    private static final class SharedString {
+
+        private final String value;
+        private int references;
+
+        private SharedString(String value) {
+            this.value = value;
+        }
+    }
+
+    static final class Compact {
+
+        private final long id;
+        private final int prefixId;
+        private final long fileNameHigh;
+        private final long fileNameLow;
+        private final String path;
+        private final String key;
+        private final long createTime;
+        private final long size;
+        private final long md5High;
+        private final long md5Low;
+        private final String md5;
+        private final boolean packedMd5;
+        private final String metadata;
+        private final RawBsonDocument bsonMetadata;
+
+        private Compact(long id, int prefixId, long fileNameHigh, long fileNameLow, String path, String key,
+                        long createTime, long size, long md5High, long md5Low, String md5, boolean packedMd5,
+                        String metadata, RawBsonDocument bsonMetadata) {
+            this.id = id;
+            this.prefixId = prefixId;
+            this.fileNameHigh = fileNameHigh;
+            this.fileNameLow = fileNameLow;
+            this.path = path;
+            this.key = key;
+            this.createTime = createTime;
+            this.size = size;
+            this.md5High = md5High;
+            this.md5Low = md5Low;
+            this.md5 = md5;
+            this.packedMd5 = packedMd5;
+            this.metadata = metadata;
+            this.bsonMetadata = bsonMetadata;
+        }
+
+        long id() {
+            return id;
+        }
+
+        String key() {
+            return key;
+        }
+
+        long createTime() {
+            return createTime;
+        }
+
+        RawBsonDocument bsonMetadata() {
+            return bsonMetadata;
+        }
+    }
+}
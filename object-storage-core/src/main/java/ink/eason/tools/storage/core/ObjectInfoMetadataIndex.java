@@ -0,0 +1,274 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.bson.RawBsonProjector.BsonDocumentFilter;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Optional secondary indexes over fields of {@link ObjectInfo#getBsonMetadata()}, one ordered map per bucket and field.
+ * <p>
+ * An index only narrows down candidate keys for equality ({@code $eq}, {@code $in}, implicit) and range
+ * ({@code $gt}, {@code $gte}, {@code $lt}, {@code $lte}) predicates; candidates are always re-checked against the full
+ * filter, so the results are identical to a scan.
+ */
+public class ObjectInfoMetadataIndex {
+
+    private final Map<String, Map<String, FieldIndex>> buckets = new ConcurrentHashMap<>();
+
+    public void createIndex(String bucket, String field, Stream<ObjectInfo> existing) {
+        String path = normalizePath(field);
+        FieldIndex index = new FieldIndex(path);
+        if (buckets.computeIfAbsent(bucket, k -> new ConcurrentHashMap<>()).putIfAbsent(path, index) != null) {
+            return;
+        }
+        // the index is registered before the backfill so that concurrent saves are not missed
+        existing.forEach(index::add);
+    }
+
+    public void dropIndex(String bucket, String field) {
+        Map<String, FieldIndex> indexes = buckets.get(bucket);
+        if (indexes != null) {
+            indexes.remove(normalizePath(field));
+        }
+    }
+
+    public void add(ObjectInfo objectInfo) {
+        Map<String, FieldIndex> indexes = buckets.get(objectInfo.getBucket());
+        if (indexes == null || objectInfo.getBsonMetadata() == null) {
+            return;
+        }
+        for (FieldIndex index : indexes.values()) {
+            index.add(objectInfo);
+        }
+    }
+
+    public void remove(ObjectInfo objectInfo) {
+        Map<String, FieldIndex> indexes = buckets.get(objectInfo.getBucket());
+        if (indexes == null || objectInfo.getBsonMetadata() == null) {
+            return;
+        }
+        for (FieldIndex index : indexes.values()) {
+            index.remove(objectInfo);
+        }
+    }
+
+    /**
+     * @return a superset of the keys matching {@code filter}, or {@code null} when no index applies and the bucket
+     * has to be scanned
+     */
+    public Set<String> candidates(String bucket, BsonDocument filter) {
+        Map<String, FieldIndex> indexes = buckets.get(bucket);
+        if (indexes == null || indexes.isEmpty()) {
+            return null;
+        }
+        return candidates(indexes, filter);
+    }
+
+    private static Set<String> candidates(Map<String, FieldIndex> indexes, BsonDocument filter) {
+        Set<String> best = null;
+        for (Map.Entry<String, BsonValue> entry : filter.entrySet()) {
+            Set<String> keys = null;
+            if (entry.getKey().equals("$and")) {
+                for (BsonValue condition : entry.getValue().asArray()) {
+                    keys = smaller(keys, candidates(indexes, condition.asDocument()));
+                }
+            } else if (!entry.getKey().startsWith("$")) {
+                FieldIndex index = indexes.get(normalizePath(entry.getKey()));
+                if (index != null) {
+                    keys = index.candidates(entry.getValue());
+                }
+            }
+            best = smaller(best, keys);
+        }
+        return best;
+    }
+
+    private static Set<String> smaller(Set<String> a, Set<String> b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.size() <= b.size() ? a : b;
+    }
+
+    static String normalizePath(String path) {
+        return path.replaceAll("\\[(\\d+)]", ".$1");
+    }
+
+    /**
+     * Resolves a normalized dotted path, where numeric segments address array elements, against a document.
+     */
+    static BsonValue valueAt(BsonDocument document, String path) {
+        BsonValue current = document;
+        for (String segment : path.split("\\.")) {
+            if (current instanceof BsonDocument doc) {
+                current = doc.get(segment);
+            } else if (current instanceof BsonArray array && !segment.isEmpty() && segment.chars().allMatch(Character::isDigit)) {
+                int index = Integer.parseInt(segment);
+                current = index < array.size() ? array.get(index) : null;
+            } else {
+                return null;
+            }
+            if (current == null) {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    private static final class FieldIndex {
+
+        private final String path;
+        private final NavigableMap<IndexKey, Set<String>> entries = new ConcurrentSkipListMap<>();
+
+        private FieldIndex(String path) {
+            this.path = path;
+        }
+
+        private void add(ObjectInfo objectInfo) {
+            IndexKey indexKey = indexKey(objectInfo.getBsonMetadata());
+            if (indexKey != null) {
+                entries.computeIfAbsent(indexKey, k -> ConcurrentHashMap.newKeySet()).add(objectInfo.getKey());
+            }
+        }
+
+        private void remove(ObjectInfo objectInfo) {
+            IndexKey indexKey = indexKey(objectInfo.getBsonMetadata());
+            if (indexKey == null) {
+                return;
+            }
+            Set<String> keys = entries.get(indexKey);
+            if (keys != null) {
+                keys.remove(objectInfo.getKey());
+            }
+        }
+
+        private IndexKey indexKey(RawBsonDocument metadata) {
+            if (metadata == null) {
+                return null;
+            }
+            BsonValue value = valueAt(metadata, path);
+            return value == null ? null : IndexKey.of(value);
+        }
+
+        private Set<String> candidates(BsonValue condition) {
+            if (!condition.isDocument()) {
+                return lookup(condition);
+            }
+            BsonDocument operators = condition.asDocument();
+            Set<String> best = null;
+            for (Map.Entry<String, BsonValue> entry : operators.entrySet()) {
+                BsonValue operand = entry.getValue();
+                Set<String> keys = switch (entry.getKey()) {
+                    case "$eq" -> lookup(operand);
+                    case "$in" -> {
+                        Set<String> union = new HashSet<>();
+                        for (BsonValue value : operand.asArray()) {
+                            union.addAll(lookup(value));
+                        }
+                        yield union;
+                    }
+                    // BsonDocumentFilter only orders some types, other values of the operand's type are either equal
+                    // to it or "less than", which no order of the index can answer
+                    case "$gt", "$gte", "$lt", "$lte" -> IndexKey.isOrdered(operand) ? range(entry.getKey(), operand) : null;
+                    default -> null;
+                };
+                best = smaller(best, keys);
+            }
+            return best;
+        }
+
+        private Set<String> range(String operator, BsonValue operand) {
+            return switch (operator) {
+                case "$gt" -> collect(entries.subMap(IndexKey.of(operand), false, IndexKey.rankEnd(operand), false));
+                case "$gte" -> collect(entries.subMap(IndexKey.of(operand), true, IndexKey.rankEnd(operand), false));
+                // values of another type compare as "less than" in BsonDocumentFilter, so they are candidates too
+                case "$lt" -> collect(entries.headMap(IndexKey.of(operand), false), entries.tailMap(IndexKey.rankEnd(operand), true));
+                case "$lte" -> collect(entries.headMap(IndexKey.of(operand), true), entries.tailMap(IndexKey.rankEnd(operand), true));
+                default -> throw new IllegalArgumentException("not a range operator: " + operator);
+            };
+        }
+
+        private Set<String> lookup(BsonValue value) {
+            Set<String> keys = entries.get(IndexKey.of(value));
+            return keys == null ? Set.of() : keys;
+        }
+
+        @SafeVarargs
+        private static Set<String> collect(Map<IndexKey, Set<String>>... ranges) {
+            Set<String> keys = new HashSet<>();
+            for (Map<IndexKey, Set<String>> range : ranges) {
+                for (Set<String> values : range.values()) {
+                    keys.addAll(values);
+                }
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Index entry ordered by type rank (all numeric types share one rank) and then by value. A key with a
+     * {@code null} value sorts before every value of its rank and is only used as a range bound.
+     */
+    private static record IndexKey(int rank, BsonValue value) implements Comparable<IndexKey> {
+
+        private static IndexKey of(BsonValue value) {
+            return new IndexKey(rank(value), value);
+        }
+
+        private static IndexKey rankEnd(BsonValue value) {
+            return new IndexKey(rank(value) + 1, null);
+        }
+
+        private static boolean isOrdered(BsonValue operand) {
+            return switch (operand.getBsonType()) {
+                case INT32, INT64, DOUBLE, STRING, DATE_TIME, BOOLEAN, OBJECT_ID -> true;
+                default -> false;
+            };
+        }
+
+        private static int rank(BsonValue value) {
+            if (value.isNumber() || value.isDecimal128()) {
+                return 0;
+            }
+            return value.getBsonType().getValue() + 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IndexKey other && compareTo(other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return rank;
+        }
+
+        @Override
+        public int compareTo(IndexKey o) {
+            int result = Integer.compare(rank, o.rank);
+            if (result != 0) return result;
+            if (value == null || o.value == null) {
+                return value == null ? (o.value == null ? 0 : -1) : 1;
+            }
+            return switch (value.getBsonType()) {
+                case INT32, INT64, DOUBLE, DECIMAL128 -> BsonDocumentFilter.compareNumbers(value, o.value);
+                case STRING -> value.asString().getValue().compareTo(o.value.asString().getValue());
+                case DATE_TIME -> Long.compare(value.asDateTime().getValue(), o.value.asDateTime().getValue());
+                case BOOLEAN -> Boolean.compare(value.asBoolean().getValue(), o.value.asBoolean().getValue());
+                case OBJECT_ID -> value.asObjectId().getValue().compareTo(o.value.asObjectId().getValue());
+                case TIMESTAMP -> value.asTimestamp().compareTo(o.value.asTimestamp());
+                // other types are only indexed for equality
+                default -> value.equals(o.value) ? 0 : value.toString().compareTo(o.value.toString());
+            };
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.bson.RawBsonProjector;
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionMode;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+
+import java.util.Set;
+
+/**
+ * Filters and projects {@link ObjectInfo#getBsonMetadata()} with {@link RawBsonProjector} semantics. Objects without
+ * BSON metadata are evaluated as an empty document.
+ */
+public class ObjectInfoMetadataQuery {
+
+    private static final RawBsonDocument EMPTY_DOCUMENT = RawBsonDocument.parse("{}");
+
+    private final RawBsonProjector projector;
+    private final boolean projecting;
+
+    public ObjectInfoMetadataQuery(BsonDocument filter, Set<String> projection) {
+        boolean hasFilter = filter != null && !filter.isEmpty();
+        this.projecting = projection != null && !projection.isEmpty();
+        if (projecting) {
+            this.projector = new RawBsonProjector(projection, ProjectionMode.INCLUSIVE, false, hasFilter ? filter : null);
+        } else if (hasFilter) {
+            // the projection result is thrown away, the projector is only used to evaluate the filter
+            this.projector = new RawBsonProjector(null, ProjectionMode.INCLUSIVE, false, filter);
+        } else {
+            this.projector = null;
+        }
+    }
+
+    /**
+     * @return {@code objectInfo} itself when nothing is projected, a copy carrying the projected metadata otherwise,
+     * or {@code null} when the filter does not match
+     */
+    public ObjectInfo apply(ObjectInfo objectInfo) {
+        if (projector == null) {
+            return objectInfo;
+        }
+        RawBsonDocument metadata = objectInfo.getBsonMetadata() != null ? objectInfo.getBsonMetadata() : EMPTY_DOCUMENT;
+        RawBsonDocument projected = projector.project(metadata);
+        if (projected == null) {
+            return null;
+        }
+        if (!projecting) {
+            return objectInfo;
+        }
+        ObjectInfo result = new ObjectInfo(objectInfo);
+        result.setBsonMetadata(projected);
+        return result;
+    }
+}
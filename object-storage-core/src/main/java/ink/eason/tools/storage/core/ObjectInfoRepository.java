@@ -1,14 +1,38 @@
 package ink.eason.tools.storage.core;
 
-import java.nio.file.Path;
-
+/**
+ * Point operations on object infos. Optional capabilities are separate interfaces that implementations opt into:
+ * {@link QueryableObjectInfoRepository} for bucket-wide queries, {@link MeasurableObjectInfoRepository} for bucket
+ * statistics, {@link SnapshottableObjectInfoRepository} for snapshots and {@link ObservableObjectInfoRepository} for
+ * change feeds.
+ */
 public interface ObjectInfoRepository {
 
     public ObjectInfo getObjectInfo(String bucket, String key);
 
-    public void saveObjectInfo(ObjectInfo objectInfo);
+    /**
+     * @return the version replaced by this save, or {@code null}
+     */
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo);
+
+    /**
+     * @return the version removed by this delete, or {@code null}
+     */
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo);
+
+    /**
+     * Saves {@code objectInfo} only if {@code condition} holds for the current version of the key, atomically.
+     *
+     * @throws PreconditionFailedException if it does not
+     */
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo, WriteCondition condition);
 
-    public void deleteObjectInfo(ObjectInfo objectInfo);
+    /**
+     * Deletes the key only if {@code condition} holds for its current version, atomically.
+     *
+     * @throws PreconditionFailedException if it does not
+     */
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo, WriteCondition condition);
 
     public ObjectInfo lastSavedObjectInfo();
 
@@ -0,0 +1,229 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Snapshot format of a {@link SnapshottableObjectInfoRepository}: a header document followed by one BSON document per object
+ * info. BSON documents are length-prefixed, so the stream needs no framing of its own.
+ */
+final class ObjectInfoSnapshot {
+
+    static final String FORMAT = "object-info-snapshot";
+    static final int VERSION = 1;
+
+    private static final int IMPORT_BATCH_SIZE = 1024;
+
+    private ObjectInfoSnapshot() {
+    }
+
+    /**
+     * Writes {@code objectInfos} and closes the stream.
+     */
+    static long export(Stream<ObjectInfo> objectInfos, OutputStream out) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(1024);
+        long count = 0;
+        try (objectInfos) {
+            writeHeader(buffer);
+            buffer.pipe(out);
+            for (ObjectInfo objectInfo : (Iterable<ObjectInfo>) objectInfos::iterator) {
+                buffer.truncateToPosition(0);
+                write(buffer, objectInfo);
+                buffer.pipe(out);
+                count++;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Reads the documents on the calling thread and decodes and restores them in batches on one thread per core, with
+     * a bounded number of batches in flight.
+     */
+    static long importInto(Consumer<ObjectInfo> restore, InputStream in) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Semaphore inFlight = new Semaphore(threads * 2);
+        AtomicLong count = new AtomicLong();
+        List<Future<?>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("snapshot-import-", 0).daemon().factory())) {
+            byte[] header = readDocument(in);
+            if (header == null) {
+                throw new IllegalArgumentException("empty snapshot");
+            }
+            checkHeader(new RawBsonDocument(header));
+            List<byte[]> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            for (byte[] document; (document = readDocument(in)) != null; ) {
+                batch.add(document);
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    futures.add(submit(executor, inFlight, restore, batch, count));
+                    batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+                }
+                if (futures.size() >= threads * 16) {
+                    // don't keep the futures of finished batches around
+                    awaitAll(futures);
+                }
+            }
+            if (!batch.isEmpty()) {
+                futures.add(submit(executor, inFlight, restore, batch, count));
+            }
+            awaitAll(futures);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("snapshot import interrupted", e);
+        }
+        return count.get();
+    }
+
+    private static Future<?> submit(ExecutorService executor, Semaphore inFlight, Consumer<ObjectInfo> restore,
+                                    List<byte[]> batch, AtomicLong count) throws InterruptedException {
+        inFlight.acquire();
+        return executor.submit(() -> {
+            try {
+                for (byte[] document : batch) {
+                    restore.accept(read(document));
+                }
+                count.addAndGet(batch.size());
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private static void awaitAll(List<Future<?>> futures) throws InterruptedException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(false));
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : new IllegalStateException(e.getCause());
+        }
+        futures.clear();
+    }
+
+    private static void writeHeader(BasicOutputBuffer buffer) {
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            writer.writeString("format", FORMAT);
+            writer.writeInt32("version", VERSION);
+            writer.writeEndDocument();
+        }
+    }
+
+    private static void checkHeader(RawBsonDocument header) {
+        if (!header.containsKey("format") || !FORMAT.equals(header.getString("format").getValue())) {
+            throw new IllegalArgumentException("not an object info snapshot: " + header.toJson());
+        }
+        int version = header.getInt32("version").getValue();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported snapshot version " + version);
+        }
+    }
+
+    static void write(BasicOutputBuffer buffer, ObjectInfo objectInfo) {
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            if (objectInfo.getId() != null) {
+                writer.writeInt64("id", objectInfo.getId());
+            }
+            writeString(writer, "bucket", objectInfo.getBucket());
+            writeString(writer, "key", objectInfo.getKey());
+            writeString(writer, "path", objectInfo.getPath());
+            writer.writeInt64("createTime", objectInfo.getCreateTime());
+            writer.writeInt64("size", objectInfo.getSize());
+            writeString(writer, "md5", objectInfo.getMd5());
+            writeString(writer, "metadata", objectInfo.getMetadata());
+            if (objectInfo.getBsonMetadata() != null) {
+                writer.writeName("bsonMetadata");
+                writer.pipe(new BsonBinaryReader(objectInfo.getBsonMetadata().getByteBuffer().asNIO()));
+            }
+            writer.writeEndDocument();
+        }
+    }
+
+    static ObjectInfo read(byte[] document) {
+        ObjectInfo objectInfo = new ObjectInfo();
+        ByteBuffer buffer = ByteBuffer.wrap(document).order(ByteOrder.LITTLE_ENDIAN);
+        try (BsonBinaryReader reader = new BsonBinaryReader(buffer)) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String name = reader.readName();
+                switch (name) {
+                    case "id" -> objectInfo.setId(reader.readInt64());
+                    case "bucket" -> objectInfo.setBucket(reader.readString());
+                    case "key" -> objectInfo.setKey(reader.readString());
+                    case "path" -> objectInfo.setPath(reader.readString());
+                    case "createTime" -> objectInfo.setCreateTime(reader.readInt64());
+                    case "size" -> objectInfo.setSize(reader.readInt64());
+                    case "md5" -> objectInfo.setMd5(reader.readString());
+                    case "metadata" -> objectInfo.setMetadata(reader.readString());
+                    case "bsonMetadata" -> {
+                        // the embedded document is copied as is
+                        int start = reader.getBsonInput().getPosition();
+                        reader.skipValue();
+                        int end = reader.getBsonInput().getPosition();
+                        objectInfo.setBsonMetadata(new RawBsonDocument(document, start, end - start));
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+        }
+        return objectInfo;
+    }
+
+    private static void writeString(BsonBinaryWriter writer, String name, String value) {
+        if (value != null) {
+            writer.writeString(name, value);
+        }
+    }
+
+    /**
+     * @return the next whole document, or {@code null} at the end of the stream
+     */
+    private static byte[] readDocument(InputStream in) throws IOException {
+        byte[] lengthBytes = in.readNBytes(4);
+        if (lengthBytes.length == 0) {
+            return null;
+        }
+        if (lengthBytes.length < 4) {
+            throw new EOFException("truncated snapshot");
+        }
+        int length = ByteBuffer.wrap(lengthBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        if (length < 5) {
+            throw new IOException("invalid document length " + length);
+        }
+        byte[] document = new byte[length];
+        System.arraycopy(lengthBytes, 0, document, 0, 4);
+        if (in.readNBytes(document, 4, length - 4) != length - 4) {
+            throw new EOFException("truncated snapshot");
+        }
+        return document;
+    }
+}
@@ -0,0 +1,94 @@
+package ink.eason.tools.storage.core;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Secondary index of {@link ObjectInfo#getCreateTime()} per bucket.
+ * <p>
+ * Entries are partitioned by UTC day, mirroring the {@code bucket/yyyyMMdd/} layout of the data directory, so a range
+ * query only touches the days it overlaps and each day is an ordered map of its own.
+ *
+ * @param <T> the form in which the repository keeps its object infos
+ */
+public class ObjectInfoTimeIndex<T> {
+
+    private static final long MILLIS_PER_DAY = Duration.ofDays(1).toMillis();
+
+    private final Map<String, NavigableMap<Long, NavigableMap<TimeKey, T>>> buckets = new ConcurrentHashMap<>();
+
+    public void add(String bucket, long createTime, long id, T value) {
+        buckets.computeIfAbsent(bucket, k -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(epochDay(createTime), k -> new ConcurrentSkipListMap<>())
+                .put(new TimeKey(createTime, id), value);
+    }
+
+    public void remove(String bucket, long createTime, long id) {
+        NavigableMap<Long, NavigableMap<TimeKey, T>> days = buckets.get(bucket);
+        if (days == null) {
+            return;
+        }
+        NavigableMap<TimeKey, T> day = days.get(epochDay(createTime));
+        if (day != null) {
+            day.remove(new TimeKey(createTime, id));
+        }
+    }
+
+    /**
+     * Removes the objects of {@code bucket} with {@code fromCreateTime <= createTime < toCreateTime}, draining each day
+     * it overlaps in one pass instead of looking every entry up again.
+     *
+     * @return the removed objects, ordered by create time and then id
+     */
+    public List<T> removeRange(String bucket, long fromCreateTime, long toCreateTime) {
+        NavigableMap<Long, NavigableMap<TimeKey, T>> days = buckets.get(bucket);
+        if (days == null || fromCreateTime >= toCreateTime) {
+            return List.of();
+        }
+        TimeKey from = new TimeKey(fromCreateTime, Long.MIN_VALUE);
+        TimeKey to = new TimeKey(toCreateTime, Long.MIN_VALUE);
+        List<T> removed = new ArrayList<>();
+        for (NavigableMap<TimeKey, T> day : days.subMap(epochDay(fromCreateTime), true, epochDay(toCreateTime - 1), true).values()) {
+            // entries added while the day is drained are either polled too or stay, none is lost
+            NavigableMap<TimeKey, T> range = day.subMap(from, true, to, false);
+            for (Map.Entry<TimeKey, T> entry = range.pollFirstEntry(); entry != null; entry = range.pollFirstEntry()) {
+                removed.add(entry.getValue());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return the objects of {@code bucket} with {@code fromCreateTime <= createTime < toCreateTime}, ordered by
+     * create time and then id
+     */
+    public Stream<T> find(String bucket, long fromCreateTime, long toCreateTime) {
+        NavigableMap<Long, NavigableMap<TimeKey, T>> days = buckets.get(bucket);
+        if (days == null || fromCreateTime >= toCreateTime) {
+            return Stream.empty();
+        }
+        TimeKey from = new TimeKey(fromCreateTime, Long.MIN_VALUE);
+        TimeKey to = new TimeKey(toCreateTime, Long.MIN_VALUE);
+        return days.subMap(epochDay(fromCreateTime), true, epochDay(toCreateTime - 1), true).values().stream()
+                .flatMap(day -> day.subMap(from, true, to, false).values().stream());
+    }
+
+    static long epochDay(long epochMilli) {
+        return Math.floorDiv(epochMilli, MILLIS_PER_DAY);
+    }
+
+    private static record TimeKey(long createTime, long id) implements Comparable<TimeKey> {
+
+        @Override
+        public int compareTo(TimeKey o) {
+            int result = Long.compare(createTime, o.createTime);
+            return result != 0 ? result : Long.compare(id, o.id);
+        }
+    }
+}
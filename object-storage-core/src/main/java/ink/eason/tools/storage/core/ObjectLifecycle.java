@@ -0,0 +1,201 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.utils.FileUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+/**
+ * Applies the {@link LifecycleRule}s of an {@link AbstractObjectStorageImpl}.
+ * <p>
+ * Every object saved into a bucket with a rule gets a timer in a {@link HierarchicalTimerWheel}, which deletes it when
+ * it expires unless it has been overwritten since. Once a whole {@code dataDir/bucket/yyyyMMdd} partition has expired
+ * it is dropped at once instead: one bulk metadata delete for the day and one recursive delete of the directory. The
+ * timers of the dropped objects then find nothing to delete.
+ * <p>
+ * Timers check the current rule of their bucket when they fire, so giving a rule a longer ttl reschedules them lazily
+ * while a shorter ttl replaces them. Removing a rule cancels the timers of its bucket.
+ */
+public class ObjectLifecycle implements Closeable {
+
+    static final long TICK_MILLIS = 1000;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private static final int TIMER_WHEEL_LEVELS = 4;
+
+    private final AbstractObjectStorageImpl storage;
+    private final Map<String, LifecycleRule> rules = new ConcurrentHashMap<>();
+    private final HierarchicalTimerWheel<Expiry> timers = new HierarchicalTimerWheel<>(TICK_MILLIS, TIMER_WHEEL_LEVELS, System.currentTimeMillis());
+    private ScheduledExecutorService scheduler;
+    private volatile Throwable lastFailure;
+
+    ObjectLifecycle(AbstractObjectStorageImpl storage) {
+        this.storage = storage;
+    }
+
+    public synchronized void setRule(LifecycleRule rule) {
+        LifecycleRule previous = rules.put(rule.bucket(), rule);
+        startScheduler();
+        if (!(storage.objectInfoRepository instanceof QueryableObjectInfoRepository queryable)) {
+            // without time queries only objects saved from now on get timers
+            return;
+        }
+        if (previous != null) {
+            if (rule.ttl().compareTo(previous.ttl()) >= 0) {
+                // the existing timers fire no later than the new deadlines and reschedule themselves
+                return;
+            }
+            // every existing timer fires too late, replace them
+            timers.cancelIf(expiry -> expiry.bucket().equals(rule.bucket()));
+        }
+        long ttl = rule.ttl().toMillis();
+        // partitions that have expired completely are left to the next drop
+        long from = (ObjectInfoTimeIndex.epochDay(System.currentTimeMillis() - ttl)) * MILLIS_PER_DAY;
+        try (Stream<ObjectInfo> objectInfos = queryable.findObjectInfos(rule.bucket(), from, Long.MAX_VALUE)) {
+            objectInfos.forEach(this::onSave);
+        }
+    }
+
+    public LifecycleRule getRule(String bucket) {
+        return rules.get(bucket);
+    }
+
+    public synchronized void removeRule(String bucket) {
+        if (rules.remove(bucket) == null) {
+            return;
+        }
+        timers.cancelIf(expiry -> expiry.bucket().equals(bucket));
+        if (rules.isEmpty() && scheduler != null) {
+            // let a running expiry finish, interrupting it could close the channels it writes to
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return the error of the last failed expiry run, if any
+     */
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    void onSave(ObjectInfo objectInfo) {
+        LifecycleRule rule = rules.get(objectInfo.getBucket());
+        if (rule != null) {
+            timers.schedule(new Expiry(objectInfo.getBucket(), objectInfo.getKey(), objectInfo.getId(), objectInfo.getCreateTime()),
+                    objectInfo.getCreateTime() + rule.ttl().toMillis());
+        }
+    }
+
+    /**
+     * Drops the partitions and deletes the objects that have expired at {@code nowMillis}.
+     */
+    void expire(long nowMillis) {
+        for (LifecycleRule rule : rules.values()) {
+            dropExpiredPartitions(rule, nowMillis);
+        }
+        timers.advance(nowMillis, expiry -> expire(expiry, nowMillis));
+    }
+
+    private void expire(Expiry expiry, long nowMillis) {
+        LifecycleRule rule = rules.get(expiry.bucket());
+        if (rule == null) {
+            return;
+        }
+        long deadline = expiry.createTime() + rule.ttl().toMillis();
+        if (deadline > nowMillis) {
+            // the rule has been given a longer ttl since the timer was scheduled
+            timers.schedule(expiry, deadline);
+            return;
+        }
+        try {
+            storage.deleteObject(expiry.bucket(), expiry.key(), WriteCondition.ifMatchId(expiry.id()));
+        } catch (PreconditionFailedException e) {
+            // overwritten or deleted since, a newer version has its own timer
+        }
+    }
+
+    private void dropExpiredPartitions(LifecycleRule rule, long nowMillis) {
+        if (!(storage.objectInfoRepository instanceof QueryableObjectInfoRepository queryable)) {
+            // metadata can't be dropped in bulk, the timers delete the objects one by one
+            return;
+        }
+        Path bucketDir = storage.dataDir.resolve(rule.bucket());
+        if (Files.notExists(bucketDir)) {
+            return;
+        }
+        // a partition has expired when its last possible create time has
+        long lastExpiredDay = ObjectInfoTimeIndex.epochDay(nowMillis - rule.ttl().toMillis()) - 1;
+        try (Stream<Path> partitions = Files.list(bucketDir)) {
+            for (Path partition : partitions.toList()) {
+                long epochDay;
+                try {
+                    epochDay = LocalDate.parse(partition.getFileName().toString(), storage.dateFormatter).toEpochDay();
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                if (epochDay <= lastExpiredDay) {
+                    dropPartition(queryable, rule.bucket(), epochDay, partition);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void dropPartition(QueryableObjectInfoRepository repository, String bucket, long epochDay, Path partition) {
+        Lock dropLock = storage.snapshots.partitionDropLock();
+        if (!dropLock.tryLock()) {
+            // a snapshot is being taken, the next run drops the partition
+            return;
+        }
+        try {
+            List<ObjectInfo> deleted = repository.deleteObjectInfos(bucket, epochDay * MILLIS_PER_DAY, (epochDay + 1) * MILLIS_PER_DAY);
+            // files that are still being read are reclaimed by their last reader
+            for (ObjectInfo objectInfo : deleted) {
+                storage.versionPins.supersedeIfPinned(objectInfo);
+            }
+            FileUtils.deleteRecursively(partition, path -> storage.versionPins.isPinned(storage.dataDir.relativize(path).toString()));
+        } finally {
+            dropLock.unlock();
+        }
+    }
+
+    private synchronized void startScheduler() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("object-lifecycle").daemon().factory());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                expire(System.currentTimeMillis());
+            } catch (RuntimeException e) {
+                // keep the schedule alive, the next run retries
+                lastFailure = e;
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private record Expiry(String bucket, String key, long id, long createTime) {}
+}
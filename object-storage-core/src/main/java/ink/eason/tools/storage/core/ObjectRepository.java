@@ -1,10 +1,27 @@
 package ink.eason.tools.storage.core;
 
+import org.bson.BsonDocument;
+
 import java.io.InputStream;
 
 public interface ObjectRepository {
 
-    public void saveObject(String bucket, String key, String metadata, InputStream inputStream);
+    /**
+     * Saves a new version of the object if {@code condition} holds for the current one.
+     *
+     * @throws PreconditionFailedException if the condition does not hold; the content is then not (or no longer) stored
+     * @throws ConcurrentWriteException    if another conditional write of the key is in progress; the content is not
+     *                                     stored and the write can be retried
+     */
+    public void saveObject(String bucket, String key, String metadata, BsonDocument bsonMetadata, InputStream inputStream, WriteCondition condition);
+
+    public default void saveObject(String bucket, String key, String metadata, BsonDocument bsonMetadata, InputStream inputStream) {
+        saveObject(bucket, key, metadata, bsonMetadata, inputStream, WriteCondition.NONE);
+    }
+
+    public default void saveObject(String bucket, String key, String metadata, InputStream inputStream){
+        saveObject(bucket, key, metadata, null, inputStream);
+    }
 
     public default void saveObject(String bucket, String key, InputStream inputStream){
         saveObject(bucket, key, null, inputStream);
@@ -12,6 +29,15 @@ public interface ObjectRepository {
 
     public InputStream getObject(String bucket, String key);
 
-    public void deleteObject(String bucket, String key);
+    /**
+     * Opens the current version of an object together with its metadata, or returns {@code null} if it does not exist.
+     */
+    public StoredObject openObject(String bucket, String key);
+
+    public void deleteObject(String bucket, String key, WriteCondition condition);
+
+    public default void deleteObject(String bucket, String key) {
+        deleteObject(bucket, key, WriteCondition.NONE);
+    }
 
 }
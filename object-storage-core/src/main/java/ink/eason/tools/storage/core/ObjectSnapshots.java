@@ -0,0 +1,164 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.utils.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time snapshots of an {@link AbstractObjectStorageImpl}. A snapshot is a directory holding the exported
+ * object infos in {@value #OBJECT_INFOS} and a {@value #DATA} tree with a hard link to every data file.
+ * <p>
+ * Data files are never modified once written, so linking them freezes their content at no cost in space. While a
+ * snapshot is taken, files of overwritten and deleted objects are not reclaimed and expired partitions are not
+ * dropped, so every file referenced by the exported object infos is still there when its partition is linked.
+ * Partitions are linked in parallel. Files of saves that complete during the snapshot may be linked without being
+ * referenced by it.
+ */
+final class ObjectSnapshots {
+
+    static final String OBJECT_INFOS = "objects.bson";
+    static final String DATA = "data";
+
+    private final AbstractObjectStorageImpl storage;
+    private final Path snapshotsDir;
+    // taken exclusively by a snapshot, shared by partition drops
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ObjectInfo> deferredReclaims = new ArrayList<>();
+    private boolean deferring;
+
+    ObjectSnapshots(AbstractObjectStorageImpl storage, Path snapshotsDir) {
+        this.storage = storage;
+        this.snapshotsDir = snapshotsDir;
+    }
+
+    Path create(String name) {
+        Path snapshotDir = resolve(name);
+        if (!(storage.objectInfoRepository instanceof SnapshottableObjectInfoRepository repository)) {
+            throw new UnsupportedOperationException(storage.objectInfoRepository.getClass().getSimpleName() + " can't export snapshots");
+        }
+        lock.writeLock().lock();
+        try {
+            createSnapshotDir(snapshotDir);
+            setDeferring(true);
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(snapshotDir.resolve(OBJECT_INFOS)))) {
+                    repository.exportSnapshot(out);
+                }
+                linkPartitions(snapshotDir.resolve(DATA));
+            } catch (IOException e) {
+                FileUtils.deleteRecursively(snapshotDir, path -> false);
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                FileUtils.deleteRecursively(snapshotDir, path -> false);
+                throw e;
+            } finally {
+                setDeferring(false);
+            }
+            return snapshotDir;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return {@code true} if a snapshot is being taken and the file of {@code objectInfo} is reclaimed after it
+     */
+    boolean deferReclaim(ObjectInfo objectInfo) {
+        synchronized (deferredReclaims) {
+            if (deferring) {
+                deferredReclaims.add(objectInfo);
+            }
+            return deferring;
+        }
+    }
+
+    /**
+     * @return the lock to hold while dropping partitions, which can't be acquired while a snapshot is taken
+     */
+    Lock partitionDropLock() {
+        return lock.readLock();
+    }
+
+    private void setDeferring(boolean deferring) {
+        List<ObjectInfo> reclaims;
+        synchronized (deferredReclaims) {
+            this.deferring = deferring;
+            if (deferring) {
+                return;
+            }
+            reclaims = List.copyOf(deferredReclaims);
+            deferredReclaims.clear();
+        }
+        reclaims.forEach(storage::reclaim);
+    }
+
+    private Path resolve(String name) {
+        if (name == null || name.isEmpty() || name.equals(".") || name.equals("..") || name.contains("/") || name.contains("\\")) {
+            throw new IllegalArgumentException("invalid snapshot name: " + name);
+        }
+        return snapshotsDir.resolve(name);
+    }
+
+    private static void createSnapshotDir(Path snapshotDir) {
+        try {
+            Files.createDirectories(snapshotDir.getParent());
+            Files.createDirectory(snapshotDir);
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalArgumentException("snapshot " + snapshotDir.getFileName() + " already exists");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void linkPartitions(Path targetDir) throws IOException {
+        List<Path> partitions = new ArrayList<>();
+        try (Stream<Path> buckets = Files.list(storage.dataDir)) {
+            for (Path bucket : buckets.filter(Files::isDirectory).toList()) {
+                try (Stream<Path> days = Files.list(bucket)) {
+                    days.filter(Files::isDirectory).forEach(partitions::add);
+                }
+            }
+        }
+        partitions.parallelStream().forEach(partition -> linkPartition(partition, targetDir.resolve(storage.dataDir.relativize(partition))));
+    }
+
+    private static void linkPartition(Path partition, Path target) {
+        try (Stream<Path> files = Files.list(partition)) {
+            Files.createDirectories(target);
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Path link = target.resolve(file.getFileName());
+                try {
+                    Files.createLink(link, file);
+                } catch (NoSuchFileException e) {
+                    // removed after a failed save, never referenced
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    // no hard links across file systems, fall back to a copy
+                    copy(file, link);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void copy(Path file, Path target) throws IOException {
+        try {
+            Files.copy(file, target);
+        } catch (NoSuchFileException e) {
+            // removed after a failed save, never referenced
+        }
+    }
+}
@@ -1,6 +1,54 @@
 package ink.eason.tools.storage.core;
 
-public interface ObjectStorage extends ObjectRepository, ObjectInfoRepository {
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Optional;
 
+/**
+ * Objects and their infos. The optional capabilities of the object info repository of the storage are exposed by
+ * {@link #queryable()}, {@link #measurable()}, {@link #snapshottable()} and {@link #observable()}, which are empty when the repository lacks them.
+ */
+public interface ObjectStorage extends ObjectRepository, ObjectInfoRepository, Closeable {
+
+    /**
+     * @return the object info repository of the storage if it answers bucket-wide queries
+     */
+    public Optional<QueryableObjectInfoRepository> queryable();
+
+    /**
+     * @return the object info repository of the storage if it keeps bucket statistics
+     */
+    public Optional<MeasurableObjectInfoRepository> measurable();
+
+    /**
+     * @return the object info repository of the storage if it exports and imports snapshots
+     */
+    public Optional<SnapshottableObjectInfoRepository> snapshottable();
+
+    /**
+     * @return the object info repository of the storage if it publishes change feeds
+     */
+    public Optional<ObservableObjectInfoRepository> observable();
+
+    /**
+     * Expires the objects of {@code rule.bucket()} after {@code rule.ttl()}, replacing a previous rule of the bucket.
+     */
+    public void setLifecycleRule(LifecycleRule rule);
+
+    public LifecycleRule getLifecycleRule(String bucket);
+
+    public void removeLifecycleRule(String bucket);
+
+    /**
+     * Freezes the current objects under {@code name}: the object infos are exported and every data file is hard-linked
+     * into the snapshot, so it takes little time and space and does not block writers.
+     *
+     * @return the snapshot directory
+     * @throws IllegalArgumentException if a snapshot with this name already exists
+     */
+    public Path createSnapshot(String name);
+
+    @Override
+    public void close();
 
 }
@@ -0,0 +1,107 @@
+package ink.eason.tools.storage.core;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Tracks readers of object versions so that the data file of a superseded version is reclaimed only after its last
+ * reader is done.
+ * <p>
+ * A version is identified by its data path, which is never reused. Readers {@link #pin(ObjectInfo) pin} a version
+ * and then check that it is still current; writers swap the repository entry first and {@link #supersede(ObjectInfo)
+ * supersede} the replaced version afterwards. Whichever of the two comes last observes the other, so a file is
+ * reclaimed exactly once and never while pinned, and neither side waits for the other.
+ */
+class ObjectVersionPins {
+
+    private final Map<String, PinCount> pins = new ConcurrentHashMap<>();
+    private final Consumer<ObjectInfo> reclaimer;
+
+    ObjectVersionPins(Consumer<ObjectInfo> reclaimer) {
+        this.reclaimer = reclaimer;
+    }
+
+    Pin pin(ObjectInfo objectInfo) {
+        pins.compute(objectInfo.getPath(), (path, count) -> {
+            count = count == null ? new PinCount() : count;
+            count.readers++;
+            return count;
+        });
+        return new Pin(objectInfo);
+    }
+
+    void supersede(ObjectInfo objectInfo) {
+        if (!supersedeIfPinned(objectInfo)) {
+            reclaimer.accept(objectInfo);
+        }
+    }
+
+    /**
+     * Marks {@code objectInfo} superseded if it has readers, leaving it to the last of them to reclaim it.
+     *
+     * @return {@code false} if it has no readers and the caller has to reclaim it
+     */
+    boolean supersedeIfPinned(ObjectInfo objectInfo) {
+        boolean[] pinned = {false};
+        pins.computeIfPresent(objectInfo.getPath(), (path, count) -> {
+            count.superseded = true;
+            pinned[0] = true;
+            return count;
+        });
+        return pinned[0];
+    }
+
+    boolean isPinned(String path) {
+        return pins.containsKey(path);
+    }
+
+    /**
+     * @return whether {@code objectInfo} is still the version {@code current} refers to
+     */
+    static boolean isSameVersion(ObjectInfo objectInfo, ObjectInfo current) {
+        return current != null && Objects.equals(objectInfo.getId(), current.getId()) && Objects.equals(objectInfo.getPath(), current.getPath());
+    }
+
+    private void release(ObjectInfo objectInfo) {
+        boolean[] reclaim = {false};
+        pins.computeIfPresent(objectInfo.getPath(), (path, count) -> {
+            if (--count.readers > 0) {
+                return count;
+            }
+            reclaim[0] = count.superseded;
+            return null;
+        });
+        if (reclaim[0]) {
+            reclaimer.accept(objectInfo);
+        }
+    }
+
+    private static final class PinCount {
+        private int readers;
+        private boolean superseded;
+    }
+
+    class Pin implements AutoCloseable {
+
+        private final ObjectInfo objectInfo;
+        private boolean released;
+
+        private Pin(ObjectInfo objectInfo) {
+            this.objectInfo = objectInfo;
+        }
+
+        ObjectInfo objectInfo() {
+            return objectInfo;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                release(objectInfo);
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.core.ObjectInfoChangeFeed.Subscription;
+
+import java.util.function.Consumer;
+
+/**
+ * An {@link ObjectInfoRepository} that publishes its saves and deletes as a per-bucket change feed.
+ */
+public interface ObservableObjectInfoRepository extends ObjectInfoRepository {
+
+    /**
+     * Pushes the saves and deletes of {@code bucket} to {@code listener} in sequence order, starting at
+     * {@code fromSequence} (sequences start at 1).
+     */
+    public Subscription subscribe(String bucket, long fromSequence, Consumer<ObjectInfoChange> listener);
+
+}
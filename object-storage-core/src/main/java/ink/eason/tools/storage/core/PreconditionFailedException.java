@@ -0,0 +1,24 @@
+package ink.eason.tools.storage.core;
+
+/**
+ * Thrown when a {@link WriteCondition} does not hold. Nothing has been changed when it is thrown.
+ */
+public class PreconditionFailedException extends RuntimeException {
+
+    private final String bucket;
+    private final String key;
+
+    public PreconditionFailedException(String bucket, String key, String message) {
+        super(bucket + "/" + key + ": " + message);
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,92 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.BsonDocument;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * An {@link ObjectInfoRepository} that can also restore object infos with their ids and answer bucket-wide queries.
+ */
+public interface QueryableObjectInfoRepository extends MeasurableObjectInfoRepository, SnapshottableObjectInfoRepository {
+
+    /**
+     * Saves {@code objectInfo} as is, keeping its id, e.g. when moving it between repositories.
+     *
+     * @throws PreconditionFailedException if {@code condition} does not hold for the current version of the key
+     */
+    public ObjectInfo restoreObjectInfo(ObjectInfo objectInfo, WriteCondition condition);
+
+    /**
+     * @return the buckets that hold at least one object
+     */
+    public Set<String> listBuckets();
+
+    /**
+     * Streams the objects of {@code bucket} created in {@code [fromCreateTime, toCreateTime)}, in create time order.
+     */
+    public Stream<ObjectInfo> findObjectInfos(String bucket, long fromCreateTime, long toCreateTime);
+
+    /**
+     * Streams the objects of {@code bucket} whose BSON metadata matches {@code filter}, with the metadata reduced to
+     * the {@code projection} paths. A {@code null} filter matches everything and a {@code null} projection keeps the
+     * whole metadata.
+     */
+    public Stream<ObjectInfo> findObjectInfos(String bucket, BsonDocument filter, Set<String> projection);
+
+    /**
+     * Deletes every object of {@code bucket} created in {@code [fromCreateTime, toCreateTime)} in one call, e.g. a
+     * whole day partition. Versions saved concurrently are not affected.
+     *
+     * @return the deleted versions
+     */
+    public default List<ObjectInfo> deleteObjectInfos(String bucket, long fromCreateTime, long toCreateTime) {
+        List<ObjectInfo> candidates;
+        try (Stream<ObjectInfo> objectInfos = findObjectInfos(bucket, fromCreateTime, toCreateTime)) {
+            candidates = objectInfos.toList();
+        }
+        List<ObjectInfo> deleted = new ArrayList<>(candidates.size());
+        for (ObjectInfo candidate : candidates) {
+            try {
+                ObjectInfo objectInfo = deleteObjectInfo(candidate, WriteCondition.ifMatchId(candidate.getId()));
+                if (objectInfo != null) {
+                    deleted.add(objectInfo);
+                }
+            } catch (PreconditionFailedException e) {
+                // overwritten since
+            }
+        }
+        return deleted;
+    }
+
+    public void createMetadataIndex(String bucket, String field);
+
+    public void dropMetadataIndex(String bucket, String field);
+
+    /**
+     * Writes every object info to {@code out} as a stream of BSON documents, bucket by bucket, without closing it.
+     *
+     * @return the number of object infos written
+     */
+    @Override
+    public default long exportSnapshot(OutputStream out) {
+        return ObjectInfoSnapshot.export(listBuckets().stream()
+                .flatMap(bucket -> findObjectInfos(bucket, Long.MIN_VALUE, Long.MAX_VALUE)), out);
+    }
+
+    /**
+     * Restores every object info of a snapshot written by {@link #exportSnapshot(OutputStream)}, keeping ids and
+     * replacing existing versions. Documents are decoded and restored in parallel.
+     *
+     * @return the number of object infos restored
+     */
+    @Override
+    public default long importSnapshot(InputStream in) {
+        return ObjectInfoSnapshot.importInto(objectInfo -> restoreObjectInfo(objectInfo, WriteCondition.NONE), in);
+    }
+
+}
@@ -0,0 +1,412 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.core.BucketStats.PartitionStats;
+import org.bson.BsonDocument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Spreads object infos over several {@link QueryableObjectInfoRepository} shards by consistent hashing of bucket and
+ * key, with {@code virtualNodes} points per shard on the ring.
+ * <p>
+ * Single-key operations go to exactly one shard without any locking; bucket-wide operations fan out to all shards in
+ * parallel and merge the results. Shards can be added and removed online: the keys whose owner changes are moved with
+ * {@link #restoreObjectInfo(ObjectInfo, WriteCondition)}, keeping their ids, so shards should share one
+ * {@link IdAllocator}. While a rebalance runs, reads look at the previous owner first and writes of a key are
+ * serialized with its migration by striped locks.
+ * <p>
+ * Rebalancing lists the keys of a shard with {@link #listBuckets()} and time range queries. Change feeds are not
+ * supported as sequences are per shard.
+ */
+public class ShardedObjectInfoRepository implements QueryableObjectInfoRepository, Closeable {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    static final int MIGRATION_BATCH = 1024;
+
+    private static final int MIGRATION_LOCK_STRIPES = 256;
+
+    private final int virtualNodes;
+    private final ReentrantLock[] migrationLocks = new ReentrantLock[MIGRATION_LOCK_STRIPES];
+    private final Object rebalanceLock = new Object();
+    private volatile Ring ring;
+
+    public ShardedObjectInfoRepository(Map<String, ? extends QueryableObjectInfoRepository> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardedObjectInfoRepository(Map<String, ? extends QueryableObjectInfoRepository> shards, int virtualNodes) {
+        if (shards.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("at least one shard and one virtual node are required");
+        }
+        this.virtualNodes = virtualNodes;
+        for (int i = 0; i < migrationLocks.length; i++) {
+            migrationLocks[i] = new ReentrantLock();
+        }
+        this.ring = new Ring(new LinkedHashMap<>(shards), virtualNodes, null);
+    }
+
+    public Set<String> getShardNames() {
+        return Set.copyOf(ring.shards.keySet());
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucket, String key) {
+        Ring current = ring;
+        long hash = hash(bucket, key);
+        QueryableObjectInfoRepository owner = current.owner(hash);
+        if (current.previous != null && current.previous.owner(hash) != owner) {
+            // a migration copies the key to the new owner before deleting it from the previous one, so reading in the
+            // opposite order finds it in one of them
+            ObjectInfo objectInfo = current.previous.owner(hash).getObjectInfo(bucket, key);
+            if (objectInfo != null) {
+                return objectInfo;
+            }
+        }
+        return owner.getObjectInfo(bucket, key);
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo) {
+        return saveObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        return write(objectInfo.getBucket(), objectInfo.getKey(), shard -> shard.saveObjectInfo(objectInfo, condition));
+    }
+
+    @Override
+    public ObjectInfo restoreObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        return write(objectInfo.getBucket(), objectInfo.getKey(), shard -> shard.restoreObjectInfo(objectInfo, condition));
+    }
+
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo) {
+        return deleteObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        return write(objectInfo.getBucket(), objectInfo.getKey(), shard -> shard.deleteObjectInfo(objectInfo, condition));
+    }
+
+    @Override
+    public ObjectInfo lastSavedObjectInfo() {
+        return fanOut(QueryableObjectInfoRepository::lastSavedObjectInfo)
+                .filter(Objects::nonNull)
+                .max(Comparator.comparingLong(ObjectInfo::getCreateTime).thenComparing(ObjectInfo::getId))
+                .orElse(null);
+    }
+
+    @Override
+    public Set<String> listBuckets() {
+        Set<String> buckets = new TreeSet<>();
+        fanOut(QueryableObjectInfoRepository::listBuckets).forEach(buckets::addAll);
+        return buckets;
+    }
+
+    @Override
+    public Stream<ObjectInfo> findObjectInfos(String bucket, long fromCreateTime, long toCreateTime) {
+        List<ObjectInfo> objectInfos = new ArrayList<>();
+        fanOut(shard -> {
+            try (Stream<ObjectInfo> stream = shard.findObjectInfos(bucket, fromCreateTime, toCreateTime)) {
+                return stream.toList();
+            }
+        }).forEach(objectInfos::addAll);
+        return distinctKeys(objectInfos).stream()
+                .sorted(Comparator.comparingLong(ObjectInfo::getCreateTime).thenComparing(ObjectInfo::getId));
+    }
+
+    @Override
+    public Stream<ObjectInfo> findObjectInfos(String bucket, BsonDocument filter, Set<String> projection) {
+        List<ObjectInfo> objectInfos = new ArrayList<>();
+        fanOut(shard -> {
+            try (Stream<ObjectInfo> stream = shard.findObjectInfos(bucket, filter, projection)) {
+                return stream.toList();
+            }
+        }).forEach(objectInfos::addAll);
+        return distinctKeys(objectInfos).stream();
+    }
+
+    @Override
+    public List<ObjectInfo> deleteObjectInfos(String bucket, long fromCreateTime, long toCreateTime) {
+        List<ObjectInfo> deleted = new ArrayList<>();
+        fanOut(shard -> shard.deleteObjectInfos(bucket, fromCreateTime, toCreateTime)).forEach(deleted::addAll);
+        return deleted;
+    }
+
+    @Override
+    public void createMetadataIndex(String bucket, String field) {
+        fanOut(shard -> {
+            shard.createMetadataIndex(bucket, field);
+            return null;
+        });
+    }
+
+    @Override
+    public void dropMetadataIndex(String bucket, String field) {
+        fanOut(shard -> {
+            shard.dropMetadataIndex(bucket, field);
+            return null;
+        });
+    }
+
+    /**
+     * @return the usage summed over all shards; keys that are being migrated may be counted twice
+     */
+    @Override
+    public BucketStats getBucketStats(String bucket) {
+        long objectCount = 0;
+        long totalSize = 0;
+        TreeMap<String, PartitionStats> partitions = new TreeMap<>();
+        for (BucketStats stats : fanOut(shard -> shard.getBucketStats(bucket)).toList()) {
+            objectCount += stats.objectCount();
+            totalSize += stats.totalSize();
+            stats.partitions().forEach((partition, partitionStats) -> partitions.merge(partition, partitionStats,
+                    (a, b) -> new PartitionStats(a.objectCount() + b.objectCount(), a.totalSize() + b.totalSize())));
+        }
+        return new BucketStats(bucket, objectCount, totalSize, partitions);
+    }
+
+    /**
+     * Adds a shard and moves the keys it now owns to it. Other operations continue meanwhile.
+     */
+    public void addShard(String name, QueryableObjectInfoRepository shard) {
+        synchronized (rebalanceLock) {
+            Map<String, QueryableObjectInfoRepository> shards = new LinkedHashMap<>(ring.shards);
+            if (shards.putIfAbsent(name, shard) != null) {
+                throw new IllegalArgumentException("shard " + name + " already exists");
+            }
+            rebalance(shards);
+        }
+    }
+
+    /**
+     * Moves the keys of a shard to the remaining ones and removes it. The caller takes back ownership of the returned,
+     * now empty, shard.
+     */
+    public QueryableObjectInfoRepository removeShard(String name) {
+        synchronized (rebalanceLock) {
+            Map<String, QueryableObjectInfoRepository> shards = new LinkedHashMap<>(ring.shards);
+            QueryableObjectInfoRepository removed = shards.remove(name);
+            if (removed == null) {
+                throw new IllegalArgumentException("shard " + name + " does not exist");
+            }
+            if (shards.isEmpty()) {
+                throw new IllegalStateException("the last shard can't be removed");
+            }
+            rebalance(shards);
+            return removed;
+        }
+    }
+
+    private void rebalance(Map<String, QueryableObjectInfoRepository> shards) {
+        Ring previous = ring;
+        ring = new Ring(shards, virtualNodes, previous);
+        // writes routed by the old ring don't take migration locks, let them finish before moving keys
+        previous.writers.arriveAndAwaitAdvance();
+        for (Map.Entry<String, QueryableObjectInfoRepository> entry : previous.shards.entrySet()) {
+            QueryableObjectInfoRepository source = entry.getValue();
+            for (String bucket : source.listBuckets()) {
+                migrateBucket(source, bucket);
+            }
+        }
+        ring = new Ring(shards, virtualNodes, null);
+    }
+
+    /**
+     * Moves the keys of {@code bucket} that {@code source} no longer owns, paging through the bucket in create time and
+     * id order so that at most {@value #MIGRATION_BATCH} object infos are held at a time.
+     */
+    private void migrateBucket(QueryableObjectInfoRepository source, String bucket) {
+        ObjectInfo last = null;
+        while (true) {
+            ObjectInfo after = last;
+            List<ObjectInfo> batch;
+            try (Stream<ObjectInfo> stream = source.findObjectInfos(bucket, after == null ? Long.MIN_VALUE : after.getCreateTime(), Long.MAX_VALUE)) {
+                batch = stream.filter(objectInfo -> after == null || objectInfo.getCreateTime() > after.getCreateTime() || objectInfo.getId() > after.getId())
+                        .limit(MIGRATION_BATCH)
+                        .toList();
+            }
+            for (ObjectInfo objectInfo : batch) {
+                long hash = hash(objectInfo.getBucket(), objectInfo.getKey());
+                if (ring.owner(hash) != source) {
+                    ReentrantLock lock = migrationLock(hash);
+                    lock.lock();
+                    try {
+                        migrate(ring, hash, objectInfo.getBucket(), objectInfo.getKey());
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            if (batch.size() < MIGRATION_BATCH) {
+                return;
+            }
+            last = batch.get(batch.size() - 1);
+        }
+    }
+
+    /**
+     * Moves the current version of a key from its previous owner to its new one, unless the new owner already has a
+     * newer version. Must be called holding the migration lock of the key.
+     */
+    private static void migrate(Ring current, long hash, String bucket, String key) {
+        QueryableObjectInfoRepository source = current.previous.owner(hash);
+        QueryableObjectInfoRepository target = current.owner(hash);
+        if (source == target) {
+            return;
+        }
+        ObjectInfo objectInfo = source.getObjectInfo(bucket, key);
+        if (objectInfo == null) {
+            return;
+        }
+        try {
+            target.restoreObjectInfo(objectInfo, WriteCondition.ifNoneMatch());
+        } catch (PreconditionFailedException e) {
+            // written to the new owner in the meantime
+        }
+        source.deleteObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    private ObjectInfo write(String bucket, String key, Function<QueryableObjectInfoRepository, ObjectInfo> operation) {
+        long hash = hash(bucket, key);
+        while (true) {
+            Ring current = ring;
+            current.writers.register();
+            try {
+                if (current != ring) {
+                    // a rebalance started, route with the new ring
+                    continue;
+                }
+                if (current.previous == null) {
+                    return operation.apply(current.owner(hash));
+                }
+                ReentrantLock lock = migrationLock(hash);
+                lock.lock();
+                try {
+                    migrate(current, hash, bucket, key);
+                    return operation.apply(current.owner(hash));
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                current.writers.arriveAndDeregister();
+            }
+        }
+    }
+
+    private <R> Stream<R> fanOut(Function<QueryableObjectInfoRepository, R> operation) {
+        Ring current = ring;
+        Collection<QueryableObjectInfoRepository> shards = current.previous == null
+                ? current.shards.values()
+                : distinct(current.shards.values(), current.previous.shards.values());
+        return shards.parallelStream().map(operation).toList().stream();
+    }
+
+    private static Collection<QueryableObjectInfoRepository> distinct(Collection<QueryableObjectInfoRepository> a, Collection<QueryableObjectInfoRepository> b) {
+        List<QueryableObjectInfoRepository> shards = new ArrayList<>(a);
+        for (QueryableObjectInfoRepository shard : b) {
+            if (!shards.contains(shard)) {
+                shards.add(shard);
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Drops the older copy of keys that were seen on two shards in the middle of a migration.
+     */
+    private static Collection<ObjectInfo> distinctKeys(List<ObjectInfo> objectInfos) {
+        Map<String, ObjectInfo> byKey = new HashMap<>(objectInfos.size() * 2);
+        for (ObjectInfo objectInfo : objectInfos) {
+            byKey.merge(objectInfo.getKey(), objectInfo, (a, b) -> a.getId() >= b.getId() ? a : b);
+        }
+        return byKey.values();
+    }
+
+    private ReentrantLock migrationLock(long hash) {
+        return migrationLocks[(int) (hash & (MIGRATION_LOCK_STRIPES - 1))];
+    }
+
+    @Override
+    public void close() {
+        for (QueryableObjectInfoRepository shard : ring.shards.values()) {
+            if (shard instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    static long hash(String bucket, String key) {
+        // FNV-1a over both strings with a separator, finished with the murmur3 64-bit mix
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < bucket.length(); i++) {
+            hash = (hash ^ bucket.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ '/') * 0x100000001b3L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static final class Ring {
+
+        private final Map<String, QueryableObjectInfoRepository> shards;
+        private final long[] points;
+        private final QueryableObjectInfoRepository[] owners;
+        private final Ring previous;
+        // writes currently routed by this ring, plus one party for the rebalance that retires it
+        private final Phaser writers = new Phaser(1);
+
+        private Ring(Map<String, QueryableObjectInfoRepository> shards, int virtualNodes, Ring previous) {
+            this.shards = shards;
+            this.previous = previous;
+            TreeMap<Long, QueryableObjectInfoRepository> ring = new TreeMap<>();
+            for (Map.Entry<String, QueryableObjectInfoRepository> entry : shards.entrySet()) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    ring.putIfAbsent(hash(entry.getKey(), Integer.toString(i)), entry.getValue());
+                }
+            }
+            this.points = ring.keySet().stream().mapToLong(Long::longValue).toArray();
+            this.owners = ring.values().toArray(QueryableObjectInfoRepository[]::new);
+        }
+
+        private QueryableObjectInfoRepository owner(long hash) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index == points.length ? 0 : index];
+        }
+    }
+}
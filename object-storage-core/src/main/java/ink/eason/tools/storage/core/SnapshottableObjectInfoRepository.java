@@ -0,0 +1,26 @@
+package ink.eason.tools.storage.core;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An {@link ObjectInfoRepository} that can export all of its object infos and import them back with their ids.
+ */
+public interface SnapshottableObjectInfoRepository extends ObjectInfoRepository {
+
+    /**
+     * Writes every object info to {@code out} as a stream of BSON documents without closing it.
+     *
+     * @return the number of object infos written
+     */
+    public long exportSnapshot(OutputStream out);
+
+    /**
+     * Restores every object info of a snapshot written by {@link #exportSnapshot(OutputStream)}, keeping ids and
+     * replacing existing versions.
+     *
+     * @return the number of object infos restored
+     */
+    public long importSnapshot(InputStream in);
+
+}
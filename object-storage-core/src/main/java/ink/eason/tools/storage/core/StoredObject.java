@@ -0,0 +1,17 @@
+package ink.eason.tools.storage.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An object version opened for reading: the metadata and the content always belong to the same version, which stays
+ * readable until the stream is closed even if the key is overwritten or deleted in the meantime.
+ */
+public record StoredObject(ObjectInfo objectInfo, InputStream inputStream) implements Closeable {
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+}
@@ -0,0 +1,532 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.core.ObjectInfoChange.Type;
+import org.bson.BsonDocument;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Decorates a slow {@link QueryableObjectInfoRepository} so that writes are acknowledged as soon as they are appended to a
+ * local log.
+ * <p>
+ * Acknowledged writes are kept in an overlay, one entry per key, so that repeated updates of a key coalesce and point
+ * reads see them immediately. A background thread flushes the overlay to the backing repository every
+ * {@code flushIntervalMillis}, or earlier once {@code batchSize} keys are pending. Every flush starts a new log segment
+ * and deletes the older ones when it has been applied; segments left over by a crash are replayed on startup.
+ * <p>
+ * Saves are flushed with {@link QueryableObjectInfoRepository#restoreObjectInfo(ObjectInfo, WriteCondition)} to keep
+ * the ids handed out here. Queries that span a bucket flush first and then read the backing repository. Change feeds
+ * are published by the backing repository once writes have been flushed, so subscribers subscribe to it directly.
+ * <p>
+ * Only conditional writes read the backing repository, before they lock their key; the read is retried if a flush
+ * has applied a write of the key in the meantime. An unconditional write of a key that is not pending returns
+ * {@code null} instead of the version it replaces; that version is only known once the write is flushed, and is then
+ * handed to the listener of {@link #onReplacedAtFlush(Consumer)}.
+ */
+public class WriteBehindObjectInfoRepository implements QueryableObjectInfoRepository, Closeable {
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FLUSHED_KEY_STRIPES = 256;
+
+    private final QueryableObjectInfoRepository backend;
+    private final Path logDir;
+    private final IdAllocator idAllocator;
+    private final long flushIntervalMillis;
+    private final int batchSize;
+    private final boolean fsync;
+    private final Map<ObjectKey, Pending> pending = new ConcurrentHashMap<>();
+    // bumped when a flush removes a key from the overlay, so that conditional writes notice stale backend reads
+    private final AtomicLongArray flushedKeys = new AtomicLongArray(FLUSHED_KEY_STRIPES);
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+    private final List<Path> sealedSegments = new ArrayList<>();
+    private FileChannel log;
+    // writes logged to the current segment that are not in the overlay yet, plus one party for the flush that seals it
+    private Phaser unpublished = new Phaser(1);
+    private long segment;
+    private long logSize;
+    private long sequence;
+
+    // appends are forced in groups: one force covers every record appended before it started
+    private final ReentrantLock forceLock = new ReentrantLock();
+    private volatile long forcedSequence;
+
+    private final Object flushLock = new Object();
+    private final Thread flusher;
+    // writers hold the read lock from the closed check until their append is in the overlay
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+    private volatile Throwable lastFailure;
+    private volatile Consumer<ObjectInfo> replacedListener = objectInfo -> {};
+
+    public WriteBehindObjectInfoRepository(QueryableObjectInfoRepository backend, Path logDir) {
+        this(backend, logDir, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_BATCH_SIZE, false);
+    }
+
+    /**
+     * @param fsync whether every append is forced to the device before it is acknowledged, otherwise writes survive a
+     *              process crash but not a power loss; concurrent writers share forces, and a write may be read by
+     *              others before its force completes
+     */
+    public WriteBehindObjectInfoRepository(QueryableObjectInfoRepository backend, Path logDir, long flushIntervalMillis, int batchSize, boolean fsync) {
+        if (flushIntervalMillis <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("invalid flush interval " + flushIntervalMillis + " or batch size " + batchSize);
+        }
+        this.backend = backend;
+        this.logDir = logDir;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.batchSize = batchSize;
+        this.fsync = fsync;
+        try {
+            Files.createDirectories(logDir);
+            this.idAllocator = new IdAllocator(logDir.resolve("id.lease"));
+            recover();
+            this.log = openSegment(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // apply what a previous run left behind before serving anything
+        flush();
+        this.flusher = Thread.ofPlatform().name("write-behind-flusher").daemon().start(this::runFlusher);
+    }
+
+    @Override
+    public ObjectInfo getObjectInfo(String bucket, String key) {
+        Pending entry = pending.get(new ObjectKey(bucket, key));
+        if (entry != null) {
+            return entry.type() == Type.SAVE ? entry.objectInfo() : null;
+        }
+        return backend.getObjectInfo(bucket, key);
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo) {
+        return saveObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    @Override
+    public ObjectInfo saveObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        objectInfo.setId(idAllocator.nextId());
+        return write(Type.SAVE, objectInfo, condition);
+    }
+
+    @Override
+    public ObjectInfo restoreObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        idAllocator.advancePast(objectInfo.getId());
+        return write(Type.SAVE, objectInfo, condition);
+    }
+
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo) {
+        return deleteObjectInfo(objectInfo, WriteCondition.NONE);
+    }
+
+    @Override
+    public ObjectInfo deleteObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+        return write(Type.DELETE, objectInfo, condition);
+    }
+
+    private ObjectInfo write(Type type, ObjectInfo objectInfo, WriteCondition condition) {
+        ObjectKey objectKey = new ObjectKey(objectInfo.getBucket(), objectInfo.getKey());
+        int stripe = objectKey.hashCode() & (FLUSHED_KEY_STRIPES - 1);
+        ObjectInfo[] previous = new ObjectInfo[1];
+        Appended[] logged = new Appended[1];
+        while (true) {
+            long flushed = flushedKeys.get(stripe);
+            // the backend is not read under the lock of the key, the read is only used if no flush has touched the key
+            boolean read = !condition.isUnconditional() && !pending.containsKey(objectKey);
+            ObjectInfo stored = read ? backend.getObjectInfo(objectKey.bucket(), objectKey.key()) : null;
+            boolean[] stale = new boolean[1];
+            closeLock.readLock().lock();
+            try {
+                if (closed) {
+                    throw new IllegalStateException("repository is closed");
+                }
+                // the key stays locked from the condition check until the write is in the overlay
+                pending.compute(objectKey, (key, entry) -> {
+                    ObjectInfo current = null;
+                    boolean known = true;
+                    if (entry != null) {
+                        current = entry.type() == Type.SAVE ? entry.objectInfo() : null;
+                    } else if (!condition.isUnconditional()) {
+                        if (!read || flushedKeys.get(stripe) != flushed) {
+                            stale[0] = true;
+                            return null;
+                        }
+                        current = stored;
+                    } else {
+                        // left to the flush
+                        known = false;
+                    }
+                    if (!condition.test(current)) {
+                        throw new PreconditionFailedException(key.bucket(), key.key(), "precondition " + condition + " failed");
+                    }
+                    previous[0] = current;
+                    if (type == Type.DELETE && current == null && known) {
+                        return entry;
+                    }
+                    ObjectInfo logObjectInfo = type == Type.SAVE ? objectInfo : current != null ? current : objectInfo;
+                    logged[0] = append(type, logObjectInfo);
+                    // the version the backend replaces at flush stays the one under the first pending write of the key
+                    return new Pending(type, logObjectInfo, entry != null ? entry.returned() : known);
+                });
+            } finally {
+                if (logged[0] != null) {
+                    logged[0].segmentWriters().arriveAndDeregister();
+                }
+                closeLock.readLock().unlock();
+            }
+            if (!stale[0]) {
+                break;
+            }
+        }
+        if (fsync && logged[0] != null) {
+            force(logged[0].sequence());
+        }
+        if (pending.size() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+        return previous[0];
+    }
+
+    @Override
+    public ObjectInfo lastSavedObjectInfo() {
+        ObjectInfo last = backend.lastSavedObjectInfo();
+        for (Pending entry : pending.values()) {
+            ObjectInfo candidate = entry.objectInfo();
+            if (entry.type() == Type.SAVE && (last == null || candidate.getCreateTime() > last.getCreateTime()
+                    || (candidate.getCreateTime() == last.getCreateTime() && candidate.getId() > last.getId()))) {
+                last = candidate;
+            }
+        }
+        return last;
+    }
+
+    @Override
+    public Set<String> listBuckets() {
+        flush();
+        return backend.listBuckets();
+    }
+
+    @Override
+    public Stream<ObjectInfo> findObjectInfos(String bucket, long fromCreateTime, long toCreateTime) {
+        flush();
+        return backend.findObjectInfos(bucket, fromCreateTime, toCreateTime);
+    }
+
+    @Override
+    public Stream<ObjectInfo> findObjectInfos(String bucket, BsonDocument filter, Set<String> projection) {
+        flush();
+        return backend.findObjectInfos(bucket, filter, projection);
+    }
+
+    @Override
+    public List<ObjectInfo> deleteObjectInfos(String bucket, long fromCreateTime, long toCreateTime) {
+        flush();
+        return backend.deleteObjectInfos(bucket, fromCreateTime, toCreateTime);
+    }
+
+    @Override
+    public void createMetadataIndex(String bucket, String field) {
+        backend.createMetadataIndex(bucket, field);
+    }
+
+    @Override
+    public void dropMetadataIndex(String bucket, String field) {
+        backend.dropMetadataIndex(bucket, field);
+    }
+
+    @Override
+    public BucketStats getBucketStats(String bucket) {
+        flush();
+        return backend.getBucketStats(bucket);
+    }
+
+    /**
+     * Sets the listener of the versions a flush replaces or removes in the backing repository that no write has
+     * returned, which are the versions under unconditional writes of keys that were not pending. It runs on the
+     * flushing thread.
+     */
+    public void onReplacedAtFlush(Consumer<ObjectInfo> listener) {
+        this.replacedListener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * @return the number of keys waiting to be flushed
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return the error of the last failed background flush, if any; the failed writes stay pending and are retried
+     */
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Applies every write acknowledged so far to the backing repository.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Phaser sealed;
+            List<Path> applied;
+            appendLock.lock();
+            try {
+                if (pending.isEmpty() && sealedSegments.isEmpty()) {
+                    return;
+                }
+                sealed = unpublished;
+                rotate();
+                applied = new ArrayList<>(sealedSegments);
+            } finally {
+                appendLock.unlock();
+            }
+            // once the writes of the sealed segments are all in the overlay, it holds everything they logged
+            sealed.arriveAndAwaitAdvance();
+            Map<ObjectKey, Pending> batch = new HashMap<>(pending);
+            for (Map.Entry<ObjectKey, Pending> entry : batch.entrySet()) {
+                Pending write = entry.getValue();
+                ObjectInfo replaced = write.type() == Type.SAVE
+                        ? backend.restoreObjectInfo(write.objectInfo(), WriteCondition.NONE)
+                        : backend.deleteObjectInfo(write.objectInfo(), WriteCondition.NONE);
+                if (replaced != null && !write.returned()) {
+                    replacedListener.accept(replaced);
+                }
+                // keep newer writes of the key for the next flush; the version they replace is the one just applied,
+                // which the newer write has returned
+                pending.computeIfPresent(entry.getKey(), (key, newer) -> {
+                    if (newer == write) {
+                        flushedKeys.incrementAndGet(key.hashCode() & (FLUSHED_KEY_STRIPES - 1));
+                        return null;
+                    }
+                    return newer.returned() ? newer : new Pending(newer.type(), newer.objectInfo(), true);
+                });
+            }
+            appendLock.lock();
+            try {
+                for (Path path : applied) {
+                    Files.deleteIfExists(path);
+                }
+                sealedSegments.removeAll(applied);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                appendLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            // no write is half way through, the final flush sees all of them
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        appendLock.lock();
+        try {
+            log.close();
+            Files.deleteIfExists(segmentPath(segment));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+        idAllocator.close();
+        if (backend instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void runFlusher() {
+        while (!closed) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis));
+            if (closed) {
+                break;
+            }
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                lastFailure = e;
+            }
+        }
+    }
+
+    /**
+     * @return the sequence of the record and the unpublished writes of the segment it went to, already registered with
+     */
+    private Appended append(Type type, ObjectInfo objectInfo) {
+        appendLock.lock();
+        try {
+            ObjectInfoChange change = new ObjectInfoChange(objectInfo.getBucket(), ++sequence, type, objectInfo);
+            int length = change.encodedLength();
+            if (recordBuffer.capacity() < 4 + length) {
+                recordBuffer = ByteBuffer.allocate(Math.max(4 + length, recordBuffer.capacity() * 2));
+            }
+            ByteBuffer record = recordBuffer.clear();
+            record.putInt(length);
+            change.writeTo(record);
+            record.flip();
+            while (record.hasRemaining()) {
+                log.write(record, logSize + record.position());
+            }
+            logSize += record.limit();
+            unpublished.register();
+            return new Appended(unpublished, sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Forces the log up to the record {@code upTo}, together with every record appended by other writers meanwhile.
+     */
+    private void force(long upTo) {
+        if (forcedSequence >= upTo) {
+            return;
+        }
+        forceLock.lock();
+        try {
+            if (forcedSequence >= upTo) {
+                return;
+            }
+            FileChannel channel;
+            long forced;
+            appendLock.lock();
+            try {
+                channel = log;
+                forced = sequence;
+            } finally {
+                appendLock.unlock();
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // sealed by a flush, which forced it before closing
+            }
+            forcedSequence = forced;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    private void rotate() {
+        try {
+            if (logSize == 0) {
+                return;
+            }
+            if (fsync) {
+                log.force(false);
+            }
+            log.close();
+            sealedSegments.add(segmentPath(segment));
+            segment++;
+            log = openSegment(segment);
+            unpublished = new Phaser(1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(logDir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> segments.add(Long.parseLong(name, SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length(), 10)));
+        }
+        segments.sort(null);
+        for (long number : segments) {
+            replay(segmentPath(number));
+            sealedSegments.add(segmentPath(number));
+            segment = number + 1;
+        }
+    }
+
+    private void replay(Path path) throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (content.remaining() >= 4) {
+            int length = content.getInt(content.position());
+            if (length <= 0 || content.remaining() - 4 < length) {
+                // torn tail of an interrupted append
+                break;
+            }
+            ByteBuffer body = content.slice(content.position() + 4, length);
+            content.position(content.position() + 4 + length);
+            ObjectInfoChange change = ObjectInfoChange.readFrom(null, body);
+            ObjectInfo objectInfo = change.objectInfo();
+            // the previous run may have returned the replaced version already, it is not handed out a second time
+            pending.put(new ObjectKey(objectInfo.getBucket(), objectInfo.getKey()), new Pending(change.type(), objectInfo, true));
+            sequence = Math.max(sequence, change.sequence());
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        logSize = 0;
+        return FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(long number) {
+        return logDir.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private record ObjectKey(String bucket, String key) {}
+
+    private record Appended(Phaser segmentWriters, long sequence) {}
+
+    /**
+     * @param returned whether the version the backend holds under this write has been returned by a write
+     */
+    private record Pending(Type type, ObjectInfo objectInfo, boolean returned) {}
+}
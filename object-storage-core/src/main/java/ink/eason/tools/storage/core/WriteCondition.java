@@ -0,0 +1,52 @@
+package ink.eason.tools.storage.core;
+
+import java.util.Objects;
+
+/**
+ * Precondition of a save or delete, checked atomically against the current version of the key.
+ *
+ * @param matchId   if-match: the current version must have this id
+ * @param matchMd5  if-match: the current version must have this md5
+ * @param noneMatch if-none-match: the key must not exist
+ */
+public record WriteCondition(Long matchId, String matchMd5, boolean noneMatch) {
+
+    public static final WriteCondition NONE = new WriteCondition(null, null, false);
+
+    public WriteCondition {
+        if (noneMatch && (matchId != null || matchMd5 != null)) {
+            throw new IllegalArgumentException("ifNoneMatch can't be combined with ifMatch conditions");
+        }
+    }
+
+    public static WriteCondition ifNoneMatch() {
+        return new WriteCondition(null, null, true);
+    }
+
+    public static WriteCondition ifMatchId(long id) {
+        return new WriteCondition(id, null, false);
+    }
+
+    public static WriteCondition ifMatchMd5(String md5) {
+        return new WriteCondition(null, Objects.requireNonNull(md5), false);
+    }
+
+    public boolean isUnconditional() {
+        return matchId == null && matchMd5 == null && !noneMatch;
+    }
+
+    /**
+     * @param current the current version of the key, or {@code null} if it does not exist
+     */
+    public boolean test(ObjectInfo current) {
+        if (noneMatch) {
+            return current == null;
+        }
+        if (matchId == null && matchMd5 == null) {
+            return true;
+        }
+        return current != null
+                && (matchId == null || matchId.equals(current.getId()))
+                && (matchMd5 == null || matchMd5.equals(current.getMd5()));
+    }
+}
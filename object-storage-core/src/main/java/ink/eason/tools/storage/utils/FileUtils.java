@@ -9,36 +9,39 @@ import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.Comparator;
 import java.util.Map.Entry;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class FileUtils {
 
-    public static final MessageDigest MD_5;
-
-    static {
+    // MessageDigest is stateful, concurrent saves must not share one
+    private static final ThreadLocal<MessageDigest> MD_5 = ThreadLocal.withInitial(() -> {
         try {
-            MD_5 = MessageDigest.getInstance("MD5");
+            return MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
-    }
+    });
 
     public static long copy(InputStream in, Path out) throws IOException {
         return Files.copy(in, out);
     }
 
     public static Entry<Long, String> copyAndCalculateMd5(InputStream in, Path out) throws IOException {
-
+        MessageDigest md5 = MD_5.get();
+        md5.reset();
         try (OutputStream fileOutputStream = Files.newOutputStream(out)) {
             byte[] buffer = new byte[8192];
             int bytesRead;
             while ((bytesRead = in.read(buffer)) != -1) {
                 fileOutputStream.write(buffer, 0, bytesRead);
-                MD_5.update(buffer, 0, bytesRead);
+                md5.update(buffer, 0, bytesRead);
             }
         }
 
-        byte[] digest = MD_5.digest();
+        byte[] digest = md5.digest();
         StringBuilder sb = new StringBuilder();
         for (byte b : digest) {
             sb.append(String.format("%02x", b));
@@ -53,4 +56,16 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Deletes {@code dir} and everything below it that is not excluded; excluded files and their directories stay.
+     */
+    public static void deleteRecursively(Path dir, Predicate<Path> exclude) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            // deepest first, so that directories are empty by the time they are reached
+            paths.sorted(Comparator.reverseOrder()).filter(exclude.negate()).forEach(FileUtils::delete);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
 }
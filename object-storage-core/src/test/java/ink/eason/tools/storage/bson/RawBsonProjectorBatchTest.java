@@ -0,0 +1,116 @@
+package ink.eason.tools.storage.bson;
+
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionMode;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonSerializationException;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RawBsonProjectorBatchTest {
+
+    private static final int DOCUMENTS = 20_000;
+
+    private final RawBsonProjector projector = new RawBsonProjector(Set.of("i", "name"), ProjectionMode.INCLUSIVE, false,
+            BsonDocument.parse("{ 'even': true }"));
+
+    @Test
+    void projectsStreamInOrder() {
+        ByteBuffer stream = stream();
+        List<BsonDocument> output = new ArrayList<>();
+
+        projector.projectAll(stream, buffer -> output.add(document(buffer)), true);
+
+        assertEquals(expected(), output);
+        assertEquals(stream.limit(), stream.position());
+    }
+
+    @Test
+    void projectsStreamInCompletionOrder() {
+        List<BsonDocument> output = new ArrayList<>();
+
+        projector.projectAll(stream(), buffer -> output.add(document(buffer)), false);
+
+        output.sort(Comparator.comparingInt(document -> document.getInt32("i").getValue()));
+        assertEquals(expected(), output);
+    }
+
+    @Test
+    void projectsStreamInPlace() {
+        RawBsonProjector inPlace = new RawBsonProjector(Set.of("i", "name"), ProjectionMode.INCLUSIVE, true,
+                BsonDocument.parse("{ 'even': true }"));
+        List<BsonDocument> output = new ArrayList<>();
+
+        inPlace.projectAll(stream(), buffer -> output.add(document(buffer)), true);
+
+        assertEquals(expected(), output);
+    }
+
+    @Test
+    void writesStreamToChannel() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        projector.projectAll(stream(), Channels.newChannel(out));
+
+        List<BsonDocument> output = new ArrayList<>();
+        ByteBuffer written = ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        while (written.hasRemaining()) {
+            int length = written.getInt(written.position());
+            output.add(document(written.slice(written.position(), length)));
+            written.position(written.position() + length);
+        }
+        assertEquals(expected(), output);
+    }
+
+    @Test
+    void rejectsTruncatedStream() {
+        ByteBuffer stream = stream();
+        stream.limit(stream.limit() - 1);
+
+        assertThrows(BsonSerializationException.class, () -> projector.projectAll(stream, buffer -> {}, true));
+        assertEquals(0, stream.position());
+    }
+
+    private static ByteBuffer stream() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            BsonDocument document = new BsonDocument("i", new BsonInt32(i))
+                    .append("name", new BsonString("document " + i))
+                    .append("padding", new BsonString("x".repeat(i % 50)))
+                    .append("even", i % 2 == 0 ? BsonBoolean.TRUE : BsonBoolean.FALSE);
+            ByteBuffer bytes = new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer().asNIO();
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static List<BsonDocument> expected() {
+        List<BsonDocument> expected = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS; i += 2) {
+            expected.add(new BsonDocument("i", new BsonInt32(i)).append("name", new BsonString("document " + i)));
+        }
+        return expected;
+    }
+
+    private static BsonDocument document(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new RawBsonDocument(bytes).toBsonDocument();
+    }
+}
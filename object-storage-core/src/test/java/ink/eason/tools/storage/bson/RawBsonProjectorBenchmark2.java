@@ -81,6 +81,12 @@ public class RawBsonProjectorBenchmark2 {
 
     private RawBsonProjector projectorInstance;
 
+    // 300 个字段中只投影 3 个
+    private ByteBuffer wideInputBuffer;
+    private RawBsonProjector wideProjectorInstance;
+    private final RawBsonProjector.ProjectionContext wideContext = new RawBsonProjector.ProjectionContext();
+    private ByteBuffer wideOutputBuffer;
+
     // 使用标准的Codec进行编解码
     private final BsonDocumentCodec documentCodec = new BsonDocumentCodec();
 
@@ -115,6 +121,19 @@ public class RawBsonProjectorBenchmark2 {
                 true,
                 null
         );
+
+        BsonDocument wideDoc = new BsonDocument();
+        for (int i = 0; i < 300; i++) {
+            wideDoc.put("field_" + i, i % 2 == 0 ? new BsonInt32(i) : new BsonString("value_" + i));
+        }
+        this.wideInputBuffer = ByteBuffer.wrap(new RawBsonDocument(wideDoc, documentCodec).getByteBuffer().array());
+        this.wideProjectorInstance = new RawBsonProjector(
+                new HashSet<>(Arrays.asList("field_7", "field_150", "field_299")),
+                RawBsonProjector.ProjectionMode.INCLUSIVE,
+                false,
+                null
+        );
+        this.wideOutputBuffer = ByteBuffer.allocate(wideInputBuffer.capacity());
     }
 
     @Setup(Level.Invocation)
@@ -155,6 +174,74 @@ public class RawBsonProjectorBenchmark2 {
     }
 
 
+    /**
+     * 场景5: 宽文档投影 (Inclusive, 300 个字段中取 3 个)
+     */
+    @Benchmark
+    public void wideDocumentProjection_instance(Blackhole bh) {
+        wideInputBuffer.position(0);
+        bh.consume(wideProjectorInstance.project(wideInputBuffer));
+    }
+
+    /**
+     * 场景6: 宽文档投影，复用 ProjectionContext 并写入调用方的输出缓冲区
+     */
+    @Benchmark
+    public void wideDocumentProjection_context(Blackhole bh) {
+        wideInputBuffer.position(0);
+        wideOutputBuffer.clear();
+        bh.consume(wideProjectorInstance.project(wideInputBuffer, wideOutputBuffer, wideContext));
+    }
+
+
+    /**
+     * 10 MB 的文档，排除其中两个大字段
+     */
+    @State(Scope.Benchmark)
+    public static class LargeDocumentState {
+
+        private final RawBsonProjector inPlaceProjector = new RawBsonProjector(
+                Set.of("blob_3", "blob_7"), RawBsonProjector.ProjectionMode.EXCLUSIVE, true, null);
+        private final RawBsonProjector copyProjector = new RawBsonProjector(
+                Set.of("blob_3", "blob_7"), RawBsonProjector.ProjectionMode.EXCLUSIVE, false, null);
+        private byte[] bytes;
+        private ByteBuffer buffer;
+
+        @Setup
+        public void setup() {
+            BsonDocument doc = new BsonDocument();
+            for (int i = 0; i < 10; i++) {
+                doc.put("meta_" + i, new BsonString("value_" + i));
+                doc.put("blob_" + i, new BsonBinary(new byte[1024 * 1024]));
+            }
+            this.bytes = new RawBsonDocument(doc, new BsonDocumentCodec()).getByteBuffer().array();
+            this.buffer = ByteBuffer.wrap(bytes.clone());
+        }
+
+        @Setup(Level.Invocation)
+        public void resetBuffer() {
+            System.arraycopy(bytes, 0, buffer.array(), 0, bytes.length);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 场景7: 10 MB 文档排除两个字段，原地压缩
+     */
+    @Benchmark
+    public void largeDocumentExclusion_inPlace(LargeDocumentState state, Blackhole bh) {
+        bh.consume(state.inPlaceProjector.project(state.buffer));
+    }
+
+    /**
+     * 场景8: 10 MB 文档排除两个字段，写入新的缓冲区
+     */
+    @Benchmark
+    public void largeDocumentExclusion_copy(LargeDocumentState state, Blackhole bh) {
+        bh.consume(state.copyProjector.project(state.buffer));
+    }
+
+
     // ================== 辅助方法：创建复杂BSON文档 ==================
 
     private static BsonDocument createComplexBsonDocument() {
@@ -0,0 +1,164 @@
+package ink.eason.tools.storage.bson;
+
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionMode;
+import org.bson.BsonArray;
+import org.bson.BsonBinary;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonSerializationException;
+import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RawBsonProjectorChannelTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void streamsSmallDocumentsToAnyChannel() throws IOException {
+        RawBsonProjector projector = new RawBsonProjector(Set.of("i", "tags.1"), ProjectionMode.INCLUSIVE, false,
+                BsonDocument.parse("{ 'i': { '$gte': 10 } }"));
+        List<BsonDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            documents.add(new BsonDocument("i", new BsonInt32(i))
+                    .append("tags", new BsonArray(List.of(new BsonString("a" + i), new BsonString("b" + i))))
+                    .append("none", BsonNull.VALUE));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = projector.projectAll(Channels.newChannel(new ByteArrayInputStream(stream(documents))),
+                Channels.newChannel(out), 256);
+
+        assertEquals(990, written);
+        assertEquals(expected(projector, documents), split(out.toByteArray()));
+    }
+
+    @Test
+    void streamsDocumentsLargerThanTheWindow() throws IOException {
+        RawBsonProjector projector = new RawBsonProjector(Set.of("big", "nested.blob", "list.1", "small"), ProjectionMode.EXCLUSIVE, false,
+                BsonDocument.parse("{ 'id': { '$ne': 3 } }"));
+        List<BsonDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            documents.add(largeDocument(i));
+        }
+
+        Path file = tempDir.resolve("out.bson");
+        long written;
+        try (InputStream in = new ByteArrayInputStream(stream(documents));
+             FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            written = projector.projectAll(Channels.newChannel(in), out, 128);
+        }
+
+        assertEquals(5, written);
+        assertEquals(expected(projector, documents), split(Files.readAllBytes(file)));
+    }
+
+    @Test
+    void seeksPastDroppedValuesOfASeekableInput() throws IOException {
+        RawBsonProjector projector = new RawBsonProjector(Set.of("id", "nested.name", "list"), ProjectionMode.INCLUSIVE, false, null);
+        List<BsonDocument> documents = List.of(largeDocument(1), largeDocument(2));
+        Path in = Files.write(tempDir.resolve("in.bson"), stream(documents));
+        Path file = tempDir.resolve("out.bson");
+
+        try (FileChannel input = FileChannel.open(in);
+             FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            projector.projectAll(input, out, 100);
+        }
+
+        assertEquals(expected(projector, documents), split(Files.readAllBytes(file)));
+    }
+
+    @Test
+    void inputStreamsAreProjectedWithTheDefaultWindow() throws IOException {
+        RawBsonProjector projector = new RawBsonProjector(Set.of("id"), ProjectionMode.INCLUSIVE, false, null);
+        List<BsonDocument> documents = List.of(largeDocument(1), largeDocument(2));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        projector.projectAll(new ByteArrayInputStream(stream(documents)), Channels.newChannel(out));
+
+        assertEquals(expected(projector, documents), split(out.toByteArray()));
+    }
+
+    @Test
+    void documentsLargerThanTheWindowNeedASeekableOutput() {
+        RawBsonProjector projector = new RawBsonProjector(Set.of("id"), ProjectionMode.INCLUSIVE, false, null);
+        byte[] stream = stream(List.of(largeDocument(1)));
+
+        assertThrows(BsonSerializationException.class, () -> projector.projectAll(
+                Channels.newChannel(new ByteArrayInputStream(stream)), Channels.newChannel(new ByteArrayOutputStream()), 128));
+    }
+
+    @Test
+    void rejectsTruncatedStream() {
+        RawBsonProjector projector = new RawBsonProjector(Set.of("id"), ProjectionMode.INCLUSIVE, false, null);
+        byte[] stream = stream(List.of(new BsonDocument("id", new BsonInt32(1))));
+        ByteArrayInputStream in = new ByteArrayInputStream(stream, 0, stream.length - 1);
+
+        assertThrows(BsonSerializationException.class, () -> projector.projectAll(in, Channels.newChannel(new ByteArrayOutputStream())));
+    }
+
+    private static BsonDocument largeDocument(int id) {
+        return new BsonDocument("id", new BsonInt32(id))
+                .append("big", new BsonBinary(new byte[1000 + id]))
+                .append("nested", new BsonDocument("name", new BsonString("nested " + id))
+                        .append("blob", new BsonString("x".repeat(500)))
+                        .append("regex", new BsonRegularExpression("^a.*" + id, "i")))
+                .append("list", new BsonArray(List.of(new BsonString("y".repeat(300)), new BsonInt32(id), new BsonString("z".repeat(300)))))
+                .append("small", new BsonInt32(-id))
+                .append("none", BsonNull.VALUE);
+    }
+
+    private static byte[] stream(List<BsonDocument> documents) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (BsonDocument document : documents) {
+            ByteBuffer bytes = new RawBsonDocument(document, new BsonDocumentCodec()).getByteBuffer().asNIO();
+            out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        return out.toByteArray();
+    }
+
+    private static List<BsonDocument> expected(RawBsonProjector projector, List<BsonDocument> documents) {
+        List<BsonDocument> expected = new ArrayList<>();
+        for (BsonDocument document : documents) {
+            RawBsonDocument projected = projector.project(new RawBsonDocument(document, new BsonDocumentCodec()));
+            if (projected != null) {
+                expected.add(projected.toBsonDocument());
+            }
+        }
+        return expected;
+    }
+
+    private static List<BsonDocument> split(byte[] bytes) {
+        List<BsonDocument> documents = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int length = buffer.getInt(buffer.position());
+            documents.add(new RawBsonDocument(bytes, buffer.position(), length).toBsonDocument());
+            buffer.position(buffer.position() + length);
+        }
+        return documents;
+    }
+}
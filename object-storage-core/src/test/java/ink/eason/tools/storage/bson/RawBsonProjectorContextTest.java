@@ -0,0 +1,85 @@
+package ink.eason.tools.storage.bson;
+
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionContext;
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionMode;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawBsonProjectorContextTest {
+
+    private final RawBsonProjector projector = new RawBsonProjector(Set.of("a", "c.d"), ProjectionMode.INCLUSIVE, false,
+            BsonDocument.parse("{ 'b': { '$gt': 1 } }"));
+
+    @Test
+    void contextOutputIsReusedBetweenDocuments() {
+        ProjectionContext context = new ProjectionContext();
+
+        ByteBuffer first = projector.project(bytes("{ 'a': 1, 'b': 2, 'c': { 'd': 'x', 'e': 'y' } }"), context);
+        assertEquals(BsonDocument.parse("{ 'a': 1, 'c': { 'd': 'x' } }"), document(first));
+
+        assertNull(projector.project(bytes("{ 'a': 2, 'b': 1 }"), context));
+
+        ByteBuffer third = projector.project(bytes("{ 'a': 3, 'b': 3 }"), context);
+        assertEquals(BsonDocument.parse("{ 'a': 3 }"), document(third));
+        assertSame(first, third, "the output buffer of the context is reused");
+    }
+
+    @Test
+    void projectsIntoCallerOwnedOutput() {
+        ProjectionContext context = new ProjectionContext();
+        ByteBuffer output = ByteBuffer.allocate(256).order(ByteOrder.BIG_ENDIAN);
+
+        assertTrue(projector.project(bytes("{ 'a': 1, 'b': 2 }"), output, context));
+        int end = output.position();
+        assertFalse(projector.project(bytes("{ 'a': 2, 'b': 0 }"), output, context));
+        assertEquals(end, output.position());
+        assertTrue(projector.project(bytes("{ 'c': { 'd': true }, 'b': 5 }"), output, context));
+        assertEquals(ByteOrder.BIG_ENDIAN, output.order());
+
+        output.flip();
+        assertEquals(BsonDocument.parse("{ 'a': 1 }"), document(output.slice(0, end)));
+        assertEquals(BsonDocument.parse("{ 'c': { 'd': true } }"), document(output.slice(end, output.limit() - end)));
+    }
+
+    @Test
+    void rejectsOutputSmallerThanInput() {
+        ByteBuffer input = bytes("{ 'a': 1, 'b': 2 }");
+        assertThrows(IllegalArgumentException.class,
+                () -> projector.project(input, ByteBuffer.allocate(input.remaining() - 1), new ProjectionContext()));
+    }
+
+    @Test
+    void threadLocalContextDoesNotKeepTheInputOrTheFilters() {
+        assertEquals(BsonDocument.parse("{ 'a': 1 }"), document(projector.project(bytes("{ 'a': 1, 'b': 2 }"))));
+        ProjectionContext context = RawBsonProjector.threadLocalContext();
+        assertNull(context.scannedInput());
+        assertFalse(context.hasFilter());
+
+        // also when the filters reject the document
+        assertNull(projector.project(bytes("{ 'a': 1, 'b': 0 }")));
+        assertNull(context.scannedInput());
+        assertFalse(context.hasFilter());
+    }
+
+    private static ByteBuffer bytes(String json) {
+        return RawBsonDocument.parse(json).getByteBuffer().asNIO();
+    }
+
+    private static BsonDocument document(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new RawBsonDocument(bytes).toBsonDocument();
+    }
+}
@@ -0,0 +1,73 @@
+package ink.eason.tools.storage.bson;
+
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionContext;
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionMode;
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawBsonProjectorDirectBufferTest {
+
+    private static final String JSON = "{ 'a': 1, 'b': 'text', 'c': { 'd': [1, 2, 3], 'e': 'nested' } }";
+    private static final BsonDocument EXPECTED = BsonDocument.parse("{ 'b': 'text', 'c': { 'd': [1, 2, 3] } }");
+    private static final Set<String> FIELDS = Set.of("b", "c.d");
+
+    @Test
+    void projectsDirectInputIntoDirectOutput() {
+        ByteBuffer output = RawBsonProjector.project(direct(JSON), FIELDS);
+
+        assertTrue(output.isDirect());
+        assertEquals(EXPECTED, document(output));
+    }
+
+    @Test
+    void projectsDirectInputInPlace() {
+        ByteBuffer input = direct(JSON);
+        ByteBuffer output = RawBsonProjector.project(input, true, FIELDS, ProjectionMode.INCLUSIVE, null);
+
+        assertTrue(output.isDirect());
+        assertEquals(EXPECTED, document(output));
+    }
+
+    @Test
+    void contextOutputFollowsTheInput() {
+        RawBsonProjector projector = new RawBsonProjector(FIELDS, ProjectionMode.INCLUSIVE, false, null);
+        ProjectionContext context = new ProjectionContext();
+
+        assertTrue(projector.project(direct(JSON), context).isDirect());
+        assertEquals(EXPECTED, document(projector.project(RawBsonDocument.parse(JSON).getByteBuffer().asNIO(), context)));
+        ByteBuffer output = projector.project(direct(JSON), context);
+        assertTrue(output.isDirect());
+        assertEquals(EXPECTED, document(output));
+    }
+
+    @Test
+    void projectsRawDocumentAtAnOffsetInPlace() {
+        byte[] bytes = RawBsonDocument.parse(JSON).getByteBuffer().array();
+        byte[] padded = new byte[bytes.length + 7];
+        System.arraycopy(bytes, 0, padded, 7, bytes.length);
+
+        RawBsonDocument output = RawBsonProjector.project(new RawBsonDocument(padded, 7, bytes.length), true, FIELDS, ProjectionMode.INCLUSIVE, null);
+
+        assertEquals(EXPECTED, output.toBsonDocument());
+    }
+
+    private static ByteBuffer direct(String json) {
+        ByteBuffer bytes = RawBsonDocument.parse(json).getByteBuffer().asNIO();
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.remaining());
+        direct.put(bytes).flip();
+        return direct;
+    }
+
+    private static BsonDocument document(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new RawBsonDocument(bytes).toBsonDocument();
+    }
+}
@@ -321,4 +321,60 @@ public class RawBsonProjectorExclusiveTest {
 
         assertEquals(expectedDoc.toJson(), outputDoc.toJson());
     }
+
+    @Test
+    void testExclusiveProjectionDoesNotMatchKeysThatOnlyContainThePath() {
+        String originalJson = "{ \"a\": { \"b\": {} }, \"xa\": { \"b\": { \"c\": 1, \"d\": 2 } } }";
+        RawBsonDocument rawDoc = RawBsonDocument.parse(originalJson);
+
+        Set<String> exclusions = new HashSet<>();
+        exclusions.add("xa.b.c"); // "a.b" is a substring of this key, but not a prefix
+
+        RawBsonDocument outputDoc = RawBsonProjector.project(rawDoc, exclusions, EXCLUSIVE);
+        RawBsonDocument expectedDoc = RawBsonDocument.parse("{ \"a\": { \"b\": {} }, \"xa\": { \"b\": { \"d\": 2 } } }");
+
+        assertEquals(expectedDoc.toJson(), outputDoc.toJson());
+    }
+
+    @Test
+    void testExclusiveProjectionOfLargeArrayIndex() {
+        StringBuilder json = new StringBuilder("{ \"arr\": [");
+        for (int i = 0; i < 1500; i++) {
+            json.append(i == 0 ? "" : ", ").append(i);
+        }
+        RawBsonDocument rawDoc = RawBsonDocument.parse(json.append("] }").toString());
+
+        Set<String> exclusions = new HashSet<>();
+        exclusions.add("arr[3]");
+        exclusions.add("arr[1200]");
+
+        RawBsonDocument outputDoc = RawBsonProjector.project(rawDoc, exclusions, EXCLUSIVE);
+
+        assertEquals(1498, outputDoc.getArray("arr").size());
+        assertEquals(4, outputDoc.getArray("arr").get(3).asInt32().getValue());
+        assertEquals(1201, outputDoc.getArray("arr").get(1199).asInt32().getValue());
+    }
+
+    @Test
+    void testInPlaceExclusiveProjectionMatchesCopy() {
+        String originalJson = """
+                {
+                  "head": "kept as it is",
+                  "blob": { "$binary": { "base64": "SGVsbG8gQmluYXJ5IERhdGE=", "subType": "00" } },
+                  "nested": { "a": 1, "big": "dropped", "b": [1, 2, 3, 4] },
+                  "arr": [0, 1, { "x": 1, "y": 2 }, 3, 4],
+                  "tail": { "z": true }
+                }
+                """;
+        Set<String> exclusions = Set.of("blob", "nested.big", "arr.1", "arr.2.x");
+        RawBsonDocument expectedDoc = RawBsonProjector.project(RawBsonDocument.parse(originalJson), exclusions, EXCLUSIVE);
+
+        byte[] bytes = RawBsonDocument.parse(originalJson).getByteBuffer().array();
+        RawBsonDocument outputDoc = RawBsonProjector.project(new RawBsonDocument(bytes), true, exclusions, EXCLUSIVE, null);
+
+        assertEquals(expectedDoc.toJson(), outputDoc.toJson());
+        assertEquals(RawBsonDocument.parse("""
+                { "head": "kept as it is", "nested": { "a": 1, "b": [1, 2, 3, 4] }, "arr": [0, { "y": 2 }, 3, 4], "tail": { "z": true } }
+                """).toJson(), outputDoc.toJson());
+    }
 }
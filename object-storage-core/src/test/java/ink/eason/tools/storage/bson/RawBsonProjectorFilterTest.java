@@ -1,17 +1,37 @@
 package ink.eason.tools.storage.bson;
 
 import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionMode;
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDateTime;
+import org.bson.BsonDecimal128;
 import org.bson.BsonDocument;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.BsonValue;
 import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Comprehensive tests for the filtering functionality of RawBsonDocumentProjector.
@@ -271,6 +291,15 @@ class RawBsonProjectorFilterTest {
             assertNotNull(result, "Should successfully match a field in a nested document");
         }
 
+        @Test
+        @DisplayName("Nested Document: Success filtering on a field inside a projected nested document")
+        void testMatch_FieldInsideProjectedDocument_Success() {
+            BsonDocument filter = BsonDocument.parse("{ 'nestedDoc.nestedArray.1': 20 }");
+            RawBsonDocument result = RawBsonProjector.project(testDoc, Set.of("nestedDoc"), ProjectionMode.INCLUSIVE, filter);
+            assertNotNull(result, "Should match a field inside a document that is projected as a whole");
+            assertEquals(testDoc.getDocument("nestedDoc"), result.getDocument("nestedDoc"));
+        }
+
 
         @Test
         @DisplayName("Nested Document: Fail filtering on a field in a nested document")
@@ -334,5 +363,135 @@ class RawBsonProjectorFilterTest {
             assertNull(result, "Document should be filtered when filtering on a non-existent field");
         }
     }
-}
 
+    @Nested
+    @DisplayName("Incremental Evaluation Tests")
+    class IncrementalEvaluationTests {
+
+        @Test
+        @DisplayName("Rejection: the input is consumed when the filter rejects the document midway")
+        void testReject_ConsumesWholeDocument() {
+            ByteBuffer input = testDoc.getByteBuffer().asNIO();
+            BsonDocument filter = BsonDocument.parse("{ 'docId': 'doc-2', 'items.1.stock': 15 }");
+            ByteBuffer result = RawBsonProjector.project(input, false, Set.of("docId", "items"), ProjectionMode.INCLUSIVE, filter);
+            assertNull(result, "Document should be filtered by its first field");
+            assertEquals(input.limit(), input.position(), "The whole document should be consumed");
+        }
+
+        @Test
+        @DisplayName("Nested $or in $and: Success when a later $or branch decides")
+        void testMatch_NestedOrInAnd_Success() {
+            BsonDocument filter = BsonDocument.parse("{ 'intValue': 100, '$or': [ { 'docId': 'other' }, { '$and': [ { 'tags.2': 'bson' }, { 'nestedDoc.nestedInt': { '$lte': 50 } } ] } ] }");
+            RawBsonDocument result = RawBsonProjector.project(testDoc, DUMMY_PROJECTION, ProjectionMode.INCLUSIVE, filter);
+            assertNotNull(result, "Document should be kept when the nested $and branch of $or is met");
+        }
+
+        @Test
+        @DisplayName("Nested $or in $and: Fail when no $or branch is met")
+        void testMatch_NestedOrInAnd_Fail() {
+            BsonDocument filter = BsonDocument.parse("{ 'intValue': 100, '$or': [ { 'docId': 'other' }, { '$and': [ { 'tags.2': 'bson' }, { 'nestedDoc.nestedInt': { '$lt': 50 } } ] } ] }");
+            RawBsonDocument result = RawBsonProjector.project(testDoc, DUMMY_PROJECTION, ProjectionMode.INCLUSIVE, filter);
+            assertNull(result, "Document should be filtered when no branch of $or is met");
+        }
+
+        @Test
+        @DisplayName("Array index: Success with a bracket index in the filter key")
+        void testMatch_BracketIndexKey_Success() {
+            BsonDocument filter = BsonDocument.parse("{ 'items[1].stock': 15, 'tags[0]': 'mongodb' }");
+            RawBsonDocument result = RawBsonProjector.project(testDoc, DUMMY_PROJECTION, ProjectionMode.INCLUSIVE, filter);
+            assertNotNull(result, "Bracket indexes should address array elements like dotted ones");
+        }
+
+        @Test
+        @DisplayName("Missing field: $ne is met by a field the document does not have")
+        void testMatch_NeOnMissingField_Success() {
+            BsonDocument filter = BsonDocument.parse("{ 'nonExistentField': { '$ne': 1 }, 'docId': 'doc-1' }");
+            RawBsonDocument result = RawBsonProjector.project(testDoc, DUMMY_PROJECTION, ProjectionMode.INCLUSIVE, filter);
+            assertNotNull(result, "A missing field should be decided at the end of the document");
+        }
+    }
+
+    @Nested
+    @DisplayName("Encoded Value Comparison Tests")
+    class EncodedValueTests {
+
+        @Test
+        @DisplayName("Numbers: a long and a double are compared exactly")
+        void testMatch_LongComparedToDouble_Exact() {
+            RawBsonDocument doc = document(new BsonInt64(9007199254740993L));
+            assertNotNull(project(doc, "{ 'v': { '$gt': 9007199254740992.0 } }"), "2^53 + 1 is greater than 2^53");
+            assertNull(project(doc, "{ 'v': 9007199254740992.0 }"), "2^53 + 1 is not 2^53");
+        }
+
+        @Test
+        @DisplayName("Numbers: an operator left to the decoded filter does not change the others")
+        void testMatch_UndecidedOperatorKeepsExactComparison() {
+            RawBsonDocument doc = document(new BsonInt64(9007199254740993L));
+            String gt = "{ 'v': { '$gt': 9007199254740992.0, '$gte': { '$numberDecimal': '0' } } }";
+            String in = "{ 'v': { '$in': [9007199254740992.0, { '$numberDecimal': '1' }] } }";
+            assertNotNull(project(doc, gt), "2^53 + 1 is greater than 2^53");
+            assertNull(project(doc, in), "2^53 + 1 is neither 2^53 nor 1");
+            Map<String, BsonValue> decoded = Map.of("v", new BsonInt64(9007199254740993L));
+            assertTrue(RawBsonProjector.BsonDocumentFilter.matches(decoded, BsonDocument.parse(gt)));
+            assertFalse(RawBsonProjector.BsonDocumentFilter.matches(decoded, BsonDocument.parse(in)));
+            assertNotNull(project(document(new BsonDecimal128(Decimal128.parse("-0"))), "{ 'v': { '$gte': 0, '$lte': -0.0 } }"));
+        }
+
+        @Test
+        @DisplayName("Numbers: an int32 and a fractional double")
+        void testMatch_IntComparedToFraction() {
+            assertNotNull(project(document(new BsonInt32(100)), "{ 'v': { '$gt': 99.5, '$lt': 100.5 } }"));
+            assertNotNull(project(document(new BsonDouble(-0.5)), "{ 'v': { '$gt': -1, '$lt': { '$numberLong': '0' } } }"));
+            assertNull(project(document(new BsonDouble(Double.NaN)), "{ 'v': { '$lt': 0 } }"), "NaN is greater than any number");
+        }
+
+        @Test
+        @DisplayName("Strings: ordered like Java strings")
+        void testMatch_StringOrder() {
+            // U+1F600 is encoded before U+FFFD in UTF-8, its surrogates sort before it in UTF-16
+            assertNotNull(project(document(new BsonString("\uD83D\uDE00")), "{ 'v': { '$lt': '\uFFFD' } }"));
+            assertNotNull(project(document(new BsonString("abc")), "{ 'v': { '$gt': 'ab', '$lt': 'abd' } }"));
+            assertNull(project(document(new BsonString("abc")), "{ 'v': { '$in': ['ab', 'abcd'] } }"));
+        }
+
+        @Test
+        @DisplayName("ObjectId: ordered by its bytes")
+        void testMatch_ObjectIdOrder() {
+            RawBsonDocument doc = document(new BsonObjectId(new ObjectId("6514213e8a48af317e3e622a")));
+            assertNotNull(project(doc, "{ 'v': { '$gt': { '$oid': '6514213e8a48af317e3e6229' }, '$lte': { '$oid': '6514213e8a48af317e3e622a' } } }"));
+        }
+
+        @Test
+        @DisplayName("Parity: the same results as the decoded filter")
+        void testMatch_SameAsDecodedFilter() {
+            List<BsonValue> values = List.of(new BsonInt32(7), new BsonInt64(-3), new BsonDouble(7.0), new BsonDouble(2.5),
+                    new BsonString("b"), new BsonString("é"), BsonBoolean.TRUE, BsonNull.VALUE, new BsonDateTime(1000),
+                    new BsonObjectId(new ObjectId("6514213e8a48af317e3e622a")), new BsonDecimal128(new Decimal128(7)),
+                    new BsonInt64(9007199254740993L), new BsonDouble(9007199254740992.0), new BsonDouble(Double.NaN),
+                    new BsonDecimal128(Decimal128.parse("9007199254740993")), new BsonDecimal128(Decimal128.NaN),
+                    new BsonDocument("x", new BsonInt32(1)), new BsonArray(List.of(new BsonInt32(7))));
+            List<String> operators = List.of("$eq", "$ne", "$gt", "$gte", "$lt", "$lte", "$in", "$nin", "$exists", "$regex");
+            for (BsonValue value : values) {
+                RawBsonDocument doc = document(value);
+                for (String operator : operators) {
+                    for (BsonValue operand : values) {
+                        BsonValue argument = operator.equals("$in") || operator.equals("$nin") ? new BsonArray(List.of(operand, new BsonInt32(-1)))
+                                : operator.equals("$regex") ? new BsonString("^b") : operand;
+                        BsonDocument filter = new BsonDocument("v", new BsonDocument(operator, argument));
+                        boolean expected = RawBsonProjector.BsonDocumentFilter.matches(Map.of("v", value), filter);
+                        RawBsonDocument result = RawBsonProjector.project(doc, DUMMY_PROJECTION, ProjectionMode.INCLUSIVE, filter);
+                        assertEquals(expected, result != null, value + " " + filter);
+                    }
+                }
+            }
+        }
+
+        private static RawBsonDocument document(BsonValue value) {
+            return new RawBsonDocument(new BsonDocument("docId", new BsonString("doc")).append("v", value), new BsonDocumentCodec());
+        }
+
+        private static RawBsonDocument project(RawBsonDocument doc, String filter) {
+            return RawBsonProjector.project(doc, DUMMY_PROJECTION, ProjectionMode.INCLUSIVE, BsonDocument.parse(filter));
+        }
+    }
+}
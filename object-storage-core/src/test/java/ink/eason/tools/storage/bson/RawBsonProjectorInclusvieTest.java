@@ -1,5 +1,6 @@
 package ink.eason.tools.storage.bson;
 
+import ink.eason.tools.storage.bson.RawBsonProjector.ProjectionMode;
 import org.bson.Document;
 import org.bson.RawBsonDocument;
 import org.junit.jupiter.api.BeforeEach;
@@ -266,4 +267,18 @@ class RawBsonProjectorInclusvieTest {
 
         assertEquals(expectedDoc, actualDoc);
     }
+
+    @ParameterizedTest(name = "[{index}] {0}")
+    @MethodSource("projectionTestCases")
+    @DisplayName("Should project the same fields in place")
+    void shouldProjectInPlace(String testName, Set<String> projection, String expectedJson) {
+
+        byte[] docBytes = new byte[PROTO_DOCUMENT.getByteBuffer().asNIO().remaining()];
+        PROTO_DOCUMENT.getByteBuffer().asNIO().get(docBytes);
+
+        // the output overwrites the input from its first byte, including the length of every document it descends into
+        RawBsonDocument result = RawBsonProjector.project(new RawBsonDocument(docBytes), true, projection, ProjectionMode.INCLUSIVE, null);
+
+        assertEquals(Document.parse(expectedJson), Document.parse(result.toJson()));
+    }
 }
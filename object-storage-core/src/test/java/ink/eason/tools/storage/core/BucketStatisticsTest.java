@@ -0,0 +1,69 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.core.BucketStats.PartitionStats;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BucketStatisticsTest {
+
+    private static final long DAY_1 = Instant.parse("2025-09-13T10:00:00Z").toEpochMilli();
+    private static final long DAY_2 = Instant.parse("2025-09-14T10:00:00Z").toEpochMilli();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void inMemoryRepositoryTracksSavesOverwritesAndDeletes() {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            exercise(repository);
+            assertExpectedStats(repository.getBucketStats("bucket"));
+            assertEquals(new BucketStats("empty", 0, 0, new TreeMap<>()), repository.getBucketStats("empty"));
+        }
+    }
+
+    @Test
+    void mappedRepositoryPersistsStatistics() {
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 64)) {
+            exercise(repository);
+            assertExpectedStats(repository.getBucketStats("bucket"));
+        }
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 64)) {
+            assertExpectedStats(repository.getBucketStats("bucket"));
+        }
+    }
+
+    @Test
+    void storageExposesTheStatisticsOfAMappedRepository() {
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir.resolve("meta"), 64);
+             AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir.resolve("storage"), repository) {}) {
+            exercise(storage);
+            assertExpectedStats(storage.measurable().orElseThrow().getBucketStats("bucket"));
+            assertTrue(storage.queryable().isEmpty());
+        }
+    }
+
+    private static void exercise(ObjectInfoRepository repository) {
+        repository.saveObjectInfo(objectInfo("bucket", "a", DAY_1, 100));
+        repository.saveObjectInfo(objectInfo("bucket", "b", DAY_1, 50));
+        repository.saveObjectInfo(objectInfo("bucket", "c", DAY_2, 7));
+        // overwrite moves "a" to another partition and changes its size
+        repository.saveObjectInfo(objectInfo("bucket", "a", DAY_2, 3));
+        repository.deleteObjectInfo(objectInfo("bucket", "b", DAY_1, 50));
+        repository.deleteObjectInfo(objectInfo("bucket", "missing", DAY_1, 1));
+    }
+
+    private static void assertExpectedStats(BucketStats stats) {
+        assertEquals(2, stats.objectCount());
+        assertEquals(10, stats.totalSize());
+        assertEquals(Map.of("20250914", new PartitionStats(2, 10)), stats.partitions());
+    }
+}
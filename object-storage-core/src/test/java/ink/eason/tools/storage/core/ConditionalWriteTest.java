@@ -0,0 +1,158 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConditionalWriteTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void ifNoneMatchAndIfMatch() throws IOException {
+        AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {};
+        storage.saveObject("bucket", "key", null, null, content("v1"), WriteCondition.ifNoneMatch());
+        ObjectInfo v1 = storage.getObjectInfo("bucket", "key");
+
+        assertThrows(PreconditionFailedException.class,
+                () -> storage.saveObject("bucket", "key", null, null, content("v2"), WriteCondition.ifNoneMatch()));
+        assertThrows(PreconditionFailedException.class,
+                () -> storage.saveObject("bucket", "key", null, null, content("v2"), WriteCondition.ifMatchId(v1.getId() + 1)));
+
+        storage.saveObject("bucket", "key", null, null, content("v2"), WriteCondition.ifMatchMd5(v1.getMd5()));
+        assertEquals("v2", read(storage.getObject("bucket", "key")));
+        assertThrows(PreconditionFailedException.class, () -> storage.deleteObject("bucket", "key", WriteCondition.ifMatchId(v1.getId())));
+
+        storage.deleteObject("bucket", "key", WriteCondition.ifMatchId(storage.getObjectInfo("bucket", "key").getId()));
+        assertNull(storage.getObjectInfo("bucket", "key"));
+        // failed writes leave no files behind
+        try (Stream<Path> files = Files.walk(storage.dataDir)) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void contendedConditionalWriteFailsBeforeCopying() throws Exception {
+        AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {};
+        CountDownLatch copying = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream slow = new ByteArrayInputStream("slow".getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                copying.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.read(b, off, len);
+            }
+        };
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = Thread.ofVirtual().start(() -> {
+            try {
+                storage.saveObject("bucket", "key", null, null, slow, WriteCondition.ifNoneMatch());
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        copying.await();
+
+        InputStream never = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("content of a contended write must not be read");
+            }
+        };
+        assertThrows(ConcurrentWriteException.class,
+                () -> storage.saveObject("bucket", "key", null, null, never, WriteCondition.ifNoneMatch()));
+
+        release.countDown();
+        writer.join();
+        assertNull(failure.get());
+        assertEquals("slow", read(storage.getObject("bucket", "key")));
+
+        // an unconditional write racing a conditional one wins or loses at the repository
+        ObjectInfo current = storage.getObjectInfo("bucket", "key");
+        storage.saveObject("bucket", "key", content("other"));
+        assertThrows(PreconditionFailedException.class,
+                () -> storage.saveObject("bucket", "key", null, null, content("stale"), WriteCondition.ifMatchId(current.getId())));
+    }
+
+    @Test
+    void racingConditionalSavesOfAKeyStoreOneVersion() throws Exception {
+        AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {};
+        int writers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger saved = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        AtomicInteger failedPreconditions = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            String content = "v" + i;
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                    storage.saveObject("bucket", "key", null, null, content(content), WriteCondition.ifNoneMatch());
+                    saved.incrementAndGet();
+                } catch (ConcurrentWriteException e) {
+                    conflicts.incrementAndGet();
+                } catch (PreconditionFailedException e) {
+                    failedPreconditions.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, saved.get());
+        assertEquals(writers - 1, conflicts.get() + failedPreconditions.get());
+        try (Stream<Path> files = Files.walk(storage.dataDir)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void deletesFromUnknownBuckets() {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            ObjectInfo missing = objectInfo("unknown", "key");
+            assertNull(repository.deleteObjectInfo(missing));
+            assertNull(repository.deleteObjectInfo(missing, WriteCondition.ifNoneMatch()));
+            assertThrows(PreconditionFailedException.class, () -> repository.deleteObjectInfo(missing, WriteCondition.ifMatchId(1)));
+            assertEquals(Set.of(), repository.listBuckets());
+        }
+    }
+
+    private static InputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        try (inputStream) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HierarchicalTimerWheelTest {
+
+    @Test
+    void timersExpireOnTheirTickAcrossLevels() {
+        HierarchicalTimerWheel<Long> wheel = new HierarchicalTimerWheel<>(10, 3, 0);
+        long[] deadlines = {5, 10, 640, 655, 41_000, 3_000_000, 7_000_000};
+        for (long deadline : deadlines) {
+            wheel.schedule(deadline, deadline);
+        }
+        List<Long> expired = new ArrayList<>();
+        for (long now = 0; now <= 8_000_000; now += 10) {
+            long tickNow = now;
+            wheel.advance(now, deadline -> {
+                // never early and at most one tick late
+                assertTrue(deadline <= tickNow && tickNow - deadline < 10, deadline + " at " + tickNow);
+                expired.add(deadline);
+            });
+        }
+        assertEquals(List.of(5L, 10L, 640L, 655L, 41_000L, 3_000_000L, 7_000_000L), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void largeJumpsExpireEverythingDue() {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(1000, 4, 0);
+        wheel.schedule("past", -5000);
+        wheel.schedule("soon", 1500);
+        wheel.schedule("later", 100_000_000);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(2000, expired::add);
+        assertEquals(List.of("past", "soon"), expired);
+        wheel.advance(99_999_000, expired::add);
+        assertEquals(2, expired.size());
+        wheel.advance(100_000_000, expired::add);
+        assertEquals(List.of("past", "soon", "later"), expired);
+    }
+
+    @Test
+    void cancelledTimersNeverExpire() {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(1000, 4, 0);
+        wheel.schedule("a:1", 1500);
+        wheel.schedule("b:1", 1500);
+        wheel.schedule("a:2", 100_000_000);
+
+        assertEquals(2, wheel.cancelIf(item -> item.startsWith("a:")));
+        assertEquals(1, wheel.size());
+        List<String> expired = new ArrayList<>();
+        wheel.advance(100_000_000, expired::add);
+        assertEquals(List.of("b:1"), expired);
+    }
+}
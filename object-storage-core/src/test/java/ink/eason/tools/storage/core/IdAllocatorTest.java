@@ -0,0 +1,69 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdAllocatorTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void idsAreUniqueAcrossThreads() throws Exception {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        try (IdAllocator allocator = new IdAllocator(null, 16);
+             ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int t = 0; t < 8; t++) {
+                executor.execute(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        ids.add(allocator.nextId());
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(80_000, ids.size());
+        assertTrue(ids.stream().allMatch(id -> id > 0));
+    }
+
+    @Test
+    void restartedAllocatorNeverReusesIds() {
+        Path leaseFile = tempDir.resolve("id.lease");
+        long maxBeforeRestart = 0;
+        try (IdAllocator allocator = new IdAllocator(leaseFile, 4)) {
+            for (int i = 0; i < 100; i++) {
+                maxBeforeRestart = Math.max(maxBeforeRestart, allocator.nextId());
+            }
+        }
+        try (IdAllocator allocator = new IdAllocator(leaseFile, 4)) {
+            assertTrue(allocator.nextId() > maxBeforeRestart);
+        }
+    }
+
+    @Test
+    void advancingPastForeignIdsSurvivesRestarts() {
+        Path leaseFile = tempDir.resolve("id.lease");
+        try (IdAllocator allocator = new IdAllocator(leaseFile, 4)) {
+            // leaves a partly used block on this thread's stripe
+            allocator.nextId();
+            allocator.advancePast(1_000_000);
+            assertTrue(allocator.nextId() > 1_000_000);
+            allocator.advancePast(10);
+            assertTrue(allocator.nextId() > 1_000_000);
+        }
+        try (IdAllocator allocator = new IdAllocator(leaseFile, 4)) {
+            assertTrue(allocator.nextId() > 1_000_000);
+        }
+    }
+}
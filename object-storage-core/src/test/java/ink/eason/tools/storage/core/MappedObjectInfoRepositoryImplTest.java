@@ -0,0 +1,190 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class MappedObjectInfoRepositoryImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void savesOverwritesAndDeletesInPlace() {
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            ObjectInfo a = objectInfo("bucket", "a", 1);
+            a.setBsonMetadata(RawBsonDocument.parse("{ 'owner': 'alice' }"));
+            repository.saveObjectInfo(a);
+            repository.saveObjectInfo(objectInfo("bucket", "b", 2));
+            assertEquals(a, repository.getObjectInfo("bucket", "a"));
+
+            ObjectInfo a2 = objectInfo("bucket", "a", 3);
+            repository.saveObjectInfo(a2);
+            assertEquals(a2, repository.getObjectInfo("bucket", "a"));
+            assertEquals(a2, repository.lastSavedObjectInfo());
+            assertEquals(2, repository.size());
+
+            repository.deleteObjectInfo(a2);
+            assertNull(repository.getObjectInfo("bucket", "a"));
+            assertNull(repository.getObjectInfo("other", "b"));
+            assertEquals(1, repository.size());
+        }
+    }
+
+    @Test
+    void recordsAreAvailableRightAfterReopening() {
+        ObjectInfo saved = objectInfo("bucket", "key", 42);
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            repository.saveObjectInfo(saved);
+        }
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            assertEquals(saved, repository.getObjectInfo("bucket", "key"));
+            ObjectInfo next = objectInfo("bucket", "next", 43);
+            repository.saveObjectInfo(next);
+            assertEquals(true, next.getId() > saved.getId());
+        }
+    }
+
+    @Test
+    void dropsRecordsACrashLeftHalfWritten() throws Exception {
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            repository.saveObjectInfo(objectInfo("bucket", "a", 1, 10));
+            repository.saveObjectInfo(objectInfo("bucket", "b", 1, 20));
+        }
+        tearRecordAndCrash("a");
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+                assertNull(repository.getObjectInfo("bucket", "a"));
+                assertEquals(20, repository.getObjectInfo("bucket", "b").getSize());
+                assertEquals(1, repository.size());
+                assertEquals(1, repository.getBucketStats("bucket").objectCount());
+                assertEquals(20, repository.getBucketStats("bucket").totalSize());
+
+                repository.saveObjectInfo(objectInfo("bucket", "a", 1, 30));
+                assertEquals(30, repository.getObjectInfo("bucket", "a").getSize());
+                assertEquals(2, repository.size());
+            }
+        });
+    }
+
+    @Test
+    void lastSavedHeaderACrashLeftHalfWrittenIsRepaired() throws Exception {
+        ObjectInfo b = objectInfo("bucket", "b", 2);
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            repository.saveObjectInfo(objectInfo("bucket", "a", 1));
+            repository.saveObjectInfo(b);
+        }
+        try (FileChannel channel = FileChannel.open(tempDir.resolve("objectinfo.map"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, 4096).order(ByteOrder.LITTLE_ENDIAN);
+            // not closed, and the writer died between the sequence bump and the slot update at 24
+            map.putInt(40, 0);
+            map.putLong(48, map.getLong(48) + 1);
+            map.putInt(24, 7);
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+                assertEquals(b, repository.lastSavedObjectInfo());
+            }
+        });
+    }
+
+    @Test
+    void aMapIsOpenedByOneRepositoryAtATime() {
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            repository.saveObjectInfo(objectInfo("bucket", "a", 1));
+            assertThrows(IllegalStateException.class, () -> new MappedObjectInfoRepositoryImpl(tempDir, 16));
+        }
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            assertEquals(1, repository.size());
+        }
+    }
+
+    @Test
+    void rejectsRecordsThatDoNotFitAndFullMaps() {
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 4, 128)) {
+            ObjectInfo large = objectInfo("bucket", "large", 1);
+            large.setMetadata("x".repeat(128));
+            assertThrows(IllegalArgumentException.class, () -> repository.saveObjectInfo(large));
+
+            repository.saveObjectInfo(objectInfo("b", "1", 1));
+            repository.saveObjectInfo(objectInfo("b", "2", 1));
+            repository.saveObjectInfo(objectInfo("b", "3", 1));
+            assertThrows(IllegalStateException.class, () -> repository.saveObjectInfo(objectInfo("b", "4", 1)));
+        }
+    }
+
+    @Test
+    void readersNeverObserveTornRecords() throws Exception {
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir, 16)) {
+            repository.saveObjectInfo(version(0));
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicReference<String> torn = new AtomicReference<>();
+            Thread reader = Thread.ofPlatform().start(() -> {
+                while (running.get()) {
+                    ObjectInfo read = repository.getObjectInfo("bucket", "hot");
+                    // every write keeps size, createTime and md5 in step
+                    if (read.getSize() != read.getCreateTime() || !read.getMd5().equals("md5-" + read.getSize())) {
+                        torn.set(read.toString());
+                    }
+                }
+            });
+            for (int i = 1; i < 50_000; i++) {
+                repository.saveObjectInfo(version(i));
+            }
+            running.set(false);
+            reader.join();
+            assertNull(torn.get());
+        }
+    }
+
+    /**
+     * Leaves the record of {@code key} the way a writer dying between beginWrite and endWrite would, in a map that was
+     * not closed.
+     */
+    private void tearRecordAndCrash(String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(tempDir.resolve("objectinfo.map"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            // header: clean shutdown flag at 40, then 16 records of 1024 bytes from 4096
+            map.putInt(40, 0);
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            for (int base = 4096; base < map.capacity(); base += 1024) {
+                int bucketLength = map.getInt(base + 40);
+                byte[] recordKey = new byte[Math.max(map.getInt(base + 44), 0)];
+                map.get(base + 64 + Math.max(bucketLength, 0), recordKey);
+                if (map.getInt(base + 8) == 1 && Arrays.equals(keyBytes, recordKey)) {
+                    map.putLong(base, map.getLong(base) + 1);
+                    // the new size made it to the file, the rest of the record did not
+                    map.putLong(base + 32, 99);
+                    return;
+                }
+            }
+            throw new AssertionError("no record of " + key);
+        }
+    }
+
+    private static ObjectInfo version(long version) {
+        ObjectInfo objectInfo = objectInfo("bucket", "hot", version, version);
+        objectInfo.setMd5("md5-" + version);
+        return objectInfo;
+    }
+}
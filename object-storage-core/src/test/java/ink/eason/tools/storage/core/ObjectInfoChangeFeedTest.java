@@ -0,0 +1,166 @@
+package ink.eason.tools.storage.core;
+
+import ink.eason.tools.storage.core.ObjectInfoChange.Type;
+import ink.eason.tools.storage.core.ObjectInfoChangeFeed.Subscription;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectInfoChangeFeedTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void lastSavedObjectInfoReturnsNewestSave() {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            assertNull(repository.lastSavedObjectInfo());
+            repository.saveObjectInfo(objectInfo("bucket", "a"));
+            ObjectInfo b = objectInfo("bucket", "b");
+            repository.saveObjectInfo(b);
+            assertEquals(b, repository.lastSavedObjectInfo());
+        }
+    }
+
+    @Test
+    void subscriberReceivesPastAndLiveChangesInOrder() throws Exception {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            repository.saveObjectInfo(objectInfo("bucket", "a"));
+            repository.saveObjectInfo(objectInfo("other", "x"));
+
+            Received received = new Received(3);
+            try (Subscription ignored = repository.subscribe("bucket", 1, received)) {
+                ObjectInfo b = objectInfo("bucket", "b");
+                repository.saveObjectInfo(b);
+                repository.deleteObjectInfo(b);
+
+                received.await();
+            }
+
+            assertEquals(List.of(1L, 2L, 3L), received.stream().map(ObjectInfoChange::sequence).toList());
+            assertEquals(List.of("a", "b", "b"), received.stream().map(change -> change.objectInfo().getKey()).toList());
+            assertEquals(Type.DELETE, received.get(2).type());
+        }
+    }
+
+    @Test
+    void subscriberCatchesUpFromDurableLogAfterRingOverrun() throws Exception {
+        try (ObjectInfoChangeFeed feed = new ObjectInfoChangeFeed(tempDir, 4)) {
+            for (int i = 0; i < 20; i++) {
+                feed.publish(Type.SAVE, objectInfo("bucket", "key-" + i));
+            }
+            Received received = new Received(18);
+            try (Subscription subscription = feed.subscribe("bucket", 3, received)) {
+                received.await();
+                assertNull(subscription.getFailure());
+            }
+            assertEquals("key-2", received.getFirst().objectInfo().getKey());
+            assertEquals(20, received.getLast().sequence());
+        }
+
+        // sequences continue after a restart instead of starting over
+        try (ObjectInfoChangeFeed feed = new ObjectInfoChangeFeed(tempDir, 4)) {
+            assertEquals(20, feed.lastSequence("bucket"));
+            assertEquals(21, feed.publish(Type.SAVE, objectInfo("bucket", "key-20")).sequence());
+        }
+    }
+
+    @Test
+    void lastSavedObjectInfoIsRecoveredForEveryBucket() {
+        ObjectInfo newest = objectInfo("b", "key", 2);
+        try (ObjectInfoChangeFeed feed = new ObjectInfoChangeFeed(tempDir)) {
+            feed.publish(Type.SAVE, objectInfo("a", "key", 1));
+            feed.publish(Type.SAVE, newest);
+        }
+
+        try (ObjectInfoChangeFeed feed = new ObjectInfoChangeFeed(tempDir)) {
+            // no bucket has been touched since the restart
+            assertEquals(newest, feed.lastSavedObjectInfo());
+        }
+    }
+
+    @Test
+    void publishedChangesSurviveACrash() {
+        ObjectInfoChangeFeed crashed = new ObjectInfoChangeFeed(tempDir);
+        crashed.publish(Type.SAVE, objectInfo("bucket", "a"));
+        crashed.publish(Type.DELETE, objectInfo("bucket", "a"));
+
+        // the first feed is never closed
+        try (ObjectInfoChangeFeed feed = new ObjectInfoChangeFeed(tempDir)) {
+            assertEquals(2, feed.lastSequence("bucket"));
+            assertEquals(Type.DELETE, feed.lastChange("bucket").type());
+        }
+        crashed.close();
+    }
+
+    @Test
+    void feedHistoryIsNotSharedWithCallers() throws Exception {
+        try (ObjectInfoChangeFeed feed = new ObjectInfoChangeFeed(null)) {
+            ObjectInfo objectInfo = objectInfo("bucket", "a");
+            feed.publish(Type.SAVE, objectInfo).objectInfo().setKey("changed");
+            objectInfo.setKey("changed");
+            feed.lastSavedObjectInfo().setKey("changed");
+
+            assertEquals("a", feed.lastSavedObjectInfo().getKey());
+            assertEquals("a", feed.lastChange("bucket").objectInfo().getKey());
+            Received received = new Received(2);
+            try (Subscription ignored = feed.subscribe("bucket", 1, change -> {
+                change.objectInfo().setKey("changed");
+                received.accept(change);
+            })) {
+                feed.publish(Type.SAVE, objectInfo("bucket", "b"));
+                received.await();
+            }
+            assertEquals("b", feed.lastSavedObjectInfo().getKey());
+        }
+    }
+
+    @Test
+    void overrunWithoutLogFailsSubscription() throws Exception {
+        try (ObjectInfoChangeFeed feed = new ObjectInfoChangeFeed(null, 4)) {
+            for (int i = 0; i < 10; i++) {
+                feed.publish(Type.SAVE, objectInfo("bucket", "key-" + i));
+            }
+            Subscription subscription = feed.subscribe("bucket", 1, change -> {});
+            assertTrue(subscription.awaitTermination(5, TimeUnit.SECONDS));
+            assertTrue(subscription.isClosed());
+            assertNotNull(subscription.getFailure());
+        }
+    }
+
+    /**
+     * Collects the changes delivered to a subscription and lets the test wait for the expected number of them.
+     */
+    private static final class Received extends CopyOnWriteArrayList<ObjectInfoChange> implements Consumer<ObjectInfoChange> {
+
+        private final int expected;
+        private final CountDownLatch delivered;
+
+        private Received(int expected) {
+            this.expected = expected;
+            this.delivered = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void accept(ObjectInfoChange change) {
+            add(change);
+            delivered.countDown();
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue(delivered.await(5, TimeUnit.SECONDS), "expected " + expected + " changes, received " + size());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.RawBsonDocument;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ObjectInfoCodec} against the BSON encoding of {@link ObjectInfoSnapshot}; run with the gc profiler to compare
+ * allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectInfoCodecBenchmark {
+
+    private ObjectInfo objectInfo;
+    private ByteBuffer codecBuffer;
+    private ByteBuffer encoded;
+    private ObjectInfo reused;
+    private BasicOutputBuffer bsonBuffer;
+    private byte[] bsonEncoded;
+
+    @Setup
+    public void setup() {
+        objectInfo = new ObjectInfo();
+        objectInfo.setId(123456789L);
+        objectInfo.setBucket("photos");
+        objectInfo.setKey("users/42/albums/summer/IMG_0001.jpg");
+        objectInfo.setPath("photos/20250913/6f1c2a8e-2d4b-4c1e-9f0a-3b5d7e9c1a2f");
+        objectInfo.setCreateTime(1757721600000L);
+        objectInfo.setSize(3_145_728);
+        objectInfo.setMd5("d41d8cd98f00b204e9800998ecf8427e");
+        objectInfo.setMetadata("{\"contentType\":\"image/jpeg\"}");
+        objectInfo.setBsonMetadata(RawBsonDocument.parse("{\"contentType\": \"image/jpeg\", \"width\": 4032, \"height\": 3024}"));
+
+        codecBuffer = ByteBuffer.allocate(1024);
+        ObjectInfoCodec.encode(objectInfo, codecBuffer);
+        encoded = codecBuffer.flip().asReadOnlyBuffer();
+        reused = ObjectInfoCodec.decode(encoded.duplicate(), null);
+
+        bsonBuffer = new BasicOutputBuffer(1024);
+        ObjectInfoSnapshot.write(bsonBuffer, objectInfo);
+        bsonEncoded = bsonBuffer.toByteArray();
+    }
+
+    @Benchmark
+    public void codecEncode(Blackhole bh) {
+        ObjectInfoCodec.encode(objectInfo, codecBuffer.clear());
+        bh.consume(codecBuffer);
+    }
+
+    @Benchmark
+    public void bsonEncode(Blackhole bh) {
+        bsonBuffer.truncateToPosition(0);
+        ObjectInfoSnapshot.write(bsonBuffer, objectInfo);
+        bh.consume(bsonBuffer);
+    }
+
+    @Benchmark
+    public void codecDecodeReused(Blackhole bh) {
+        bh.consume(ObjectInfoCodec.decode(encoded.duplicate(), reused));
+    }
+
+    @Benchmark
+    public void codecDecode(Blackhole bh) {
+        bh.consume(ObjectInfoCodec.decode(encoded.duplicate(), null));
+    }
+
+    @Benchmark
+    public void bsonDecode(Blackhole bh) {
+        bh.consume(ObjectInfoSnapshot.read(bsonEncoded));
+    }
+
+    @Benchmark
+    public void hashCodeAndEquals(Blackhole bh) {
+        bh.consume(objectInfo.hashCode());
+        bh.consume(objectInfo.equals(reused));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ObjectInfoCodecBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,71 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ObjectInfoCodecTest {
+
+    @Test
+    void roundTrip() {
+        ObjectInfo full = objectInfo("bucket", "ключ/🙂/\uD800x", 42L);
+        full.setMetadata("{\"a\":1}");
+        full.setBsonMetadata(RawBsonDocument.parse("{\"a\": 1, \"b\": [1, 2, {\"c\": \"d\"}]}"));
+        full.setCreateTime(-5);
+        ObjectInfo empty = new ObjectInfo();
+
+        for (ObjectInfo objectInfo : new ObjectInfo[]{full, empty}) {
+            for (ByteBuffer buffer : new ByteBuffer[]{ByteBuffer.allocate(256), ByteBuffer.allocateDirect(256)}) {
+                ObjectInfoCodec.encode(objectInfo, buffer);
+                assertEquals(ObjectInfoCodec.encodedLength(objectInfo), buffer.position());
+                ObjectInfo decoded = ObjectInfoCodec.decode(buffer.flip(), null);
+                assertEquals(0, buffer.remaining());
+                if (objectInfo == full) {
+                    // the unpaired surrogate is replaced like String.getBytes does
+                    assertEquals("ключ/🙂/?x", decoded.getKey());
+                    decoded.setKey(objectInfo.getKey());
+                }
+                assertEquals(objectInfo, decoded);
+            }
+        }
+        assertNull(ObjectInfoCodec.decode(encode(empty), null).getBucket());
+        assertThrows(BufferOverflowException.class, () -> ObjectInfoCodec.encode(full, ByteBuffer.allocate(8)));
+    }
+
+    @Test
+    void decodingIntoAnInstanceKeepsEqualValues() {
+        ObjectInfo first = objectInfo("bucket", "a", 1L);
+        first.setBsonMetadata(RawBsonDocument.parse("{\"type\": \"image\"}"));
+        ObjectInfo second = objectInfo("bucket", "b", 2L);
+        second.setBsonMetadata(RawBsonDocument.parse("{\"type\": \"image\"}"));
+
+        ObjectInfo reused = ObjectInfoCodec.decode(encode(first), null);
+        String bucket = reused.getBucket();
+        RawBsonDocument bsonMetadata = reused.getBsonMetadata();
+        assertSame(reused, ObjectInfoCodec.decode(encode(second), reused));
+        assertEquals(second, reused);
+        assertSame(bucket, reused.getBucket());
+        assertSame(bsonMetadata, reused.getBsonMetadata());
+    }
+
+    private static ByteBuffer encode(ObjectInfo objectInfo) {
+        ByteBuffer buffer = ByteBuffer.allocate(ObjectInfoCodec.encodedLength(objectInfo));
+        ObjectInfoCodec.encode(objectInfo, buffer);
+        return buffer.flip();
+    }
+
+    private static ObjectInfo objectInfo(String bucket, String key, long id) {
+        ObjectInfo objectInfo = TestObjectInfos.objectInfo(bucket, key, 1757721600000L + id, 1L << 33);
+        objectInfo.setId(id);
+        // the key is not valid UTF-16, keep it out of the path
+        objectInfo.setPath(bucket + "/20250913/6f1c2a8e-2d4b-4c1e-9f0a-3b5d7e9c1a2f");
+        return objectInfo;
+    }
+}
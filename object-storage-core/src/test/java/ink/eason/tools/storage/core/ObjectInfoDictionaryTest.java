@@ -0,0 +1,61 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ObjectInfoDictionaryTest {
+
+    @Test
+    void compactFormExpandsToEqualObjectInfo() {
+        ObjectInfoDictionary dictionary = new ObjectInfoDictionary();
+        ObjectInfo layout = objectInfo("bucket", "a", "bucket/20251019/" + UUID.randomUUID(), "d41d8cd98f00b204e9800998ecf8427e");
+        layout.setBsonMetadata(RawBsonDocument.parse("{\"owner\": \"eason\"}"));
+        ObjectInfo upperCase = objectInfo("bucket", "b", "bucket/20251019/" + UUID.randomUUID().toString().toUpperCase(), "D41D8CD98F00B204E9800998ECF8427E");
+        ObjectInfo other = objectInfo("bucket", "c", "somewhere/else", "not-an-md5");
+        ObjectInfo empty = objectInfo(null, "d", null, null);
+
+        for (ObjectInfo objectInfo : new ObjectInfo[]{layout, upperCase, other, empty}) {
+            assertEquals(objectInfo, dictionary.expand(dictionary.compact(objectInfo)));
+        }
+    }
+
+    @Test
+    void bucketAndMetadataStringsAreShared() {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            ObjectInfo a = objectInfo(new String("bucket"), "a", "bucket/20251019/" + UUID.randomUUID(), null);
+            a.setMetadata(new String("content-type=text/plain"));
+            ObjectInfo b = objectInfo(new String("bucket"), "b", "bucket/20251019/" + UUID.randomUUID(), null);
+            b.setMetadata(new String("content-type=text/plain"));
+            repository.saveObjectInfo(a);
+            repository.saveObjectInfo(b);
+
+            ObjectInfo storedA = repository.getObjectInfo("bucket", "a");
+            ObjectInfo storedB = repository.getObjectInfo("bucket", "b");
+            assertSame(storedA.getBucket(), storedB.getBucket());
+            assertSame(storedA.getMetadata(), storedB.getMetadata());
+            assertEquals(a.getPath(), storedA.getPath());
+            assertEquals(1, repository.sharedStringCount());
+
+            repository.deleteObjectInfo(a);
+            assertEquals(1, repository.sharedStringCount());
+            b.setMetadata(null);
+            repository.saveObjectInfo(b);
+            assertEquals(0, repository.sharedStringCount());
+            assertNull(repository.getObjectInfo("bucket", "b").getMetadata());
+        }
+    }
+
+    private static ObjectInfo objectInfo(String bucket, String key, String path, String md5) {
+        ObjectInfo objectInfo = TestObjectInfos.objectInfo(bucket, key, 1_760_832_000_000L, 123);
+        objectInfo.setId(42L);
+        objectInfo.setPath(path);
+        objectInfo.setMd5(md5);
+        return objectInfo;
+    }
+}
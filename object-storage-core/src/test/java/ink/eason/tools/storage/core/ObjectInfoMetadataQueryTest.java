@@ -0,0 +1,113 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ObjectInfoMetadataQueryTest {
+
+    private InMemoryObjectInfoRepositoryImpl repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryObjectInfoRepositoryImpl();
+        save("a", "{ 'owner': 'alice', 'size': 10, 'tags': ['x', 'y'], 'extra': { 'deep': 1 } }");
+        save("b", "{ 'owner': 'bob', 'size': { '$numberLong': '20' } }");
+        save("c", "{ 'owner': 'alice', 'size': 30.5 }");
+        save("d", "{ 'owner': 'carol', 'size': 'unknown' }");
+        save("e", null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        repository.close();
+    }
+
+    @ParameterizedTest(name = "indexed={0}")
+    @ValueSource(booleans = {false, true})
+    void findsTheSameObjectsWithAndWithoutIndexes(boolean indexed) {
+        if (indexed) {
+            repository.createMetadataIndex("bucket", "owner");
+            repository.createMetadataIndex("bucket", "size");
+        }
+        assertEquals(List.of("a", "c"), keys("{ 'owner': 'alice' }"));
+        assertEquals(List.of("a", "b"), keys("{ 'owner': { '$in': ['alice', 'bob'] }, 'size': { '$lte': 20 } }"));
+        assertEquals(List.of("b", "c"), keys("{ 'size': { '$gt': 10 } }"));
+        // BsonDocumentFilter treats values of another type as smaller, an index must not change that
+        assertEquals(List.of("a", "d"), keys("{ 'size': { '$lt': 20 } }"));
+        assertEquals(List.of("c"), keys("{ '$and': [ { 'owner': 'alice' }, { 'size': { '$gte': 11 } } ] }"));
+        assertEquals(List.of("a", "b", "c", "d", "e"), keys(null));
+    }
+
+    @ParameterizedTest(name = "indexed={0}")
+    @ValueSource(booleans = {false, true})
+    void rangesOnDecimalsMatchLikeTheFilter(boolean indexed) {
+        if (indexed) {
+            repository.createMetadataIndex("bucket", "size");
+        }
+        save("f", "{ 'size': { '$numberDecimal': '5' } }");
+        assertEquals(List.of("d"), keys("{ 'size': { '$lt': 3 } }"));
+        // BsonDocumentFilter only tells whether two decimals are equal, any other pair is "less than"
+        assertEquals(List.of("d", "f"), keys("{ 'size': { '$lt': { '$numberDecimal': '3' } } }"));
+        assertEquals(List.of("a", "b", "c"), keys("{ 'size': { '$gt': { '$numberDecimal': '3' } } }"));
+        assertEquals(List.of("f"), keys("{ 'size': { '$numberDecimal': '5' } }"));
+    }
+
+    @ParameterizedTest(name = "indexed={0}")
+    @ValueSource(booleans = {false, true})
+    void mixedNumbersMatchExactly(boolean indexed) {
+        if (indexed) {
+            repository.createMetadataIndex("bucket", "size");
+        }
+        save("f", "{ 'size': { '$numberLong': '9007199254740993' } }");
+        assertEquals(List.of("f"), keys("{ 'size': { '$gt': 9007199254740992.0, '$gte': { '$numberDecimal': '0' } } }"));
+        assertEquals(List.of(), keys("{ 'size': { '$in': [9007199254740992.0, { '$numberDecimal': '1' }] } }"));
+        assertEquals(List.of("f"), keys("{ 'size': { '$numberDecimal': '9007199254740993' } }"));
+    }
+
+    @ParameterizedTest(name = "indexed={0}")
+    @ValueSource(booleans = {false, true})
+    void indexFollowsOverwritesAndDeletes(boolean indexed) {
+        if (indexed) {
+            repository.createMetadataIndex("bucket", "owner");
+        }
+        save("a", "{ 'owner': 'dave' }");
+        repository.deleteObjectInfo(repository.getObjectInfo("bucket", "c"));
+        assertEquals(List.of(), keys("{ 'owner': 'alice' }"));
+        assertEquals(List.of("a"), keys("{ 'owner': 'dave' }"));
+    }
+
+    @ParameterizedTest(name = "indexed={0}")
+    @ValueSource(booleans = {false, true})
+    void projectsMetadataOfMatchingObjects(boolean indexed) {
+        if (indexed) {
+            repository.createMetadataIndex("bucket", "owner");
+        }
+        List<ObjectInfo> result = repository.findObjectInfos("bucket", BsonDocument.parse("{ 'owner': 'alice', 'extra.deep': 1 }"), Set.of("tags[1]", "extra")).toList();
+        assertEquals(1, result.size());
+        assertEquals(BsonDocument.parse("{ 'tags': ['y'], 'extra': { 'deep': 1 } }"), result.getFirst().getBsonMetadata());
+        // the stored metadata is left untouched
+        assertEquals("alice", repository.getObjectInfo("bucket", "a").getBsonMetadata().getString("owner").getValue());
+    }
+
+    private List<String> keys(String filter) {
+        return repository.findObjectInfos("bucket", filter == null ? null : BsonDocument.parse(filter), null)
+                .map(ObjectInfo::getKey).sorted().toList();
+    }
+
+    private void save(String key, String metadata) {
+        ObjectInfo objectInfo = new ObjectInfo();
+        objectInfo.setBucket("bucket");
+        objectInfo.setKey(key);
+        objectInfo.setBsonMetadata(metadata == null ? null : RawBsonDocument.parse(metadata));
+        repository.saveObjectInfo(objectInfo);
+    }
+}
@@ -0,0 +1,107 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectInfoSnapshotTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void exportAndImportRoundTrip() {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        List<ObjectInfo> exported;
+        try (InMemoryObjectInfoRepositoryImpl source = new InMemoryObjectInfoRepositoryImpl()) {
+            for (int i = 0; i < 5000; i++) {
+                ObjectInfo objectInfo = new ObjectInfo();
+                objectInfo.setBucket("bucket-" + i % 3);
+                objectInfo.setKey("key-" + i);
+                objectInfo.setPath("path/" + i);
+                objectInfo.setCreateTime(i);
+                objectInfo.setSize(i * 10L);
+                objectInfo.setMd5(i % 2 == 0 ? "md5-" + i : null);
+                objectInfo.setMetadata("{\"i\":" + i + "}");
+                if (i % 5 == 0) {
+                    objectInfo.setBsonMetadata(RawBsonDocument.parse("{\"i\": " + i + ", \"tags\": [\"a\", {\"b\": 1}]}"));
+                }
+                source.saveObjectInfo(objectInfo);
+            }
+            assertEquals(5000, source.exportSnapshot(snapshot));
+            exported = all(source);
+        }
+
+        IdAllocator idAllocator = new IdAllocator();
+        try (ShardedObjectInfoRepository target = new ShardedObjectInfoRepository(Map.of(
+                "a", new InMemoryObjectInfoRepositoryImpl(null, idAllocator),
+                "b", new InMemoryObjectInfoRepositoryImpl(null, idAllocator)))) {
+            assertEquals(5000, target.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray())));
+            assertEquals(exported, all(target));
+            assertEquals(BsonDocument.parse("{\"i\": 10, \"tags\": [\"a\", {\"b\": 1}]}"),
+                    target.getObjectInfo("bucket-1", "key-10").getBsonMetadata());
+
+            // the imported ids came from the source's allocator, new saves must not hand them out again
+            ObjectInfo saved = new ObjectInfo();
+            saved.setBucket("bucket-0");
+            saved.setKey("new");
+            target.saveObjectInfo(saved);
+            assertTrue(saved.getId() > exported.getLast().getId());
+        }
+    }
+
+    @Test
+    void mappedRepositoryExportsAndImportsItsSlots() {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        ObjectInfo last;
+        try (MappedObjectInfoRepositoryImpl source = new MappedObjectInfoRepositoryImpl(tempDir.resolve("source"), 64)) {
+            for (int i = 0; i < 20; i++) {
+                source.saveObjectInfo(objectInfo("bucket-" + i % 2, "key-" + i, i));
+            }
+            source.deleteObjectInfo(objectInfo("bucket-1", "key-3", 3));
+            last = source.lastSavedObjectInfo();
+            assertEquals(19, source.exportSnapshot(snapshot));
+        }
+
+        try (MappedObjectInfoRepositoryImpl target = new MappedObjectInfoRepositoryImpl(tempDir.resolve("target"), 64)) {
+            assertEquals(19, target.importSnapshot(new ByteArrayInputStream(snapshot.toByteArray())));
+            assertEquals(19, target.size());
+            assertEquals(last, target.getObjectInfo("bucket-1", "key-19"));
+            assertNull(target.getObjectInfo("bucket-1", "key-3"));
+            assertEquals(9, target.getBucketStats("bucket-1").objectCount());
+
+            ObjectInfo saved = objectInfo("bucket-0", "new", 20);
+            target.saveObjectInfo(saved);
+            assertTrue(saved.getId() > last.getId());
+        }
+    }
+
+    @Test
+    void rejectsForeignStreams() {
+        byte[] notASnapshot = RawBsonDocument.parse("{\"hello\": \"world\"}").getByteBuffer().array();
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            assertThrows(IllegalArgumentException.class, () -> repository.importSnapshot(new ByteArrayInputStream(notASnapshot)));
+        }
+    }
+
+    private static List<ObjectInfo> all(QueryableObjectInfoRepository repository) {
+        return repository.listBuckets().stream()
+                .flatMap(bucket -> repository.findObjectInfos(bucket, Long.MIN_VALUE, Long.MAX_VALUE))
+                .sorted(Comparator.comparing(ObjectInfo::getId))
+                .toList();
+    }
+}
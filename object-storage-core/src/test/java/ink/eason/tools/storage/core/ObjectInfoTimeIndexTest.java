@@ -0,0 +1,80 @@
+package ink.eason.tools.storage.core;
+
+import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ObjectInfoTimeIndexTest {
+
+    private static final long DAY_1 = Instant.parse("2025-09-13T00:00:00Z").toEpochMilli();
+    private static final long DAY_2 = Instant.parse("2025-09-14T00:00:00Z").toEpochMilli();
+    private static final long DAY_3 = Instant.parse("2025-09-15T00:00:00Z").toEpochMilli();
+
+    @Test
+    void rangeQueryStreamsAcrossDaysInTimeOrder() {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            repository.saveObjectInfo(objectInfo("bucket", "d3", DAY_3 + 10));
+            repository.saveObjectInfo(objectInfo("bucket", "d1-late", DAY_1 + 5000));
+            repository.saveObjectInfo(objectInfo("bucket", "d1-early", DAY_1 + 10));
+            repository.saveObjectInfo(objectInfo("bucket", "d2", DAY_2 + 1));
+            repository.saveObjectInfo(objectInfo("other", "o", DAY_2 + 2));
+
+            assertEquals(List.of("d1-late", "d2"), keys(repository, "bucket", DAY_1 + 100, DAY_3));
+            assertEquals(List.of("d1-early", "d1-late", "d2", "d3"), keys(repository, "bucket", Long.MIN_VALUE, Long.MAX_VALUE));
+            assertEquals(List.of(), keys(repository, "missing", Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    void overwriteAndDeleteAreReflectedInTheIndex() {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            repository.saveObjectInfo(objectInfo("bucket", "a", DAY_1));
+            repository.saveObjectInfo(objectInfo("bucket", "b", DAY_1 + 1));
+            repository.saveObjectInfo(objectInfo("bucket", "a", DAY_2));
+            repository.deleteObjectInfo(objectInfo("bucket", "b", DAY_1 + 1));
+
+            assertEquals(List.of("a"), keys(repository, "bucket", Long.MIN_VALUE, Long.MAX_VALUE));
+            assertEquals(List.of(), keys(repository, "bucket", DAY_1, DAY_2));
+        }
+    }
+
+    @Test
+    void bulkDeleteDropsARangeFromEveryIndex() {
+        try (InMemoryObjectInfoRepositoryImpl repository = new InMemoryObjectInfoRepositoryImpl()) {
+            repository.createMetadataIndex("bucket", "owner");
+            ObjectInfo a = objectInfo("bucket", "a", DAY_1, 10);
+            a.setBsonMetadata(RawBsonDocument.parse("{ 'owner': 'alice' }"));
+            repository.saveObjectInfo(a);
+            repository.saveObjectInfo(objectInfo("bucket", "b", DAY_1 + 1, 20));
+            repository.saveObjectInfo(objectInfo("bucket", "c", DAY_2, 30));
+            // moved out of the dropped day by an overwrite
+            repository.saveObjectInfo(objectInfo("bucket", "moved", DAY_1 + 2, 40));
+            repository.saveObjectInfo(objectInfo("bucket", "moved", DAY_3, 50));
+
+            List<ObjectInfo> deleted = repository.deleteObjectInfos("bucket", DAY_1, DAY_2);
+
+            assertEquals(List.of("a", "b"), deleted.stream().map(ObjectInfo::getKey).toList());
+            assertNull(repository.getObjectInfo("bucket", "a"));
+            assertEquals(List.of("c", "moved"), keys(repository, "bucket", Long.MIN_VALUE, Long.MAX_VALUE));
+            assertEquals(List.of(), repository.findObjectInfos("bucket", BsonDocument.parse("{ 'owner': 'alice' }"), null).toList());
+            BucketStats stats = repository.getBucketStats("bucket");
+            assertEquals(2, stats.objectCount());
+            assertEquals(80, stats.totalSize());
+            assertEquals(Set.of("20250914", "20250915"), stats.partitions().keySet());
+            assertEquals(List.of(), repository.deleteObjectInfos("bucket", DAY_1, DAY_2));
+            assertEquals(List.of(), repository.deleteObjectInfos("missing", DAY_1, DAY_2));
+        }
+    }
+
+    private static List<String> keys(QueryableObjectInfoRepository repository, String bucket, long from, long to) {
+        return repository.findObjectInfos(bucket, from, to).map(ObjectInfo::getKey).toList();
+    }
+}
@@ -0,0 +1,117 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectLifecycleTest {
+
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void objectsExpireIndividuallyUnlessOverwritten() {
+        try (AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {}) {
+            storage.saveObject("tmp", "old", content("old"));
+            storage.setLifecycleRule(new LifecycleRule("tmp", Duration.ofMinutes(10)));
+            storage.saveObject("tmp", "new", content("new"));
+            storage.saveObject("kept", "key", content("kept"));
+            long created = storage.getObjectInfo("tmp", "new").getCreateTime();
+
+            storage.lifecycle.expire(created + Duration.ofMinutes(5).toMillis());
+            assertNotNull(storage.getObjectInfo("tmp", "old"));
+
+            storage.lifecycle.expire(created + Duration.ofMinutes(11).toMillis());
+            assertNull(storage.getObjectInfo("tmp", "old"));
+            assertNull(storage.getObjectInfo("tmp", "new"));
+            assertNotNull(storage.getObjectInfo("kept", "key"));
+            assertEquals(0, storage.queryable().orElseThrow().getBucketStats("tmp").objectCount());
+        }
+    }
+
+    @Test
+    void raisingTheTtlKeepsObjectsPastTheOldDeadline() {
+        try (AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {}) {
+            storage.setLifecycleRule(new LifecycleRule("tmp", Duration.ofMinutes(10)));
+            storage.saveObject("tmp", "key", content("key"));
+            long created = storage.getObjectInfo("tmp", "key").getCreateTime();
+
+            storage.setLifecycleRule(new LifecycleRule("tmp", Duration.ofMinutes(30)));
+            storage.lifecycle.expire(created + Duration.ofMinutes(11).toMillis());
+            assertNotNull(storage.getObjectInfo("tmp", "key"));
+            storage.lifecycle.expire(created + Duration.ofMinutes(31).toMillis());
+            assertNull(storage.getObjectInfo("tmp", "key"));
+        }
+    }
+
+    @Test
+    void loweringTheTtlExpiresObjectsBeforeTheOldDeadline() {
+        try (AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {}) {
+            storage.setLifecycleRule(new LifecycleRule("tmp", Duration.ofMinutes(30)));
+            storage.saveObject("tmp", "key", content("key"));
+            long created = storage.getObjectInfo("tmp", "key").getCreateTime();
+
+            storage.setLifecycleRule(new LifecycleRule("tmp", Duration.ofMinutes(5)));
+            storage.lifecycle.expire(created + Duration.ofMinutes(6).toMillis());
+            assertNull(storage.getObjectInfo("tmp", "key"));
+        }
+    }
+
+    @Test
+    void removingARuleCancelsTheTimersOfItsBucket() {
+        try (AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {}) {
+            storage.setLifecycleRule(new LifecycleRule("tmp", Duration.ofMinutes(10)));
+            storage.saveObject("tmp", "key", content("key"));
+            long created = storage.getObjectInfo("tmp", "key").getCreateTime();
+
+            storage.removeLifecycleRule("tmp");
+            storage.lifecycle.expire(created + Duration.ofMinutes(11).toMillis());
+            assertNotNull(storage.getObjectInfo("tmp", "key"));
+        }
+    }
+
+    @Test
+    void expiredDayPartitionsAreDroppedAtOnce() throws IOException {
+        try (AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {}) {
+            storage.setLifecycleRule(new LifecycleRule("tmp", Duration.ofHours(1)));
+            storage.saveObject("tmp", "a", content("a"));
+            storage.saveObject("tmp", "b", content("b"));
+            ObjectInfo a = storage.getObjectInfo("tmp", "a");
+            Path partition = storage.dataDir.resolve(a.getPath()).getParent();
+
+            StoredObject reading = storage.openObject("tmp", "b");
+            storage.lifecycle.expire(ObjectInfoTimeIndex.epochDay(a.getCreateTime()) * DAY + 2 * DAY);
+
+            assertNull(storage.getObjectInfo("tmp", "a"));
+            assertNull(storage.getObjectInfo("tmp", "b"));
+            assertFalse(Files.exists(storage.dataDir.resolve(a.getPath())));
+            // the file being read survives the drop until it is closed
+            assertTrue(Files.exists(storage.dataDir.resolve(reading.objectInfo().getPath())));
+            assertEquals("b", new String(reading.inputStream().readAllBytes(), StandardCharsets.UTF_8));
+            reading.close();
+            assertFalse(Files.exists(storage.dataDir.resolve(reading.objectInfo().getPath())));
+
+            storage.lifecycle.expire(ObjectInfoTimeIndex.epochDay(a.getCreateTime()) * DAY + 2 * DAY);
+            assertFalse(Files.exists(partition));
+        }
+    }
+
+    private static InputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
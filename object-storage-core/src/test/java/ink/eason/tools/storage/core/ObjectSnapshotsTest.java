@@ -0,0 +1,91 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectSnapshotsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void snapshotKeepsObjectsThatAreOverwrittenOrDeletedLater() throws IOException {
+        AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir.resolve("storage"), new InMemoryObjectInfoRepositoryImpl()) {};
+        storage.saveObject("bucket", "a", content("a1"));
+        storage.saveObject("bucket", "b", content("b1"));
+        storage.saveObject("other", "c", content("c1"));
+        Path aPath = storage.dataDir.resolve(storage.getObjectInfo("bucket", "a").getPath());
+
+        Path snapshot = storage.createSnapshot("first");
+        assertTrue(Files.isSameFile(aPath, snapshot.resolve(ObjectSnapshots.DATA).resolve(storage.getObjectInfo("bucket", "a").getPath())));
+
+        storage.saveObject("bucket", "a", content("a2"));
+        storage.deleteObject("bucket", "b");
+        assertFalse(Files.exists(aPath));
+
+        // the snapshot opens as a storage of its own
+        AbstractObjectStorageImpl restored = new AbstractObjectStorageImpl(tempDir.resolve("restored"), snapshot.resolve(ObjectSnapshots.DATA), new InMemoryObjectInfoRepositoryImpl()) {};
+        try (InputStream in = Files.newInputStream(snapshot.resolve(ObjectSnapshots.OBJECT_INFOS))) {
+            assertEquals(3, restored.queryable().orElseThrow().importSnapshot(in));
+        }
+        assertEquals("a1", read(restored.getObject("bucket", "a")));
+        assertEquals("b1", read(restored.getObject("bucket", "b")));
+        assertEquals("c1", read(restored.getObject("other", "c")));
+        assertEquals("a2", read(storage.getObject("bucket", "a")));
+        assertNull(storage.getObject("bucket", "b"));
+    }
+
+    @Test
+    void mappedStorageSnapshotsOpenAsAStorage() throws IOException {
+        Path snapshot;
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir.resolve("meta"), 64)) {
+            AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir.resolve("storage"), repository) {};
+            storage.saveObject("bucket", "a", content("a1"));
+            storage.saveObject("bucket", "b", content("b1"));
+            snapshot = storage.createSnapshot("first");
+            storage.saveObject("bucket", "a", content("a2"));
+        }
+
+        try (MappedObjectInfoRepositoryImpl repository = new MappedObjectInfoRepositoryImpl(tempDir.resolve("restored-meta"), 64)) {
+            AbstractObjectStorageImpl restored = new AbstractObjectStorageImpl(tempDir.resolve("restored"), snapshot.resolve(ObjectSnapshots.DATA), repository) {};
+            try (InputStream in = Files.newInputStream(snapshot.resolve(ObjectSnapshots.OBJECT_INFOS))) {
+                assertEquals(2, restored.snapshottable().orElseThrow().importSnapshot(in));
+            }
+            assertEquals("a1", read(restored.getObject("bucket", "a")));
+            assertEquals("b1", read(restored.getObject("bucket", "b")));
+        }
+    }
+
+    @Test
+    void snapshotNamesAreUnique() {
+        AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {};
+        storage.saveObject("bucket", "a", content("a1"));
+        storage.createSnapshot("daily");
+
+        assertThrows(IllegalArgumentException.class, () -> storage.createSnapshot("daily"));
+        assertThrows(IllegalArgumentException.class, () -> storage.createSnapshot("../daily"));
+    }
+
+    private static InputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ObjectVersioningTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void pinnedVersionStaysReadableUntilClosed() throws IOException {
+        AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {};
+        storage.saveObject("bucket", "key", content("v1"));
+
+        StoredObject v1 = storage.openObject("bucket", "key");
+        Path v1Path = storage.dataDir.resolve(v1.objectInfo().getPath());
+        storage.saveObject("bucket", "key", content("v2"));
+
+        assertTrue(Files.exists(v1Path));
+        assertEquals("v1", read(v1.inputStream()));
+        try (InputStream v2 = storage.getObject("bucket", "key")) {
+            assertEquals("v2", read(v2));
+        }
+        v1.close();
+        assertFalse(Files.exists(v1Path));
+    }
+
+    @Test
+    void unreadVersionsAreReclaimedImmediately() throws IOException {
+        AbstractObjectStorageImpl storage = new AbstractObjectStorageImpl(tempDir, new InMemoryObjectInfoRepositoryImpl()) {};
+        storage.saveObject("bucket", "key", content("v1"));
+        Path v1Path = storage.dataDir.resolve(storage.getObjectInfo("bucket", "key").getPath());
+
+        storage.saveObject("bucket", "key", content("v2"));
+        assertFalse(Files.exists(v1Path));
+
+        Path v2Path = storage.dataDir.resolve(storage.getObjectInfo("bucket", "key").getPath());
+        try (StoredObject v2 = storage.openObject("bucket", "key")) {
+            storage.deleteObject("bucket", "key");
+            assertNull(storage.getObject("bucket", "key"));
+            assertEquals("v2", read(v2.inputStream()));
+        }
+        assertFalse(Files.exists(v2Path));
+    }
+
+    private static InputStream content(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,130 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedObjectInfoRepositoryTest {
+
+    private static final int KEYS = 2000;
+
+    @Test
+    void keysAreSpreadAndQueriesFanOut() {
+        IdAllocator idAllocator = new IdAllocator();
+        Map<String, InMemoryObjectInfoRepositoryImpl> shards = shards(idAllocator, "a", "b", "c");
+        try (ShardedObjectInfoRepository repository = new ShardedObjectInfoRepository(shards)) {
+            for (int i = 0; i < KEYS; i++) {
+                repository.saveObjectInfo(objectInfo("bucket", "key-" + i, i));
+            }
+            for (InMemoryObjectInfoRepositoryImpl shard : shards.values()) {
+                long count = shard.getBucketStats("bucket").objectCount();
+                assertTrue(count > KEYS / 6 && count < KEYS / 2, "unbalanced shard: " + count);
+            }
+            assertEquals("key-7", repository.getObjectInfo("bucket", "key-7").getKey());
+            assertEquals(KEYS, repository.getBucketStats("bucket").objectCount());
+            assertEquals(KEYS, repository.findObjectInfos("bucket", Long.MIN_VALUE, Long.MAX_VALUE).count());
+            assertEquals("key-10", repository.findObjectInfos("bucket", 10, 20).findFirst().orElseThrow().getKey());
+            assertEquals(KEYS - 1, repository.lastSavedObjectInfo().getCreateTime());
+
+            repository.deleteObjectInfo(objectInfo("bucket", "key-7", 0));
+            assertNull(repository.getObjectInfo("bucket", "key-7"));
+        }
+    }
+
+    @Test
+    void rebalanceMovesKeysOnlineAndKeepsIds() throws Exception {
+        IdAllocator idAllocator = new IdAllocator();
+        try (ShardedObjectInfoRepository repository = new ShardedObjectInfoRepository(shards(idAllocator, "a", "b"))) {
+            Map<String, Long> ids = new HashMap<>();
+            for (int i = 0; i < KEYS; i++) {
+                ObjectInfo objectInfo = objectInfo("bucket", "key-" + i, i);
+                repository.saveObjectInfo(objectInfo);
+                ids.put(objectInfo.getKey(), objectInfo.getId());
+            }
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread writer = Thread.ofPlatform().start(() -> {
+                try {
+                    for (int round = 0; running.get(); round++) {
+                        repository.saveObjectInfo(objectInfo("bucket", "hot-" + (round % 50), round));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            Thread reader = Thread.ofPlatform().start(() -> {
+                try {
+                    for (int i = 0; running.get(); i = (i + 1) % KEYS) {
+                        // a key being migrated must be found on one of its owners
+                        if (repository.getObjectInfo("bucket", "key-" + i) == null) {
+                            throw new AssertionError("key-" + i + " not found during the rebalance");
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            InMemoryObjectInfoRepositoryImpl added = new InMemoryObjectInfoRepositoryImpl(null, idAllocator);
+            repository.addShard("c", added);
+            running.set(false);
+            writer.join();
+            reader.join();
+            assertNull(failure.get());
+
+            assertTrue(added.getBucketStats("bucket").objectCount() > 0);
+            for (int i = 0; i < KEYS; i++) {
+                assertEquals(ids.get("key-" + i), repository.getObjectInfo("bucket", "key-" + i).getId());
+            }
+            // every key lives on exactly one shard
+            assertEquals(KEYS + 50, repository.getBucketStats("bucket").objectCount());
+
+            QueryableObjectInfoRepository removed = repository.removeShard("a");
+            assertEquals(0, removed.getBucketStats("bucket").objectCount());
+            assertEquals(KEYS + 50, repository.getBucketStats("bucket").objectCount());
+            assertEquals(ids.get("key-42"), repository.getObjectInfo("bucket", "key-42").getId());
+        }
+    }
+
+    @Test
+    void rebalancePagesThroughKeysSharingACreateTime() {
+        IdAllocator idAllocator = new IdAllocator();
+        int keys = 2 * ShardedObjectInfoRepository.MIGRATION_BATCH + 1;
+        try (ShardedObjectInfoRepository repository = new ShardedObjectInfoRepository(shards(idAllocator, "a"))) {
+            for (int i = 0; i < keys; i++) {
+                repository.saveObjectInfo(objectInfo("bucket", "key-" + i, 42));
+            }
+            Set<String> names = repository.getShardNames();
+
+            repository.addShard("b", new InMemoryObjectInfoRepositoryImpl(null, idAllocator));
+            assertEquals(Set.of("a"), names);
+            assertEquals(Set.of("a", "b"), repository.getShardNames());
+            assertThrows(UnsupportedOperationException.class, () -> repository.getShardNames().remove("a"));
+
+            repository.removeShard("a");
+            assertEquals(keys, repository.getBucketStats("bucket").objectCount());
+            for (int i = 0; i < keys; i++) {
+                assertEquals("key-" + i, repository.getObjectInfo("bucket", "key-" + i).getKey());
+            }
+        }
+    }
+
+    private static Map<String, InMemoryObjectInfoRepositoryImpl> shards(IdAllocator idAllocator, String... names) {
+        Map<String, InMemoryObjectInfoRepositoryImpl> shards = new LinkedHashMap<>();
+        for (String name : names) {
+            shards.put(name, new InMemoryObjectInfoRepositoryImpl(null, idAllocator));
+        }
+        return shards;
+    }
+}
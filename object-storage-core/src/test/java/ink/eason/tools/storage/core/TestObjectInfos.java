@@ -0,0 +1,38 @@
+package ink.eason.tools.storage.core;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Object infos for tests with every field but the id and the metadata set; the path follows the
+ * {@code bucket/yyyyMMdd/key} layout of the data directory.
+ */
+final class TestObjectInfos {
+
+    static final String EMPTY_MD5 = "d41d8cd98f00b204e9800998ecf8427e";
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    private TestObjectInfos() {
+    }
+
+    static ObjectInfo objectInfo(String bucket, String key) {
+        return objectInfo(bucket, key, System.currentTimeMillis());
+    }
+
+    static ObjectInfo objectInfo(String bucket, String key, long createTime) {
+        return objectInfo(bucket, key, createTime, 1);
+    }
+
+    static ObjectInfo objectInfo(String bucket, String key, long createTime, long size) {
+        ObjectInfo objectInfo = new ObjectInfo();
+        objectInfo.setBucket(bucket);
+        objectInfo.setKey(key);
+        objectInfo.setPath(bucket + "/" + DAY.format(Instant.ofEpochMilli(createTime)) + "/" + key);
+        objectInfo.setCreateTime(createTime);
+        objectInfo.setSize(size);
+        objectInfo.setMd5(EMPTY_MD5);
+        return objectInfo;
+    }
+}
@@ -0,0 +1,212 @@
+package ink.eason.tools.storage.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static ink.eason.tools.storage.core.TestObjectInfos.objectInfo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WriteBehindObjectInfoRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesAreVisibleBeforeAndCoalescedByTheFlush() {
+        CountingRepository backend = new CountingRepository();
+        try (WriteBehindObjectInfoRepository repository = new WriteBehindObjectInfoRepository(backend, tempDir, 60_000, 1_000_000, false)) {
+            for (int i = 0; i < 100; i++) {
+                repository.saveObjectInfo(objectInfo("bucket", "hot", i));
+            }
+            repository.saveObjectInfo(objectInfo("bucket", "gone", 1));
+            repository.deleteObjectInfo(objectInfo("bucket", "gone", 1));
+
+            assertEquals(99, repository.getObjectInfo("bucket", "hot").getCreateTime());
+            assertNull(repository.getObjectInfo("bucket", "gone"));
+            assertNull(backend.getObjectInfo("bucket", "hot"));
+            assertThrows(PreconditionFailedException.class,
+                    () -> repository.saveObjectInfo(objectInfo("bucket", "hot", 100), WriteCondition.ifNoneMatch()));
+
+            repository.flush();
+            assertEquals(0, repository.pendingCount());
+            assertEquals(1, backend.writes.get());
+            assertEquals(repository.getObjectInfo("bucket", "hot"), backend.getObjectInfo("bucket", "hot"));
+            assertEquals(1, repository.getBucketStats("bucket").objectCount());
+        }
+    }
+
+    @Test
+    void unflushedWritesAreReplayedAfterACrash() {
+        // never flushes on its own and is never closed, like a process that died
+        WriteBehindObjectInfoRepository crashed = new WriteBehindObjectInfoRepository(new CountingRepository(), tempDir, 60_000, 1_000_000, false);
+        ObjectInfo saved = objectInfo("bucket", "a", 1);
+        crashed.saveObjectInfo(saved);
+        crashed.saveObjectInfo(objectInfo("bucket", "b", 2));
+        crashed.deleteObjectInfo(objectInfo("bucket", "b", 2));
+        // an unconditional delete of a key that is not pending logs only what the caller passed
+        ObjectInfo bare = new ObjectInfo();
+        bare.setBucket("bucket");
+        bare.setKey("c");
+        crashed.deleteObjectInfo(bare);
+
+        CountingRepository backend = new CountingRepository();
+        try (WriteBehindObjectInfoRepository repository = new WriteBehindObjectInfoRepository(backend, tempDir)) {
+            assertEquals(0, repository.pendingCount());
+            assertEquals(saved, backend.getObjectInfo("bucket", "a"));
+            assertNull(backend.getObjectInfo("bucket", "b"));
+        }
+    }
+
+    @Test
+    void unconditionalWritesLeaveTheReplacedVersionToTheFlush() {
+        CountingRepository backend = new CountingRepository();
+        ObjectInfo a0 = objectInfo("bucket", "a", 0);
+        ObjectInfo b0 = objectInfo("bucket", "b", 0);
+        backend.saveObjectInfo(a0);
+        backend.saveObjectInfo(b0);
+        try (WriteBehindObjectInfoRepository repository = new WriteBehindObjectInfoRepository(backend, tempDir, 60_000, 1_000_000, false)) {
+            List<ObjectInfo> replaced = new CopyOnWriteArrayList<>();
+            repository.onReplacedAtFlush(replaced::add);
+            backend.reads.set(0);
+
+            ObjectInfo a1 = objectInfo("bucket", "a", 1);
+            assertNull(repository.saveObjectInfo(a1));
+            assertEquals(a1, repository.saveObjectInfo(objectInfo("bucket", "a", 2)));
+            assertNull(repository.deleteObjectInfo(objectInfo("bucket", "b", 0)));
+            assertNull(repository.getObjectInfo("bucket", "b"));
+            assertEquals(0, backend.reads.get());
+            // conditional writes still check the backend, and return what they replace right away
+            assertEquals(a0.getId(), backend.getObjectInfo("bucket", "a").getId());
+            backend.reads.set(0);
+            assertNull(repository.saveObjectInfo(objectInfo("bucket", "c", 3), WriteCondition.ifNoneMatch()));
+            assertEquals(1, backend.reads.get());
+
+            repository.flush();
+            assertEquals(Set.of(a0.getId(), b0.getId()), replaced.stream().map(ObjectInfo::getId).collect(Collectors.toSet()));
+            assertEquals(2, backend.getObjectInfo("bucket", "a").getCreateTime());
+            assertNull(backend.getObjectInfo("bucket", "b"));
+
+            // once flushed, the key is no longer pending and the next unconditional write knows nothing again
+            assertNull(repository.saveObjectInfo(objectInfo("bucket", "a", 4)));
+            repository.flush();
+            assertEquals(2, replaced.getLast().getCreateTime());
+            assertEquals(3, replaced.size());
+        }
+    }
+
+    @Test
+    void closeWaitsForWritesInFlight() throws Exception {
+        CountingRepository backend = new CountingRepository();
+        WriteBehindObjectInfoRepository repository = new WriteBehindObjectInfoRepository(backend, tempDir, 60_000, 1_000_000, false);
+        Set<String> acknowledged = ConcurrentHashMap.newKeySet();
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int writer = t;
+            writers.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (int i = 0; ; i++) {
+                        repository.saveObjectInfo(objectInfo("bucket", writer + "-" + i, i));
+                        acknowledged.add(writer + "-" + i);
+                    }
+                } catch (IllegalStateException e) {
+                    // closed
+                }
+            }));
+        }
+        while (acknowledged.size() < 1000) {
+            Thread.onSpinWait();
+        }
+        repository.close();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        for (String key : acknowledged) {
+            assertNotNull(backend.getObjectInfo("bucket", key), key);
+        }
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertEquals(List.of(), files.filter(path -> path.getFileName().toString().startsWith("wal-")).toList());
+        }
+    }
+
+    @Test
+    void conditionalWritesRereadTheBackendWhenAFlushAppliedTheKey() {
+        AtomicReference<Runnable> duringRead = new AtomicReference<>();
+        CountingRepository backend = new CountingRepository() {
+            @Override
+            public ObjectInfo getObjectInfo(String bucket, String key) {
+                ObjectInfo objectInfo = super.getObjectInfo(bucket, key);
+                Runnable hook = duringRead.getAndSet(null);
+                if (hook != null) {
+                    hook.run();
+                }
+                return objectInfo;
+            }
+        };
+        try (WriteBehindObjectInfoRepository repository = new WriteBehindObjectInfoRepository(backend, tempDir, 60_000, 1_000_000, false)) {
+            // the key is saved and flushed between the backend read of the conditional save and its check
+            duringRead.set(() -> {
+                repository.saveObjectInfo(objectInfo("bucket", "key", 1));
+                repository.flush();
+            });
+            assertThrows(PreconditionFailedException.class,
+                    () -> repository.saveObjectInfo(objectInfo("bucket", "key", 2), WriteCondition.ifNoneMatch()));
+            assertEquals(1, repository.getObjectInfo("bucket", "key").getCreateTime());
+        }
+    }
+
+    @Test
+    void forcedWritesOfConcurrentWritersAreReplayedAfterACrash() throws Exception {
+        WriteBehindObjectInfoRepository crashed = new WriteBehindObjectInfoRepository(new CountingRepository(), tempDir, 60_000, 1_000_000, true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int writer = t;
+            writers.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 100; i++) {
+                    crashed.saveObjectInfo(objectInfo("bucket", writer + "-" + i, i));
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        CountingRepository backend = new CountingRepository();
+        try (WriteBehindObjectInfoRepository repository = new WriteBehindObjectInfoRepository(backend, tempDir)) {
+            assertEquals(400, backend.getBucketStats("bucket").objectCount());
+        }
+    }
+
+    private static class CountingRepository extends InMemoryObjectInfoRepositoryImpl {
+
+        private final AtomicInteger writes = new AtomicInteger();
+        private final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public ObjectInfo getObjectInfo(String bucket, String key) {
+            reads.incrementAndGet();
+            return super.getObjectInfo(bucket, key);
+        }
+
+        @Override
+        public ObjectInfo restoreObjectInfo(ObjectInfo objectInfo, WriteCondition condition) {
+            writes.incrementAndGet();
+            return super.restoreObjectInfo(objectInfo, condition);
+        }
+    }
+}